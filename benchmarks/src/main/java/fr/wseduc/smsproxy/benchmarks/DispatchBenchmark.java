@@ -0,0 +1,68 @@
+package fr.wseduc.smsproxy.benchmarks;
+
+import fr.wseduc.smsproxy.providers.SmsProvider;
+import fr.wseduc.smsproxy.providers.SmsProviderRegistry;
+import fr.wseduc.smsproxy.providers.metrics.SmsMetricsRecorderFactory;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selection of the provider of a bus message, as done by the verticle before sending : registry lookup, action switch
+ * and availability check.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+    private Vertx vertx;
+    private SmsProviderRegistry registry;
+    private JsonObject message;
+
+    @Setup
+    public void setup() {
+        vertx = Vertx.vertx();
+        SmsMetricsRecorderFactory.init(vertx, new JsonObject().put("metricsOptions", new JsonObject().put("enabled", false)));
+        registry = SmsProviderRegistry.create(vertx, new JsonObject()
+                .put("OVH", new JsonObject().put("smsServiceName", "sms-bench"))
+                .put("OVH-secondary", new JsonObject().put("type", "OVH").put("smsServiceName", "sms-bench"))
+                .put("Sinch", new JsonObject().put("baseUrl", "http://localhost").put("servicePlanId", "bench")));
+        message = new JsonObject()
+                .put("action", "send-sms")
+                .put("provider", "Sinch")
+                .put("parameters", Fixtures.sendSmsParameters(Fixtures.receivers(1)));
+    }
+
+    @TearDown
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Benchmark
+    public SmsProvider dispatch() {
+        final SmsProvider provider = registry.get(message.getString("provider", ""));
+        switch (message.getString("action", "")) {
+            case "send-sms":
+                return provider.isAvailable() ? provider : null;
+            case "get-info":
+                return provider;
+            default:
+                return null;
+        }
+    }
+}
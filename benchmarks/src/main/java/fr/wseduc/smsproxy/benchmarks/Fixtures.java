@@ -0,0 +1,127 @@
+package fr.wseduc.smsproxy.benchmarks;
+
+import fr.wseduc.sms.SmsSendingReport;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Data shaped like the production traffic : receivers as sent by the applications, requests and provider responses.
+ */
+public final class Fixtures {
+    private Fixtures() {}
+
+    /** Receivers in national format with separators ("06 12 34 56 78"). */
+    public static final String NATIONAL = "national";
+    /** Receivers in international format ("+33712345678"). */
+    public static final String INTERNATIONAL = "international";
+    /** Half of the receivers in each format. */
+    public static final String MIXED = "mixed";
+
+    /**
+     * @param count Number of receivers
+     * @return Distinct mobile numbers, half in national format with separators, half in international format
+     */
+    public static List<String> receivers(final int count) {
+        return receivers(count, MIXED);
+    }
+
+    /**
+     * @param count Number of receivers
+     * @param format {@link #NATIONAL}, {@link #INTERNATIONAL} or {@link #MIXED}
+     * @return Distinct mobile numbers in the given format
+     */
+    public static List<String> receivers(final int count, final String format) {
+        final Random random = new Random(count);
+        final List<String> receivers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int number = 10000000 + (i * 7919 + random.nextInt(7919)) % 90000000;
+            final String digits = Integer.toString(number);
+            if (NATIONAL.equals(format) || (MIXED.equals(format) && i % 2 == 0)) {
+                receivers.add("06 " + digits.substring(0, 2) + " " + digits.substring(2, 4) + " " +
+                        digits.substring(4, 6) + " " + digits.substring(6, 8));
+            } else {
+                receivers.add("+337" + digits);
+            }
+        }
+        return receivers;
+    }
+
+    /**
+     * @return The receivers in the format returned by the providers
+     */
+    public static List<String> formatted(final List<String> receivers) {
+        final List<String> formatted = new ArrayList<>(receivers.size());
+        for (String receiver : receivers) {
+            formatted.add(receiver.startsWith("+") ? receiver : "+33" + receiver.substring(1).replace(" ", ""));
+        }
+        return formatted;
+    }
+
+    /**
+     * @return The parameters of a send-sms message
+     */
+    public static JsonObject sendSmsParameters(final List<String> receivers) {
+        return new JsonObject()
+                .put("receivers", new JsonArray(new ArrayList<Object>(receivers)))
+                .put("message", "Votre code de connexion est 123456. Il expire dans 10 minutes.")
+                .put("senderForResponse", true)
+                .put("noStopClause", true);
+    }
+
+    /**
+     * @return A response of the OVH jobs API, one id per receiver
+     */
+    public static Buffer ovhJobsResponse(final List<String> receivers) {
+        final JsonArray ids = new JsonArray();
+        for (int i = 0; i < receivers.size(); i++) {
+            ids.add(270000000L + i);
+        }
+        return new JsonObject()
+                .put("totalCreditsRemoved", (double) receivers.size())
+                .put("invalidReceivers", new JsonArray())
+                .put("ids", ids)
+                .put("validReceivers", new JsonArray(new ArrayList<Object>(formatted(receivers))))
+                .put("tag", "3f2a9c01d4e5b6a7")
+                .toBuffer();
+    }
+
+    /**
+     * @return A response of the Sinch batches API
+     */
+    public static Buffer sinchBatchResponse(final List<String> receivers) {
+        final JsonArray to = new JsonArray();
+        for (String receiver : formatted(receivers)) {
+            to.add(receiver.substring(1));
+        }
+        return new JsonObject()
+                .put("id", "01FC66621XXXXX119Z8PMV1QPQ")
+                .put("to", to)
+                .put("from", "Edifice")
+                .put("canceled", false)
+                .put("body", "Votre code de connexion est 123456. Il expire dans 10 minutes.")
+                .put("type", "mt_text")
+                .put("created_at", "2026-10-18T09:12:44.332Z")
+                .put("modified_at", "2026-10-18T09:12:44.332Z")
+                .put("delivery_report", "none")
+                .put("expire_at", "2026-10-21T09:12:44.332Z")
+                .put("flash_message", false)
+                .put("client_reference", "3f2a9c01d4e5b6a7")
+                .toBuffer();
+    }
+
+    /**
+     * @return A report of a sending where all the receivers are valid
+     */
+    public static SmsSendingReport report(final List<String> receivers) {
+        final String[] ids = new String[receivers.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = Long.toString(270000000L + i);
+        }
+        return new SmsSendingReport(ids, new String[0], formatted(receivers).toArray(new String[0]));
+    }
+}
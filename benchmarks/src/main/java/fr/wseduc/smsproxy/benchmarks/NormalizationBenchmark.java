@@ -0,0 +1,75 @@
+package fr.wseduc.smsproxy.benchmarks;
+
+import fr.wseduc.smsproxy.providers.ReceiverNormalizer;
+import fr.wseduc.webutils.StringValidation;
+import io.vertx.core.json.JsonArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Normalization of the receivers of a send-sms request, with the cache warm (receivers seen before) and without cache,
+ * against the previous path formatting each receiver with {@link StringValidation#formatPhone(String)}. Only the
+ * receivers in international format take the single pass formatting of {@link ReceiverNormalizer}, the others still
+ * go through {@code formatPhone} when they are not cached.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NormalizationBenchmark {
+    @Param({"1", "100", "10000"})
+    public int receivers;
+
+    @Param({Fixtures.MIXED, Fixtures.NATIONAL, Fixtures.INTERNATIONAL})
+    public String format;
+
+    private JsonArray input;
+    private ReceiverNormalizer cached;
+    private ReceiverNormalizer uncached;
+
+    @Setup
+    public void setup() {
+        input = new JsonArray(new ArrayList<Object>(Fixtures.receivers(receivers, format)));
+        cached = new ReceiverNormalizer(10000);
+        cached.normalize(input);
+        uncached = new ReceiverNormalizer(0);
+    }
+
+    @Benchmark
+    public JsonArray cached() {
+        return cached.normalize(input);
+    }
+
+    @Benchmark
+    public JsonArray uncached() {
+        return uncached.normalize(input);
+    }
+
+    /**
+     * Baseline : the loop ReceiverNormalizer replaced.
+     */
+    @Benchmark
+    public JsonArray formatPhone() {
+        final JsonArray formatted = new JsonArray(new ArrayList<>(input.size()));
+        for (Object receiver : input) {
+            if (receiver instanceof String) {
+                formatted.add(StringValidation.formatPhone((String) receiver));
+            }
+        }
+        return formatted;
+    }
+}
@@ -0,0 +1,55 @@
+package fr.wseduc.smsproxy.benchmarks;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsJson;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building of the send-sms reply from the provider report : as delivered on a local bus (copied) and on a clustered
+ * bus (encoded).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplyEncodingBenchmark {
+    @Param({"1", "100", "10000"})
+    public int receivers;
+
+    private SmsSendingReport report;
+
+    @Setup
+    public void setup() {
+        report = Fixtures.report(Fixtures.receivers(receivers));
+    }
+
+    private JsonObject reply() {
+        return new JsonObject().put("status", "ok").put("data", SmsJson.toJson(report));
+    }
+
+    @Benchmark
+    public JsonObject localReply() {
+        return reply().copy();
+    }
+
+    @Benchmark
+    public Buffer clusteredReply() {
+        return reply().toBuffer();
+    }
+}
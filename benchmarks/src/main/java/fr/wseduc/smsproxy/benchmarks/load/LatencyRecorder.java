@@ -0,0 +1,36 @@
+package fr.wseduc.smsproxy.benchmarks.load;
+
+import java.util.Arrays;
+
+/**
+ * Records latencies (in ns) and computes their percentiles. Not thread safe, used from the driver context only.
+ */
+public class LatencyRecorder {
+    private long[] values = new long[1024];
+    private int count;
+
+    public void record(final long nanos) {
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+        }
+        values[count++] = nanos;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /**
+     * @param percentile Between 0 and 100
+     * @return The latency (in ms) below which {@code percentile} percents of the recorded latencies are
+     */
+    public double percentile(final double percentile) {
+        if (count == 0) {
+            return 0d;
+        }
+        final long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        final int index = (int) Math.min(count - 1, Math.max(0, Math.ceil(percentile / 100d * count) - 1));
+        return sorted[index] / 1e6;
+    }
+}
@@ -0,0 +1,211 @@
+package fr.wseduc.smsproxy.benchmarks.load;
+
+import fr.wseduc.smsproxy.Sms;
+import fr.wseduc.smsproxy.benchmarks.Fixtures;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Load test of the module against the stand-in providers : deploys the {@link Sms} verticle, sends {@code send-sms}
+ * messages on its address at a constant rate and reports the throughput, the latency percentiles and the allocation
+ * rate.
+ * <p>
+ * Usage : {@code java -cp target/benchmarks.jar fr.wseduc.smsproxy.benchmarks.load.LoadTest [config.json]}, the
+ * configuration being :
+ * <ul>
+ *     <li>provider : {@code OVH} or {@code Sinch}, defaults to OVH</li>
+ *     <li>rate : messages sent per second, defaults to 200</li>
+ *     <li>warmupSeconds : duration of the warm up (not reported), defaults to 10</li>
+ *     <li>durationSeconds : duration of the measure, defaults to 30</li>
+ *     <li>receivers : receivers per message, defaults to 1</li>
+ *     <li>instances : number of event-loop instances of the verticle, defaults to 1</li>
+ *     <li>standIn : {@link StandInBehaviour} of the stand-in provider</li>
+ *     <li>provider.conf : additional provider configuration (rateLimit, retry, http...)</li>
+ *     <li>module : additional module configuration</li>
+ * </ul>
+ * </p>
+ */
+public class LoadTest {
+    private static final String ADDRESS = "entcore.sms";
+    private static final String ENDPOINT = "localhost";
+    private static final JsonObject OVH_CREDENTIALS = new JsonObject()
+            .put("applicationKey", "standin-ak")
+            .put("applicationSecret", "standin-as")
+            .put("consumerKey", "standin-ck");
+    private static final JsonObject SINCH_CREDENTIALS = new JsonObject()
+            .put("servicePlanId", "standin-plan")
+            .put("apiToken", "standin-token");
+
+    private final Vertx vertx;
+    private final JsonObject conf;
+    private final LatencyRecorder latencies = new LatencyRecorder();
+    private final Map<String, Integer> outcomes = new TreeMap<>();
+    private boolean measuring;
+    private int pending;
+
+    private LoadTest(final Vertx vertx, final JsonObject conf) {
+        this.vertx = vertx;
+        this.conf = conf;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final JsonObject conf = args.length > 0 ? new JsonObject(new String(Files.readAllBytes(Paths.get(args[0])), "UTF-8")) : new JsonObject();
+        final Vertx vertx = Vertx.vertx();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        new LoadTest(vertx, conf).run()
+                .onSuccess(done::complete)
+                .onFailure(done::completeExceptionally);
+        try {
+            done.get();
+        } finally {
+            vertx.close();
+        }
+    }
+
+    private Future<Void> run() {
+        final boolean ovh = !"Sinch".equals(conf.getString("provider", "OVH"));
+        final JsonObject standInConf = conf.getJsonObject("standIn", new JsonObject());
+        final Future<Integer> port;
+        if (ovh) {
+            port = new OVHStandIn(vertx, ENDPOINT, standInConf.copy().mergeIn(OVH_CREDENTIALS)).start(0);
+        } else {
+            port = new SinchStandIn(vertx, standInConf.copy().mergeIn(SINCH_CREDENTIALS)).start(0);
+        }
+        return port.compose(p -> vertx.deployVerticle(() -> new Sms(), new DeploymentOptions()
+                        .setConfig(moduleConf(ovh, p))
+                        .setInstances(conf.getInteger("instances", 1))))
+                .compose(id -> drive(conf.getInteger("warmupSeconds", 10), false))
+                .compose(v -> {
+                    final long[] allocatedBefore = allocatedBytes();
+                    final long[] gcBefore = gc();
+                    final long start = System.nanoTime();
+                    return drive(conf.getInteger("durationSeconds", 30), true).map(v2 -> {
+                        report((System.nanoTime() - start) / 1e9, allocatedBytes()[0] - allocatedBefore[0],
+                                gc()[0] - gcBefore[0], gc()[1] - gcBefore[1]);
+                        return null;
+                    });
+                });
+    }
+
+    private JsonObject moduleConf(final boolean ovh, final int port) {
+        final JsonObject providerConf;
+        if (ovh) {
+            providerConf = OVH_CREDENTIALS.copy()
+                    .put("ovhEndPoint", ENDPOINT)
+                    .put("ovhPort", port)
+                    .put("ovhSsl", false);
+        } else {
+            providerConf = SINCH_CREDENTIALS.copy()
+                    .put("baseUrl", "http://" + ENDPOINT + ":" + port);
+        }
+        providerConf.mergeIn(conf.getJsonObject("provider.conf", new JsonObject()));
+        return new JsonObject()
+                .put("address", ADDRESS)
+                .put("metricsOptions", new JsonObject().put("enabled", false))
+                .put("providers", new JsonObject().put(ovh ? "OVH" : "Sinch", providerConf))
+                .mergeIn(conf.getJsonObject("module", new JsonObject()));
+    }
+
+    //Sends messages at the configured rate for the given duration, completed once every answer is received
+    private Future<Void> drive(final int seconds, final boolean measure) {
+        final Promise<Void> promise = Promise.promise();
+        final double rate = conf.getDouble("rate", 200d);
+        final int receivers = conf.getInteger("receivers", 1);
+        final String provider = "Sinch".equals(conf.getString("provider", "OVH")) ? "Sinch" : "OVH";
+        final List<String> numbers = Fixtures.receivers(receivers);
+        final DeliveryOptions options = new DeliveryOptions().setSendTimeout(120000L);
+        final long start = System.nanoTime();
+        final long end = start + seconds * 1000000000L;
+        final long[] sent = {0L};
+        final boolean[] finished = {false};
+        measuring = measure;
+        vertx.setPeriodic(10L, timer -> {
+            final long now = System.nanoTime();
+            final long due = Math.min((long) ((Math.min(now, end) - start) / 1e9 * rate), (long) (seconds * rate));
+            for (; sent[0] < due; sent[0]++) {
+                final JsonObject message = new JsonObject()
+                        .put("action", "send-sms")
+                        .put("provider", provider)
+                        .put("parameters", Fixtures.sendSmsParameters(numbers));
+                final long sentAt = System.nanoTime();
+                pending++;
+                vertx.eventBus().<JsonObject>request(ADDRESS, message, options).onComplete(ar -> {
+                    pending--;
+                    if (measuring) {
+                        latencies.record(System.nanoTime() - sentAt);
+                        outcomes.merge(ar.succeeded() ? outcome(ar.result()) : "bus." + ar.cause().getMessage(), 1, Integer::sum);
+                    }
+                    if (finished[0] && pending == 0) {
+                        promise.tryComplete();
+                    }
+                });
+            }
+            if (now >= end) {
+                finished[0] = true;
+                vertx.cancelTimer(timer);
+                if (pending == 0) {
+                    promise.tryComplete();
+                }
+            }
+        });
+        return promise.future();
+    }
+
+    private static String outcome(final Message<JsonObject> reply) {
+        final JsonObject body = reply.body();
+        return "ok".equals(body.getString("status")) ? "ok" : body.getString("message", "error");
+    }
+
+    //Bytes allocated by the live threads
+    private static long[] allocatedBytes() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long total = 0L;
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+            for (long allocated : allocations.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+                total += Math.max(0L, allocated);
+            }
+        }
+        return new long[]{total};
+    }
+
+    //Number and duration (ms) of the garbage collections
+    private static long[] gc() {
+        long count = 0L, time = 0L;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0L, collector.getCollectionCount());
+            time += Math.max(0L, collector.getCollectionTime());
+        }
+        return new long[]{count, time};
+    }
+
+    private void report(final double seconds, final long allocated, final long gcCount, final long gcTime) {
+        final int ok = outcomes.getOrDefault("ok", 0);
+        System.out.println("Provider      : " + conf.getString("provider", "OVH") + ", " + conf.getInteger("receivers", 1) + " receiver(s) per message");
+        System.out.println("Instances     : " + conf.getInteger("instances", 1));
+        System.out.println("Target rate   : " + conf.getDouble("rate", 200d) + " msg/s");
+        System.out.println(String.format("Throughput    : %.1f msg/s answered, %.1f msg/s ok", latencies.count() / seconds, ok / seconds));
+        System.out.println("Outcomes      : " + outcomes);
+        System.out.println(String.format("Latency (ms)  : p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f",
+                latencies.percentile(50), latencies.percentile(90), latencies.percentile(99),
+                latencies.percentile(99.9), latencies.percentile(100)));
+        System.out.println(String.format("Allocation    : %.1f MB/s, %.1f KB/msg", allocated / seconds / 1e6,
+                latencies.count() == 0 ? 0d : allocated / 1e3 / latencies.count()));
+        System.out.println("GC            : " + gcCount + " collections, " + gcTime + " ms");
+    }
+}
@@ -0,0 +1,110 @@
+package fr.wseduc.smsproxy.benchmarks.load;
+
+import fr.wseduc.smsproxy.providers.ovh.OVHHelper;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in of the OVH API endpoints used by the OVH provider : {@code /1.0/auth/time}, {@code /1.0/sms/}
+ * and {@code /1.0/sms/{service}/jobs/}. Signed requests are checked like OVH does, with the same credentials as the
+ * provider configuration, by the original signing code of {@link OVHHelper#getRequestSignature} rather than the signer
+ * of the provider.
+ */
+public class OVHStandIn {
+    public static final String SERVICE = "sms-standin";
+    private static final String PREFIX = "/1.0";
+    private final Vertx vertx;
+    private final String endPoint;
+    private final String applicationKey;
+    private final String applicationSecret;
+    private final String consumerKey;
+    private final StandInBehaviour behaviour;
+    private final AtomicLong ids = new AtomicLong(270000000L);
+    private HttpServer server;
+
+    /**
+     * @param endPoint Host name configured as {@code ovhEndPoint} in the provider, part of the signed url
+     * @param conf Credentials ({@code applicationKey}, {@code applicationSecret}, {@code consumerKey}) and
+     * {@link StandInBehaviour} of the stand-in
+     */
+    public OVHStandIn(final Vertx vertx, final String endPoint, final JsonObject conf) {
+        this.vertx = vertx;
+        this.endPoint = endPoint;
+        this.applicationKey = conf.getString("applicationKey", "");
+        this.applicationSecret = conf.getString("applicationSecret", "");
+        this.consumerKey = conf.getString("consumerKey", "");
+        this.behaviour = new StandInBehaviour(conf);
+    }
+
+    /**
+     * @return The port listened to
+     */
+    public Future<Integer> start(final int port) {
+        server = vertx.createHttpServer().requestHandler(this::handle);
+        return server.listen(port).map(HttpServer::actualPort);
+    }
+
+    public Future<Void> stop() {
+        return server == null ? Future.succeededFuture() : server.close();
+    }
+
+    private void handle(final HttpServerRequest request) {
+        request.body().onSuccess(body -> {
+            final String path = request.path();
+            if (request.method() == HttpMethod.GET && (PREFIX + "/auth/time").equals(path)) {
+                request.response().end(Long.toString(System.currentTimeMillis() / 1000L));
+            } else if (!checkSignature(request, body)) {
+                request.response().setStatusCode(400).putHeader("Content-Type", "application/json")
+                        .end("{\"errorCode\":\"INVALID_SIGNATURE\",\"message\":\"Invalid signature\"}");
+            } else if (request.method() == HttpMethod.GET && (PREFIX + "/sms/").equals(path)) {
+                behaviour.respond(vertx, request.response(), response -> response.putHeader("Content-Type", "application/json")
+                        .end(new JsonArray().add(SERVICE).toBuffer()));
+            } else if (request.method() == HttpMethod.POST && (PREFIX + "/sms/" + SERVICE + "/jobs/").equals(path)) {
+                final Buffer jobs = jobs(body);
+                behaviour.respond(vertx, request.response(), response -> response.putHeader("Content-Type", "application/json")
+                        .end(jobs));
+            } else {
+                request.response().setStatusCode(404).end("{\"message\":\"Not found\"}");
+            }
+        });
+    }
+
+    private boolean checkSignature(final HttpServerRequest request, final Buffer body) {
+        final String timestamp = request.getHeader("X-Ovh-Timestamp");
+        final String signature = request.getHeader("X-Ovh-Signature");
+        if (timestamp == null || signature == null || !applicationKey.equals(request.getHeader("X-Ovh-Application")) ||
+                !consumerKey.equals(request.getHeader("X-Ovh-Consumer"))) {
+            return false;
+        }
+        final String url = "https://" + endPoint + request.uri();
+        try {
+            return signature.equals(OVHHelper.getRequestSignature(applicationSecret, consumerKey, request.method().name(),
+                    url, body.toString(), timestamp));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Buffer jobs(final Buffer body) {
+        final JsonArray receivers = new JsonObject(body).getJsonArray("receivers", new JsonArray());
+        final JsonArray jobIds = new JsonArray();
+        for (int i = 0; i < receivers.size(); i++) {
+            jobIds.add(ids.incrementAndGet());
+        }
+        return new JsonObject()
+                .put("totalCreditsRemoved", (double) receivers.size())
+                .put("invalidReceivers", new JsonArray())
+                .put("ids", jobIds)
+                .put("validReceivers", receivers)
+                .toBuffer();
+    }
+}
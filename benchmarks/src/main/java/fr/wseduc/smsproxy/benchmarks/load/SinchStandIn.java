@@ -0,0 +1,78 @@
+package fr.wseduc.smsproxy.benchmarks.load;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in of the Sinch {@code /{servicePlanId}/batches} endpoint, checking the bearer token.
+ */
+public class SinchStandIn {
+    private final Vertx vertx;
+    private final String servicePlanId;
+    private final String apiToken;
+    private final StandInBehaviour behaviour;
+    private final AtomicLong ids = new AtomicLong();
+    private HttpServer server;
+
+    /**
+     * @param conf Credentials ({@code servicePlanId}, {@code apiToken}) and {@link StandInBehaviour} of the stand-in
+     */
+    public SinchStandIn(final Vertx vertx, final JsonObject conf) {
+        this.vertx = vertx;
+        this.servicePlanId = conf.getString("servicePlanId", "");
+        this.apiToken = conf.getString("apiToken", "");
+        this.behaviour = new StandInBehaviour(conf);
+    }
+
+    /**
+     * @return The port listened to
+     */
+    public Future<Integer> start(final int port) {
+        server = vertx.createHttpServer().requestHandler(this::handle);
+        return server.listen(port).map(HttpServer::actualPort);
+    }
+
+    public Future<Void> stop() {
+        return server == null ? Future.succeededFuture() : server.close();
+    }
+
+    private void handle(final HttpServerRequest request) {
+        request.body().onSuccess(body -> {
+            if (!("Bearer " + apiToken).equals(request.getHeader("Authorization"))) {
+                request.response().setStatusCode(401).end("{\"code\":\"unauthorized\"}");
+            } else if (request.method() == HttpMethod.POST && ("/" + servicePlanId + "/batches").equals(request.path())) {
+                final Buffer batch = batch(body);
+                behaviour.respond(vertx, request.response(), response -> response.setStatusCode(201)
+                        .putHeader("Content-Type", "application/json").end(batch));
+            } else {
+                request.response().setStatusCode(404).end("{\"code\":\"not_found\"}");
+            }
+        });
+    }
+
+    private Buffer batch(final Buffer body) {
+        final JsonObject request = new JsonObject(body);
+        final JsonArray to = new JsonArray();
+        for (Object receiver : request.getJsonArray("to", new JsonArray())) {
+            final String number = String.valueOf(receiver);
+            to.add(number.startsWith("+") ? number.substring(1) : number);
+        }
+        return new JsonObject()
+                .put("id", String.format("01STANDIN%017d", ids.incrementAndGet()))
+                .put("to", to)
+                .put("from", request.getString("from"))
+                .put("canceled", false)
+                .put("body", request.getString("body"))
+                .put("type", "mt_text")
+                .put("client_reference", request.getString("client_reference"))
+                .toBuffer();
+    }
+}
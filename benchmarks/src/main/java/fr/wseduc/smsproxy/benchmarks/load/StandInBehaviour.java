@@ -0,0 +1,69 @@
+package fr.wseduc.smsproxy.benchmarks.load;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Behaviour of a stand-in provider : response latency, errors and throttling.
+ * <p>
+ * Configuration :
+ * <ul>
+ *     <li>latencyMedianMs : median latency of the responses, defaults to 50</li>
+ *     <li>latencyP99Ms : 99th percentile of the latency (log-normal distribution), defaults to 4 times the median</li>
+ *     <li>errorRate : share of the calls answered with a 500 error, defaults to 0</li>
+ *     <li>throttleRate : share of the calls answered with a 429 error, defaults to 0</li>
+ * </ul>
+ * </p>
+ */
+public class StandInBehaviour {
+    // 99th percentile of the standard normal distribution
+    private static final double Z_99 = 2.326;
+    private final double median;
+    private final double sigma;
+    private final double errorRate;
+    private final double throttleRate;
+
+    public StandInBehaviour(final JsonObject conf) {
+        this.median = conf.getDouble("latencyMedianMs", 50d);
+        final double p99 = conf.getDouble("latencyP99Ms", median * 4);
+        this.sigma = median > 0 && p99 > median ? Math.log(p99 / median) / Z_99 : 0d;
+        this.errorRate = conf.getDouble("errorRate", 0d);
+        this.throttleRate = conf.getDouble("throttleRate", 0d);
+    }
+
+    /**
+     * Answers after a random latency : with an error or a throttling as configured, otherwise with {@code handler}.
+     */
+    public void respond(final Vertx vertx, final HttpServerResponse response, final Handler<HttpServerResponse> handler) {
+        final long latency = latency();
+        if (latency <= 0) {
+            doRespond(response, handler);
+        } else {
+            vertx.setTimer(latency, id -> doRespond(response, handler));
+        }
+    }
+
+    private void doRespond(final HttpServerResponse response, final Handler<HttpServerResponse> handler) {
+        final double draw = ThreadLocalRandom.current().nextDouble();
+        if (draw < errorRate) {
+            response.setStatusCode(500).putHeader("Content-Type", "application/json")
+                    .end("{\"message\":\"Internal server error\"}");
+        } else if (draw < errorRate + throttleRate) {
+            response.setStatusCode(429).putHeader("Content-Type", "application/json").putHeader("Retry-After", "1")
+                    .end("{\"message\":\"Too many requests\"}");
+        } else {
+            handler.handle(response);
+        }
+    }
+
+    private long latency() {
+        if (median <= 0) {
+            return 0L;
+        }
+        return Math.round(median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+}
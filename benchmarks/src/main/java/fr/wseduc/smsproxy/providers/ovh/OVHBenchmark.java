@@ -0,0 +1,79 @@
+package fr.wseduc.smsproxy.providers.ovh;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.benchmarks.Fixtures;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OVH request building and signing, and decoding of the jobs responses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OVHBenchmark {
+    private static final String APPLICATION_SECRET = "EgWIz07P0HYwtQDs";
+    private static final String CONSUMER_KEY = "MtSwSrPpNjqfVSmJhLbPyr2i45lSwPU1";
+    private static final long TIMESTAMP = 1792310400L;
+
+    @Param({"1", "100", "10000"})
+    public int receivers;
+
+    private JsonObject parameters;
+    private Buffer body;
+    private String bodyString;
+    private Buffer jobsResponse;
+    private OVHRequestSigner signer;
+
+    @Setup
+    public void setup() {
+        final List<String> numbers = Fixtures.formatted(Fixtures.receivers(receivers));
+        parameters = Fixtures.sendSmsParameters(numbers);
+        body = parameters.toBuffer();
+        bodyString = body.toString();
+        jobsResponse = Fixtures.ovhJobsResponse(numbers);
+        signer = new OVHRequestSigner(APPLICATION_SECRET, CONSUMER_KEY);
+    }
+
+    @Benchmark
+    public String sign() {
+        return signer.sign("POST", "https://eu.api.ovh.com/1.0/sms/sms-bench/jobs/", body, TIMESTAMP);
+    }
+
+    @Benchmark
+    public String getRequestSignature() throws NoSuchAlgorithmException {
+        return OVHHelper.getRequestSignature(APPLICATION_SECRET, CONSUMER_KEY, "POST",
+                "https://eu.api.ovh.com/1.0/sms/sms-bench/jobs/", bodyString, Long.toString(TIMESTAMP));
+    }
+
+    @Benchmark
+    public void buildPost(final Blackhole blackhole) {
+        blackhole.consume(OVHHelper.OVHClient.buildUri("POST", "/sms/sms-bench/jobs/", parameters));
+        blackhole.consume(OVHHelper.OVHClient.buildBody("POST", parameters));
+    }
+
+    @Benchmark
+    public SmsSendingReport decodeJobs(final Blackhole blackhole) throws IOException {
+        return OVHSmsProvider.decodeJobs(jobsResponse, blackhole::consume);
+    }
+}
@@ -0,0 +1,45 @@
+package fr.wseduc.smsproxy.providers.sinch;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.benchmarks.Fixtures;
+import io.vertx.core.buffer.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of the Sinch batches responses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SinchBenchmark {
+    @Param({"1", "100", "10000"})
+    public int receivers;
+
+    private Buffer batchResponse;
+
+    @Setup
+    public void setup() {
+        batchResponse = Fixtures.sinchBatchResponse(Fixtures.receivers(receivers));
+    }
+
+    @Benchmark
+    public SmsSendingReport decodeBatch() throws IOException {
+        return SinchSmsProvider.decodeBatch(batchResponse);
+    }
+}
@@ -16,12 +16,28 @@
 
 package fr.wseduc.smsproxy;
 
-import java.util.ServiceLoader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.dlr.DeliveryStatusStore;
+import fr.wseduc.smsproxy.dlr.DeliveryWebhook;
+import fr.wseduc.smsproxy.journal.OutboundJournal;
+import fr.wseduc.smsproxy.schedule.SmsSchedule;
+import fr.wseduc.smsproxy.providers.SmsProviderRegistry;
+import fr.wseduc.smsproxy.providers.SmsSendingException;
 import fr.wseduc.smsproxy.providers.metrics.SmsMetricsRecorderFactory;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Promise;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 import fr.wseduc.smsproxy.providers.SmsProvider;
@@ -29,8 +45,12 @@ import org.vertx.java.busmods.BusModBase;
 
 public class Sms extends BusModBase implements Handler<Message<JsonObject>> {
 
-	private ServiceLoader<SmsProvider> implementations;
+	private SmsProviderRegistry providers;
 	private JsonObject providersList = new JsonObject();
+	private OutboundJournal journal;
+	private DeliveryStatusStore deliveryStatuses;
+	private DeliveryWebhook deliveryWebhook;
+	private SmsSchedule schedule;
 
 	/**
 	 * Verticle start method.
@@ -38,8 +58,6 @@ public class Sms extends BusModBase implements Handler<Message<JsonObject>> {
 	@Override
 	public void start(final Promise<Void> startPromise){
 		super.start();
-		vertx.eventBus().consumer(config.getString("address", "entcore.sms"), this);
-		implementations = ServiceLoader.load(SmsProvider.class);
 		providersList = config.getJsonObject("providers");
 		SmsMetricsRecorderFactory.init(vertx, config)
       .onSuccess(e -> {
@@ -48,26 +66,222 @@ public class Sms extends BusModBase implements Handler<Message<JsonObject>> {
           startPromise.fail("providers.list.empty");
           return;
         }
-        for (String field : providersList.fieldNames()) {
-          for (SmsProvider provider : implementations) {
-            if (provider.getClass().getSimpleName().equals(field + "SmsProvider")) {
-              provider.initProvider(vertx, providersList.getJsonObject(field));
-              logger.info("[Sms] " + provider.getClass().getName() + " registered.");
-            }
-          }
-        }
-        startPromise.complete();
+        providers = SmsProviderRegistry.create(vertx, providersList);
+        schedule = new SmsSchedule(vertx, config.getJsonObject("schedule", new JsonObject()), context.getInstanceCount(),
+            this::releaseScheduled);
+        openJournal()
+          .compose(v -> startDeliveryReports())
+          .onSuccess(v -> {
+            vertx.eventBus().consumer(config.getString("address", "entcore.sms"), this);
+            startPromise.complete();
+          })
+          .onFailure(startPromise::fail);
       })
       .onFailure(startPromise::fail);
 	}
 
-	//Return the instantiated provider given a provider name prefix
-	private SmsProvider getService(String serviceName){
-		for(SmsProvider provider : implementations){
-			if(provider.getClass().getSimpleName().equals(serviceName + "SmsProvider"))
-				return provider;
+	@Override
+	public void stop(final Promise<Void> stopPromise) throws Exception {
+		if (deliveryWebhook != null) {
+			deliveryWebhook.stop();
+		}
+		if (deliveryStatuses != null) {
+			deliveryStatuses.release();
+		}
+		if (providers != null) {
+			for (SmsProvider provider : providers.getAll()) {
+				provider.stop();
+			}
+		}
+		super.stop();
+		if (journal == null) {
+			stopPromise.complete();
+			return;
+		}
+		// Closing the journal waits for its writer thread, which must not block the event loop
+		final OutboundJournal opened = journal;
+		vertx.<Void>executeBlocking(promise -> {
+			opened.release();
+			promise.complete();
+		}, false).onComplete(stopPromise);
+	}
+
+	//Opens the optional journal and sends again the requests the previous run did not complete
+	private Future<Void> openJournal() {
+		final JsonObject journalConf = config.getJsonObject("journal");
+		if (journalConf == null) {
+			return Future.succeededFuture();
+		}
+		return OutboundJournal.acquire(vertx, journalConf).map(opened -> {
+			journal = opened;
+			// Shared by the verticle instances, only the first one sends the recovered requests again
+			for (JsonObject entry : journal.takeRecovered()) {
+				final String id = entry.getString("id");
+				final SmsProvider provider = providers.get(entry.getString("provider"));
+				if (provider == null) {
+					logger.error("[Sms] Dropping journaled request " + id + ", provider " + entry.getString("provider") + " is not registered.");
+					journal.completed(id, "invalid.provider");
+				} else if (entry.containsKey("sendAt")) {
+					logger.info("[Sms] Scheduling again journaled request " + id);
+					schedule.schedule(entry, entry.getLong("sendAt"));
+				} else {
+					logger.info("[Sms] Sending again journaled request " + id);
+					final JsonObject parameters = entry.getJsonObject("parameters");
+					if (parameters.containsKey("entries")) {
+						provider.sendBulk(parameters, 0L, null, null).onComplete(ar -> journal.completed(id, bulkOutcome(ar)));
+					} else {
+						provider.send(parameters).onComplete(ar -> journal.completed(id, outcome(ar)));
+					}
+				}
+			}
+			return null;
+		});
+	}
+
+	//Starts the optional endpoint of the delivery receipts
+	private Future<Void> startDeliveryReports() {
+		final JsonObject dlrConf = config.getJsonObject("dlr");
+		if (dlrConf == null) {
+			return Future.succeededFuture();
+		}
+		deliveryStatuses = DeliveryStatusStore.acquire(vertx, dlrConf, SmsMetricsRecorderFactory.getInstance());
+		// Receipts are routed and recorded by the configured name of the provider, parsed according to its type
+		final Map<String, String> providerTypes = new HashMap<>();
+		for (SmsProvider provider : providers.getAll()) {
+			providerTypes.put(provider.getName(), providersList.getJsonObject(provider.getName()).getString("type", provider.getName()));
+		}
+		deliveryWebhook = new DeliveryWebhook(vertx, deliveryStatuses, providerTypes, dlrConf);
+		return deliveryWebhook.start();
+	}
+
+	//Records the request in the journal before sending it, and its outcome once the provider answered
+	private <T> Future<T> sendJournaled(final SmsProvider provider, final Message<JsonObject> message,
+			final Supplier<Future<T>> sending, final Function<AsyncResult<T>, String> outcome) {
+		if (journal == null) {
+			return sending.get();
+		}
+		final String id = UUID.randomUUID().toString();
+		return journal.accepted(id, provider.getName(), message.body().getJsonObject("parameters"))
+				.onFailure(e -> logger.error("[Sms] Could not journal request " + id, e))
+				.otherwiseEmpty()
+				.compose(v -> sending.get().onComplete(ar -> journal.completed(id, outcome.apply(ar))));
+	}
+
+	//Holds the request until its sending time, recording it in the journal first
+	private void scheduleSms(final SmsProvider provider, final Message<JsonObject> message, final long sendAt, final long window) {
+		if (schedule.isFull()) {
+			sendError(message, "schedule.full");
+			return;
+		}
+		final String id = UUID.randomUUID().toString();
+		final JsonObject parameters = message.body().getJsonObject("parameters");
+		final String priority = message.body().getString("priority");
+		final long releaseAt = SmsSchedule.releaseTime(sendAt, window);
+		final JsonObject request = new JsonObject()
+				.put("id", id)
+				.put("provider", provider.getName())
+				.put("parameters", parameters)
+				.put("priority", priority);
+		final Future<Void> recorded = journal == null ? Future.succeededFuture() :
+				journal.accepted(id, provider.getName(), parameters, releaseAt, priority)
+						.onFailure(e -> logger.error("[Sms] Could not journal request " + id, e));
+		recorded.onComplete(v -> {
+			schedule.schedule(request, releaseAt);
+			sendOK(message, new JsonObject().put("data", new JsonObject().put("id", id).put("sendAt", releaseAt)));
+		});
+	}
+
+	//Sends a request released by the schedule, its caller having already been answered
+	private void releaseScheduled(final JsonObject request) {
+		final String id = request.getString("id");
+		final SmsProvider provider = providers.get(request.getString("provider"));
+		if (provider == null) {
+			logger.error("[Sms] Dropping scheduled request " + id + ", provider " + request.getString("provider") + " is not registered.");
+			if (journal != null) {
+				journal.completed(id, "invalid.provider");
+			}
+			return;
+		}
+		final SmsProvider selected = selectAvailable(provider);
+		selected.send(request.getJsonObject("parameters"), 0L, null, request.getString("priority")).onComplete(ar -> {
+			if (ar.failed()) {
+				logger.error("[Sms] Scheduled request " + id + " failed : " + outcome(ar));
+			}
+			if (journal != null) {
+				journal.completed(id, outcome(ar));
+			}
+			if (deliveryStatuses != null) {
+				trackDelivery(selected, ar);
+			}
+		});
+	}
+
+	//Indexes the ids of the sent messages, to measure their delivery delay when their receipts come
+	private void trackDelivery(final SmsProvider provider, final AsyncResult<SmsSendingReport> ar) {
+		final SmsSendingReport report = ar.succeeded() ? ar.result() :
+				ar.cause() instanceof SmsSendingException ? ((SmsSendingException) ar.cause()).getReport() : null;
+		if (report != null) {
+			deliveryStatuses.sent(provider.getName(), report.getIds());
+		}
+	}
+
+	//Answers the delivery statuses of the ids given as {@code id} or {@code ids} parameter
+	private void getStatus(final Message<JsonObject> message) {
+		if (deliveryStatuses == null) {
+			sendError(message, "dlr.disabled");
+			return;
+		}
+		final JsonObject parameters = message.body().getJsonObject("parameters", new JsonObject());
+		final List<String> ids = new ArrayList<>();
+		if (parameters.getValue("id") != null) {
+			ids.add(parameters.getValue("id").toString());
+		}
+		final JsonArray idsParameter = parameters.getJsonArray("ids");
+		if (idsParameter != null) {
+			for (Object id : idsParameter) {
+				if (id != null) {
+					ids.add(id.toString());
+				}
+			}
+		}
+		if (ids.isEmpty()) {
+			sendError(message, "invalid.ids");
+			return;
+		}
+		deliveryStatuses.lookup(ids)
+				.onSuccess(statuses -> sendOK(message, new JsonObject().put("data", statuses)))
+				.onFailure(e -> {
+					logger.error("[Sms] Could not look up delivery statuses.", e);
+					sendError(message, "dlr.lookup.error");
+				});
+	}
+
+	//Return the first available provider among the given one and its failover chain (the given one if none is)
+	private SmsProvider selectAvailable(final SmsProvider provider) {
+		if (provider.isAvailable()) {
+			return provider;
+		}
+		for (String name : provider.getFailover()) {
+			final SmsProvider failover = providers.get(name);
+			if (failover != null && failover.isAvailable()) {
+				logger.warn("[Sms] Provider " + provider.getName() + " is not available, sending with " + name + ".");
+				return failover;
+			}
+		}
+		return provider;
+	}
+
+	private static String outcome(final AsyncResult<SmsSendingReport> ar) {
+		if (ar.succeeded()) {
+			return "ok";
+		} else if (ar.cause() instanceof SmsSendingException) {
+			return ((SmsSendingException) ar.cause()).getErrorCode().getCode();
 		}
-		return null;
+		return SmsProvider.ErrorCodes.CALL_ERROR.getCode();
+	}
+
+	private static String bulkOutcome(final AsyncResult<List<AsyncResult<SmsSendingReport>>> ar) {
+		return ar.succeeded() ? "ok" : SmsProvider.ErrorCodes.CALL_ERROR.getCode();
 	}
 
 	@Override
@@ -75,16 +289,42 @@ public class Sms extends BusModBase implements Handler<Message<JsonObject>> {
 		String action = message.body().getString("action", "");
 		String providerName = message.body().getString("provider", "");
 
-		SmsProvider provider = getService(providerName);
+		if ("get-status".equals(action)) {
+			getStatus(message);
+			return;
+		}
+
+		SmsProvider provider = providers.get(providerName);
 		if(provider == null){
 			sendError(message, "invalid.provider");
 			return;
 		}
 
 		switch (action) {
-			case("send-sms"):
-				provider.sendSms(message);
+			case("send-sms"): {
+				final long now = System.currentTimeMillis();
+				final long sendAt = message.body().getLong("sendAt", 0L);
+				final long window = message.body().getLong("sendWindowMs", 0L);
+				if (sendAt > now || window > 0) {
+					scheduleSms(provider, message, Math.max(sendAt, now), window);
+					break;
+				}
+				final SmsProvider selected = selectAvailable(provider);
+				final Future<SmsSendingReport> sent = sendJournaled(selected, message, () -> selected.sendSms(message), Sms::outcome);
+				if (deliveryStatuses != null) {
+					sent.onComplete(ar -> trackDelivery(selected, ar));
+				}
+				break;
+			}
+			case("send-sms-bulk"): {
+				final SmsProvider selected = selectAvailable(provider);
+				final Future<List<AsyncResult<SmsSendingReport>>> sent = sendJournaled(selected, message,
+						() -> selected.sendBulk(message), Sms::bulkOutcome);
+				if (deliveryStatuses != null) {
+					sent.onSuccess(results -> results.forEach(ar -> trackDelivery(selected, ar)));
+				}
 				break;
+			}
 			case("get-info"):
 				provider.getInfo(message);
 				break;
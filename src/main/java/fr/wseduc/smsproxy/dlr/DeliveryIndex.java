@@ -0,0 +1,324 @@
+package fr.wseduc.smsproxy.dlr;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delivery statuses of the messages, one slot per receiver, stored column-wise in arrays.
+ * <p>
+ * Slots are allocated in insertion order in the arrays, used as a ring : the oldest message is always at the start of
+ * the ring, so that evicting the expired or overflowing messages only looks at its first slots. The first slot of a
+ * message is found through an open addressing table of slot numbers, the other receivers of the message being chained
+ * from it. The slots of the other receivers are freed with the first one and reclaimed when the start of the ring
+ * reaches them, or when the arrays are compacted.
+ * </p>
+ * <p>
+ * Not thread safe, {@link DeliveryStatusStore} synchronizes the accesses.
+ * </p>
+ */
+class DeliveryIndex {
+    private static final DeliveryStatus[] STATUSES = DeliveryStatus.values();
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int NONE = -1;
+
+    private final List<String> providerNames = new ArrayList<>();
+    private final Map<String, Short> providerIndexes = new HashMap<>();
+
+    // Columns, indexed by slot. A free slot has no id.
+    private String[] ids = new String[INITIAL_CAPACITY];
+    private String[] receivers = new String[INITIAL_CAPACITY];
+    private short[] providers = new short[INITIAL_CAPACITY];
+    private byte[] statuses = new byte[INITIAL_CAPACITY];
+    private long[] sentAts = new long[INITIAL_CAPACITY];
+    private long[] statusAts = new long[INITIAL_CAPACITY];
+    private long[] createdAts = new long[INITIAL_CAPACITY];
+    /** Slot of the next receiver of the same message */
+    private int[] nexts = new int[INITIAL_CAPACITY];
+    /** Oldest slot of the ring */
+    private int first;
+    /** Slots from the first one, free ones included */
+    private int used;
+    /** Slots in use */
+    private int slots;
+
+    /** First slot + 1 of the messages, by hash of their id, 0 when empty */
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+    private int messages;
+
+    /**
+     * @return The first slot of the message, {@link #NONE} if it is unknown
+     */
+    int find(final String id) {
+        final int mask = table.length - 1;
+        for (int i = hash(id) & mask; table[i] != 0; i = (i + 1) & mask) {
+            final int slot = table[i] - 1;
+            if (id.equals(ids[slot])) {
+                return slot;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @return The slot of the next receiver of the message, {@link #NONE} if it is the last one
+     */
+    int next(final int slot) {
+        return nexts[slot];
+    }
+
+    String provider(final int slot) {
+        return providerNames.get(providers[slot]);
+    }
+
+    String receiver(final int slot) {
+        return receivers[slot];
+    }
+
+    DeliveryStatus status(final int slot) {
+        return STATUSES[statuses[slot]];
+    }
+
+    long sentAt(final int slot) {
+        return sentAts[slot];
+    }
+
+    long statusAt(final int slot) {
+        return statusAts[slot];
+    }
+
+    /**
+     * @return The number of messages
+     */
+    int size() {
+        return messages;
+    }
+
+    /**
+     * Records the sending of a message, or the sending time of a message whose receipts came before the provider answer.
+     */
+    void sent(final String provider, final String id, final long now) {
+        final int head = find(id);
+        if (head == NONE) {
+            add(id, provider, null, DeliveryStatus.SENT, now, now, now);
+            return;
+        }
+        final short providerIndex = providerIndex(provider);
+        for (int slot = head; slot != NONE; slot = nexts[slot]) {
+            providers[slot] = providerIndex;
+            sentAts[slot] = now;
+        }
+    }
+
+    /**
+     * @return The slot updated by the receipt, {@link #NONE} if it is older than the known status
+     */
+    int apply(final DeliveryReceipt receipt, final long now) {
+        final int head = find(receipt.getId());
+        if (head == NONE) {
+            return add(receipt.getId(), receipt.getProvider(), receipt.getReceiver(), receipt.getStatus(), 0L,
+                    receipt.getAt(), now);
+        }
+        int slot = head;
+        while (slot != NONE && !sameReceiver(receivers[slot], receipt.getReceiver())) {
+            slot = nexts[slot];
+        }
+        if (slot == NONE) {
+            if (receivers[head] == null && statuses[head] == DeliveryStatus.SENT.ordinal()) {
+                // First receipt of a sent id
+                slot = head;
+                receivers[slot] = receipt.getReceiver();
+            } else {
+                // Appending may move the slots
+                final int added = append(ids[head], providers[head], receipt.getReceiver(), receipt.getStatus(),
+                        sentAts[head], receipt.getAt(), now);
+                final int moved = find(receipt.getId());
+                nexts[added] = nexts[moved];
+                nexts[moved] = added;
+                return added;
+            }
+        } else if (receipt.getAt() < statusAts[slot] || STATUSES[statuses[slot]].isTerminal()) {
+            // Receipts are not ordered, a terminal status is not replaced
+            return NONE;
+        }
+        statuses[slot] = (byte) receipt.getStatus().ordinal();
+        statusAts[slot] = receipt.getAt();
+        return slot;
+    }
+
+    private static boolean sameReceiver(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Drops the messages created before {@code expiredBefore}, then the oldest ones beyond {@code maxMessages}.
+     * @param overflow Gets the statuses of the messages dropped beyond {@code maxMessages}, as
+     * {@code id, provider, receiver, status, sentAt, statusAt} tab-separated lines, {@code null} to only drop them
+     */
+    void evict(final long expiredBefore, final int maxMessages, final List<String> overflow) {
+        // The first slot of the ring is always the first slot of the oldest message
+        while (messages > 0 && createdAts[first] <= expiredBefore) {
+            remove(first, null);
+        }
+        while (messages > maxMessages) {
+            remove(first, overflow);
+        }
+    }
+
+    private int add(final String id, final String provider, final String receiver, final DeliveryStatus status,
+                    final long sentAt, final long statusAt, final long now) {
+        final int slot = append(id, providerIndex(provider), receiver, status, sentAt, statusAt, now);
+        if (++messages * 2 > table.length) {
+            resizeTable(table.length * 2);
+        }
+        insert(slot);
+        return slot;
+    }
+
+    private int append(final String id, final short provider, final String receiver, final DeliveryStatus status,
+                       final long sentAt, final long statusAt, final long now) {
+        if (used == ids.length) {
+            // Doubles the arrays unless reclaiming the free slots leaves room enough
+            compact(slots * 2 > ids.length ? ids.length * 2 : ids.length);
+        }
+        final int slot = (first + used) & (ids.length - 1);
+        used++;
+        slots++;
+        ids[slot] = id;
+        providers[slot] = provider;
+        receivers[slot] = receiver;
+        statuses[slot] = (byte) status.ordinal();
+        sentAts[slot] = sentAt;
+        statusAts[slot] = statusAt;
+        createdAts[slot] = now;
+        nexts[slot] = NONE;
+        return slot;
+    }
+
+    private void remove(final int head, final List<String> overflow) {
+        final String id = ids[head];
+        delete(id);
+        messages--;
+        for (int slot = head; slot != NONE; slot = nexts[slot]) {
+            if (overflow != null) {
+                overflow.add(id + '\t' + providerNames.get(providers[slot]) + '\t' +
+                        (receivers[slot] == null ? "" : receivers[slot]) + '\t' + STATUSES[statuses[slot]].getCode() +
+                        '\t' + sentAts[slot] + '\t' + statusAts[slot]);
+            }
+            ids[slot] = null;
+            receivers[slot] = null;
+            slots--;
+        }
+        final int mask = ids.length - 1;
+        while (used > 0 && ids[first] == null) {
+            first = (first + 1) & mask;
+            used--;
+        }
+    }
+
+    // Moves the slots in use to the start of new arrays, in the same order
+    private void compact(final int capacity) {
+        final int mask = ids.length - 1;
+        final int[] moved = new int[ids.length];
+        final String[] newIds = new String[capacity];
+        final String[] newReceivers = new String[capacity];
+        final short[] newProviders = new short[capacity];
+        final byte[] newStatuses = new byte[capacity];
+        final long[] newSentAts = new long[capacity];
+        final long[] newStatusAts = new long[capacity];
+        final long[] newCreatedAts = new long[capacity];
+        final int[] newNexts = new int[capacity];
+        int count = 0;
+        for (int i = 0; i < used; i++) {
+            final int slot = (first + i) & mask;
+            if (ids[slot] == null) {
+                continue;
+            }
+            moved[slot] = count;
+            newIds[count] = ids[slot];
+            newReceivers[count] = receivers[slot];
+            newProviders[count] = providers[slot];
+            newStatuses[count] = statuses[slot];
+            newSentAts[count] = sentAts[slot];
+            newStatusAts[count] = statusAts[slot];
+            newCreatedAts[count] = createdAts[slot];
+            count++;
+        }
+        for (int i = 0; i < used; i++) {
+            final int slot = (first + i) & mask;
+            if (ids[slot] != null) {
+                newNexts[moved[slot]] = nexts[slot] == NONE ? NONE : moved[nexts[slot]];
+            }
+        }
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] != 0) {
+                table[i] = moved[table[i] - 1] + 1;
+            }
+        }
+        ids = newIds;
+        receivers = newReceivers;
+        providers = newProviders;
+        statuses = newStatuses;
+        sentAts = newSentAts;
+        statusAts = newStatusAts;
+        createdAts = newCreatedAts;
+        nexts = newNexts;
+        first = 0;
+        used = count;
+    }
+
+    private void resizeTable(final int length) {
+        final int[] previous = table;
+        table = new int[length];
+        for (int entry : previous) {
+            if (entry != 0) {
+                insert(entry - 1);
+            }
+        }
+    }
+
+    private void insert(final int slot) {
+        final int mask = table.length - 1;
+        int i = hash(ids[slot]) & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot + 1;
+    }
+
+    // Linear probing deletion : the following entries of the probe sequence are moved back into the hole
+    private void delete(final String id) {
+        final int mask = table.length - 1;
+        int hole = hash(id) & mask;
+        while (!id.equals(ids[table[hole] - 1])) {
+            hole = (hole + 1) & mask;
+        }
+        table[hole] = 0;
+        for (int i = (hole + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+            final int home = hash(ids[table[i] - 1]) & mask;
+            // Moved back unless its home is cyclically within (hole, i]
+            if (hole <= i ? (hole < home && home <= i) : (hole < home || home <= i)) {
+                continue;
+            }
+            table[hole] = table[i];
+            table[i] = 0;
+            hole = i;
+        }
+    }
+
+    private short providerIndex(final String provider) {
+        Short index = providerIndexes.get(provider);
+        if (index == null) {
+            index = (short) providerNames.size();
+            providerNames.add(provider);
+            providerIndexes.put(provider, index);
+        }
+        return index;
+    }
+
+    private static int hash(final String id) {
+        final int h = id.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,48 @@
+package fr.wseduc.smsproxy.dlr;
+
+/**
+ * Delivery receipt of a message, as received from a provider callback.
+ */
+public class DeliveryReceipt {
+    private final String provider;
+    private final String id;
+    private final String receiver;
+    private final DeliveryStatus status;
+    private final long at;
+
+    /**
+     * @param provider Configured name of the provider
+     * @param id Message id given by the provider in the sending report
+     * @param receiver Receiver the receipt is about, {@code null} if unknown
+     * @param status Delivery status
+     * @param at Time (epoch ms) of the status
+     */
+    public DeliveryReceipt(final String provider, final String id, final String receiver, final DeliveryStatus status,
+                           final long at) {
+        this.provider = provider;
+        this.id = id;
+        this.receiver = receiver;
+        this.status = status;
+        this.at = at;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getReceiver() {
+        return receiver;
+    }
+
+    public DeliveryStatus getStatus() {
+        return status;
+    }
+
+    public long getAt() {
+        return at;
+    }
+}
@@ -0,0 +1,300 @@
+package fr.wseduc.smsproxy.dlr;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Files keeping the statuses evicted from the memory of a {@link DeliveryStatusStore} before the end of their TTL.
+ * <p>
+ * Statuses are appended, one tab-separated line each, to a file per hour ({@code dlr-<epoch hour>.tsv}), files older
+ * than the TTL being deleted. Each file has in memory a Bloom filter of the ids it holds, built as it is written (and
+ * when the spill is opened for the files already there) : lookups only read the files which may hold one of the ids,
+ * from the newest one.
+ * </p>
+ * <p>
+ * Every file operation runs on the single thread of the executor of the store, so that the appends of the verticle
+ * instances do not interleave, and the filters are only used from that thread.
+ * </p>
+ */
+class DeliverySpill {
+    private static final Logger logger = LoggerFactory.getLogger(DeliverySpill.class);
+    private static final String PREFIX = "dlr-";
+    private static final String SUFFIX = ".tsv";
+    private static final long HOUR = 3600000L;
+    private final Vertx vertx;
+    private final ExecutorService executor;
+    private final Path directory;
+    private final long ttl;
+    /** Filters of the ids of each file, by hour */
+    private final Map<Long, List<IdFilter>> filters = new HashMap<>();
+
+    DeliverySpill(final Vertx vertx, final ExecutorService executor, final String directory, final long ttl) {
+        this.vertx = vertx;
+        this.executor = executor;
+        this.directory = Paths.get(directory).toAbsolutePath().normalize();
+        this.ttl = ttl;
+        executor.execute(this::load);
+    }
+
+    /**
+     * Appends lines to the file of the current hour.
+     * @param lines Lines written by {@link DeliveryStatusStore}, starting with the id, without their line separator
+     */
+    void write(final List<String> lines) {
+        execute(() -> {
+            final long hour = System.currentTimeMillis() / HOUR;
+            final Path file = directory.resolve(PREFIX + hour + SUFFIX);
+            try {
+                Files.createDirectories(directory);
+                try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    for (String line : lines) {
+                        writer.write(line);
+                        writer.write('\n');
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("[DLR] Could not spill " + lines.size() + " statuses to " + file, e);
+            }
+            // Lines that may have been written are indexed anyway, the filter only costs a useless read
+            final List<IdFilter> fileFilters = filters.computeIfAbsent(hour, k -> new ArrayList<>());
+            for (String line : lines) {
+                add(fileFilters, line.substring(0, line.indexOf('\t')));
+            }
+        });
+    }
+
+    /**
+     * @param ids Ids to look for
+     * @param parser Reads a line into the {@code id} and the status of a receiver
+     * @return The statuses of the ids found, by id
+     */
+    Future<Map<String, JsonArray>> lookup(final Set<String> ids, final LineParser parser) {
+        return submit(() -> {
+            final Map<String, Map<String, JsonObject>> found = new HashMap<>();
+            final List<Path> files = files();
+            files.sort((a, b) -> Long.compare(hour(b), hour(a)));
+            for (Path file : files) {
+                if (!mayContain(filters.get(hour(file)), ids)) {
+                    continue;
+                }
+                final Map<String, Map<String, JsonObject>> inFile = new HashMap<>();
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        final int tab = line.indexOf('\t');
+                        if (tab > 0 && ids.contains(line.substring(0, tab))) {
+                            final JsonObject status = parser.parse(line);
+                            // The last line of a receiver in a file is its latest status
+                            inFile.computeIfAbsent(line.substring(0, tab), k -> new HashMap<>())
+                                    .put(status.getString("receiver", ""), status);
+                        }
+                    }
+                }
+                // Statuses of newer files win
+                inFile.forEach((id, statuses) -> {
+                    final Map<String, JsonObject> known = found.computeIfAbsent(id, k -> new HashMap<>());
+                    statuses.forEach(known::putIfAbsent);
+                });
+            }
+            final Map<String, JsonArray> result = new HashMap<>();
+            found.forEach((id, statuses) -> result.put(id, new JsonArray(new ArrayList<>(statuses.values()))));
+            return result;
+        });
+    }
+
+    /**
+     * Deletes the files whose statuses all outlived the TTL. Called from the executor thread.
+     */
+    void purge() {
+        final long limit = (System.currentTimeMillis() - ttl) / HOUR;
+        try {
+            for (Path file : files()) {
+                if (hour(file) < limit) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("[DLR] Could not purge spilled statuses in " + directory, e);
+        }
+        final Iterator<Long> hours = filters.keySet().iterator();
+        while (hours.hasNext()) {
+            if (hours.next() < limit) {
+                hours.remove();
+            }
+        }
+    }
+
+    // Builds the filters of the files left by the previous run
+    private void load() {
+        try {
+            for (Path file : files()) {
+                final List<IdFilter> fileFilters = new ArrayList<>();
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        final int tab = line.indexOf('\t');
+                        if (tab > 0) {
+                            add(fileFilters, line.substring(0, tab));
+                        }
+                    }
+                }
+                filters.put(hour(file), fileFilters);
+            }
+        } catch (IOException e) {
+            logger.error("[DLR] Could not index spilled statuses in " + directory, e);
+        }
+    }
+
+    private static void add(final List<IdFilter> fileFilters, final String id) {
+        IdFilter filter = fileFilters.isEmpty() ? null : fileFilters.get(fileFilters.size() - 1);
+        if (filter == null || filter.isFull()) {
+            filter = new IdFilter();
+            fileFilters.add(filter);
+        }
+        filter.add(id);
+    }
+
+    // A file without filter (e.g. not readable when the spill was opened) is read
+    private static boolean mayContain(final List<IdFilter> fileFilters, final Set<String> ids) {
+        if (fileFilters == null) {
+            return true;
+        }
+        for (IdFilter filter : fileFilters) {
+            for (String id : ids) {
+                if (filter.mayContain(id)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void execute(final Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            logger.warn("[DLR] Spill closed, dropping statuses");
+        }
+    }
+
+    // Runs a task on the executor, its result being handed back on the context of the caller
+    private <T> Future<T> submit(final Callable<T> task) {
+        final Context context = vertx.getOrCreateContext();
+        final Promise<T> promise = Promise.promise();
+        try {
+            executor.execute(() -> {
+                try {
+                    final T result = task.call();
+                    context.runOnContext(v -> promise.complete(result));
+                } catch (Exception e) {
+                    logger.error("[DLR] Could not read spilled statuses in " + directory, e);
+                    context.runOnContext(v -> promise.fail(e));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            promise.fail(e);
+        }
+        return promise.future();
+    }
+
+    private List<Path> files() throws IOException {
+        final List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                if (hour(file) >= 0) {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static long hour(final Path file) {
+        final String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    @FunctionalInterface
+    interface LineParser {
+        JsonObject parse(String line);
+    }
+
+    /**
+     * Bloom filter of {@value #CAPACITY} ids, 10 bits and 7 hashes per id (about 1% of false positives when full).
+     */
+    static class IdFilter {
+        private static final int CAPACITY = 65536;
+        private static final int BITS = CAPACITY * 10;
+        private static final int HASHES = 7;
+        private final long[] bits = new long[(BITS + 63) / 64];
+        private int count;
+
+        boolean isFull() {
+            return count >= CAPACITY;
+        }
+
+        void add(final String id) {
+            final int h1 = id.hashCode();
+            final int h2 = secondHash(id);
+            for (int i = 0; i < HASHES; i++) {
+                final int bit = Math.floorMod(h1 + i * h2, BITS);
+                bits[bit >>> 6] |= 1L << bit;
+            }
+            count++;
+        }
+
+        boolean mayContain(final String id) {
+            final int h1 = id.hashCode();
+            final int h2 = secondHash(id);
+            for (int i = 0; i < HASHES; i++) {
+                final int bit = Math.floorMod(h1 + i * h2, BITS);
+                if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // FNV-1a, odd so that the probes do not repeat
+        private static int secondHash(final String id) {
+            int hash = 0x811C9DC5;
+            for (int i = 0; i < id.length(); i++) {
+                hash = (hash ^ id.charAt(i)) * 0x01000193;
+            }
+            return hash | 1;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package fr.wseduc.smsproxy.dlr;
+
+/**
+ * Delivery status of a message, common to every provider.
+ */
+public enum DeliveryStatus {
+    /** Accepted by the provider API, no receipt yet */
+    SENT("sent", false),
+    /** Waiting at the provider */
+    PENDING("pending", false),
+    /** Handed to the operator */
+    ACCEPTED("accepted", false),
+    DELIVERED("delivered", true),
+    FAILED("failed", true),
+    REJECTED("rejected", true),
+    EXPIRED("expired", true),
+    CANCELLED("cancelled", true),
+    UNKNOWN("unknown", false);
+
+    private final String code;
+    private final boolean terminal;
+
+    DeliveryStatus(final String code, final boolean terminal) {
+        this.code = code;
+        this.terminal = terminal;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * @return Whether no other receipt is expected after this one
+     */
+    public boolean isTerminal() {
+        return terminal;
+    }
+
+    /**
+     * @param status Status of a Sinch delivery report
+     */
+    public static DeliveryStatus fromSinch(final String status) {
+        if (status == null) {
+            return UNKNOWN;
+        }
+        switch (status) {
+            case "Queued":
+                return PENDING;
+            case "Dispatched":
+                return ACCEPTED;
+            case "Delivered":
+                return DELIVERED;
+            case "Failed":
+                return FAILED;
+            case "Rejected":
+                return REJECTED;
+            case "Expired":
+                return EXPIRED;
+            case "Aborted":
+            case "Cancelled":
+            case "Deleted":
+                return CANCELLED;
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    /**
+     * @param dlr {@code dlr} parameter of an OVH callback
+     */
+    public static DeliveryStatus fromOvh(final String dlr) {
+        if (dlr == null) {
+            return UNKNOWN;
+        }
+        switch (dlr) {
+            case "1":
+                return DELIVERED;
+            case "2":
+                return FAILED;
+            case "4":
+                return PENDING;
+            case "8":
+                return ACCEPTED;
+            case "16":
+                return REJECTED;
+            default:
+                return UNKNOWN;
+        }
+    }
+}
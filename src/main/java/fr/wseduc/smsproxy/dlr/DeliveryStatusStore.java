@@ -0,0 +1,227 @@
+package fr.wseduc.smsproxy.dlr;
+
+import fr.wseduc.smsproxy.providers.metrics.SmsMetricsRecorder;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index of the delivery statuses of the messages, by message id (the {@code ids} of the sending reports).
+ * <p>
+ * An id gets an entry when it is sent ({@link #sent}) or when a receipt about it is received ({@link #apply}), with one
+ * status per receiver when the id covers several of them (Sinch batches). Entries are kept in a {@link DeliveryIndex}
+ * in insertion order and dropped {@code ttlMs} milliseconds after their creation ; when there are more than
+ * {@code maxEntries} of them, the oldest ones are dropped first, or written to the {@code spill} directory when there is
+ * one.
+ * </p>
+ * <p>
+ * Configuration (the {@code dlr} object of the module) :
+ * <ul>
+ *     <li>ttlMs : how long (in ms) the statuses of a message are kept, defaults to 48 hours</li>
+ *     <li>maxEntries : maximum number of messages kept in memory, defaults to 1000000</li>
+ *     <li>spill : directory where the statuses evicted from memory are kept until the end of their TTL, none by
+ *     default</li>
+ * </ul>
+ * </p>
+ * <p>
+ * The verticle instances of a module share the store through {@link #acquire} and {@link #release()}, so that any of
+ * them answers for the receipts received by the others. The store runs its eviction and its spill files on its own
+ * thread, so that they do not depend on the instance that created it, until the last instance releases it.
+ * </p>
+ */
+public class DeliveryStatusStore {
+    private static final Object lock = new Object();
+    private static DeliveryStatusStore shared;
+    private static int references;
+
+    private final SmsMetricsRecorder recorder;
+    private final long ttl;
+    private final int maxEntries;
+    private final ScheduledExecutorService executor;
+    private final DeliverySpill spill;
+    private final DeliveryIndex index = new DeliveryIndex();
+
+    private DeliveryStatusStore(final Vertx vertx, final JsonObject conf, final SmsMetricsRecorder recorder) {
+        this.recorder = recorder;
+        this.ttl = conf.getLong("ttlMs", 172800000L);
+        this.maxEntries = conf.getInteger("maxEntries", 1000000);
+        this.executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, "sms-dlr-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final String spillPath = conf.getString("spill");
+        this.spill = spillPath == null ? null : new DeliverySpill(vertx, executor, spillPath, ttl);
+        final long period = Math.max(1000L, Math.min(60000L, ttl / 10));
+        executor.scheduleWithFixedDelay(() -> {
+            evict();
+            if (spill != null) {
+                spill.purge();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates the store, or gets the one already created by another verticle instance.
+     * @param vertx Vertx object
+     * @param conf The {@code dlr} configuration object
+     * @param recorder Records the receipts and the delivery latencies
+     * @return The store, to be released with {@link #release()}
+     */
+    public static DeliveryStatusStore acquire(final Vertx vertx, final JsonObject conf, final SmsMetricsRecorder recorder) {
+        synchronized (lock) {
+            if (shared == null) {
+                shared = new DeliveryStatusStore(vertx, conf, recorder);
+            }
+            references++;
+            return shared;
+        }
+    }
+
+    /**
+     * Releases the store given by {@link #acquire}, dropping it if no other verticle instance uses it. The statuses
+     * already handed to the spill are still written.
+     */
+    public void release() {
+        synchronized (lock) {
+            if (shared != this || --references > 0) {
+                return;
+            }
+            shared = null;
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Records the ids of a sending, so that the delay of their delivery can be measured.
+     * @param provider Name of the provider the messages were sent with
+     * @param ids Ids of the sending report
+     */
+    public void sent(final String provider, final String[] ids) {
+        if (ids == null || ids.length == 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final List<String> spilled = spill == null ? null : new ArrayList<>();
+        synchronized (this) {
+            for (String id : ids) {
+                index.sent(provider, id, now);
+            }
+            index.evict(Long.MIN_VALUE, maxEntries, spilled);
+        }
+        spill(spilled);
+    }
+
+    /**
+     * Records a batch of receipts.
+     * @param receipts Received receipts
+     */
+    public void apply(final List<DeliveryReceipt> receipts) {
+        if (receipts.isEmpty()) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final List<String> updated = new ArrayList<>();
+        final List<DeliveryStatus> statuses = new ArrayList<>();
+        final List<Long> latencies = new ArrayList<>();
+        final List<String> spilled = spill == null ? null : new ArrayList<>();
+        synchronized (this) {
+            for (DeliveryReceipt receipt : receipts) {
+                final int slot = index.apply(receipt, now);
+                if (slot >= 0) {
+                    final DeliveryStatus status = index.status(slot);
+                    final long sentAt = index.sentAt(slot);
+                    updated.add(index.provider(slot));
+                    statuses.add(status);
+                    latencies.add(status == DeliveryStatus.DELIVERED && sentAt > 0 ?
+                            Math.max(0L, index.statusAt(slot) - sentAt) : -1L);
+                }
+            }
+            index.evict(now - ttl, maxEntries, spilled);
+        }
+        for (int i = 0; i < updated.size(); i++) {
+            recorder.onDeliveryReceipt(updated.get(i), statuses.get(i).getCode(), latencies.get(i));
+        }
+        spill(spilled);
+    }
+
+    /**
+     * @param ids Ids of sending reports
+     * @return The statuses of the known ids, by id : arrays of {@code {receiver, status, sentAt, statusAt}}
+     */
+    public Future<JsonObject> lookup(final Collection<String> ids) {
+        final JsonObject result = new JsonObject();
+        final Set<String> missing = new HashSet<>();
+        synchronized (this) {
+            for (String id : ids) {
+                final int head = index.find(id);
+                if (head < 0) {
+                    missing.add(id);
+                    continue;
+                }
+                final JsonArray statuses = new JsonArray();
+                for (int slot = head; slot >= 0; slot = index.next(slot)) {
+                    statuses.add(toJson(index.receiver(slot), index.status(slot).getCode(), index.sentAt(slot),
+                            index.statusAt(slot)));
+                }
+                result.put(id, statuses);
+            }
+        }
+        if (missing.isEmpty() || spill == null) {
+            return Future.succeededFuture(result);
+        }
+        return spill.lookup(missing, DeliveryStatusStore::parseLine).map(spilled -> {
+            spilled.forEach(result::put);
+            return result;
+        });
+    }
+
+    /**
+     * @return The number of messages in memory
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    private void evict() {
+        final List<String> spilled = spill == null ? null : new ArrayList<>();
+        synchronized (this) {
+            index.evict(System.currentTimeMillis() - ttl, maxEntries, spilled);
+        }
+        spill(spilled);
+    }
+
+    private void spill(final List<String> lines) {
+        if (lines != null && !lines.isEmpty()) {
+            spill.write(lines);
+        }
+    }
+
+    // id, provider, receiver, status, sentAt, statusAt
+    private static JsonObject parseLine(final String line) {
+        final String[] fields = line.split("\t", -1);
+        return toJson(fields[2].isEmpty() ? null : fields[2], fields[3], Long.parseLong(fields[4]),
+                Long.parseLong(fields[5]));
+    }
+
+    private static JsonObject toJson(final String receiver, final String status, final long sentAt, final long statusAt) {
+        final JsonObject json = new JsonObject().put("status", status).put("statusAt", statusAt);
+        if (receiver != null) {
+            json.put("receiver", receiver);
+        }
+        if (sentAt > 0) {
+            json.put("sentAt", sentAt);
+        }
+        return json;
+    }
+}
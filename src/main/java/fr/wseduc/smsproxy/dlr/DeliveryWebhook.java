@@ -0,0 +1,191 @@
+package fr.wseduc.smsproxy.dlr;
+
+import io.vertx.core.Future;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HTTP endpoint receiving the delivery receipts of the providers, on {@code <path>/<configured provider name>} :
+ * <ul>
+ *     <li>{@code POST} for the providers of type Sinch : Sinch delivery reports (per recipient, or per batch with the
+ *     recipients)</li>
+ *     <li>{@code GET|POST} for the providers of type OVH : OVH callbacks ({@code id}, {@code receiver}, {@code dlr}
+ *     parameters)</li>
+ * </ul>
+ * Receipts are recorded under the configured name of the provider, as the sendings are.
+ * Receipts are answered as soon as they are read, and written to the {@link DeliveryStatusStore} by batches : every
+ * {@code flushIntervalMs} milliseconds, or as soon as {@code batchSize} of them are waiting.
+ * <p>
+ * Configuration (the {@code dlr} object of the module) :
+ * <ul>
+ *     <li>port : port of the endpoint, mandatory</li>
+ *     <li>host : defaults to 0.0.0.0</li>
+ *     <li>path : prefix of the endpoint paths, defaults to /dlr</li>
+ *     <li>token : when set, the receipts must carry it as their {@code token} query parameter (to be put in the
+ *     callback URLs)</li>
+ *     <li>flushIntervalMs : defaults to 100</li>
+ *     <li>batchSize : defaults to 1000</li>
+ * </ul>
+ * </p>
+ */
+public class DeliveryWebhook {
+    private static final Logger logger = LoggerFactory.getLogger(DeliveryWebhook.class);
+    private final Vertx vertx;
+    private final DeliveryStatusStore store;
+    private final Map<String, String> providerTypes;
+    private final int port;
+    private final String host;
+    private final String path;
+    private final String token;
+    private final long flushInterval;
+    private final int batchSize;
+    private List<DeliveryReceipt> pending = new ArrayList<>();
+    private HttpServer server;
+    private long timerId = -1L;
+
+    /**
+     * @param providerTypes Type ({@code OVH}, {@code Sinch}) of the configured providers, by name
+     */
+    public DeliveryWebhook(final Vertx vertx, final DeliveryStatusStore store, final Map<String, String> providerTypes,
+                           final JsonObject conf) {
+        this.vertx = vertx;
+        this.store = store;
+        this.providerTypes = providerTypes;
+        this.port = conf.getInteger("port", 0);
+        this.host = conf.getString("host", "0.0.0.0");
+        this.path = conf.getString("path", "/dlr");
+        this.token = conf.getString("token");
+        this.flushInterval = conf.getLong("flushIntervalMs", 100L);
+        this.batchSize = conf.getInteger("batchSize", 1000);
+    }
+
+    /**
+     * Starts listening. The verticle instances listen on the same port, Vert.x spreading the connections between them.
+     */
+    public Future<Void> start() {
+        if (port <= 0) {
+            return Future.failedFuture("dlr.port.missing");
+        }
+        timerId = vertx.setPeriodic(flushInterval, id -> flush());
+        server = vertx.createHttpServer().requestHandler(this::handle);
+        return server.listen(port, host)
+                .onSuccess(s -> logger.info("[DLR] Listening for delivery receipts on " + host + ":" + port + path))
+                .mapEmpty();
+    }
+
+    /**
+     * Stops listening, the receipts already read being written to the store.
+     */
+    public Future<Void> stop() {
+        if (timerId >= 0) {
+            vertx.cancelTimer(timerId);
+        }
+        flush();
+        return server == null ? Future.succeededFuture() : server.close();
+    }
+
+    private void handle(final HttpServerRequest request) {
+        if (token != null && !token.equals(request.getParam("token"))) {
+            request.response().setStatusCode(403).end();
+            return;
+        }
+        final String requestPath = request.path();
+        final String provider = requestPath.startsWith(path + "/") ? requestPath.substring(path.length() + 1) : null;
+        final String type = provider == null ? null : providerTypes.get(provider);
+        if ("Sinch".equals(type) && request.method() == HttpMethod.POST) {
+            request.body()
+                    .onSuccess(body -> {
+                        try {
+                            readSinch(provider, body);
+                            request.response().setStatusCode(200).end();
+                        } catch (DecodeException | ClassCastException e) {
+                            logger.warn("[DLR] Invalid Sinch delivery report : " + body.toString());
+                            request.response().setStatusCode(400).end();
+                        }
+                    })
+                    .onFailure(e -> request.response().setStatusCode(400).end());
+        } else if ("OVH".equals(type)) {
+            final MultiMap params = request.params();
+            if (params.get("id") == null) {
+                request.response().setStatusCode(400).end();
+                return;
+            }
+            add(new DeliveryReceipt(provider, params.get("id"), params.get("receiver"),
+                    DeliveryStatus.fromOvh(params.get("dlr")), System.currentTimeMillis()));
+            request.response().setStatusCode(200).end();
+        } else {
+            request.response().setStatusCode(404).end();
+        }
+    }
+
+    // {"type":"recipient_delivery_report_sms","batch_id":..,"recipient":..,"status":..,"at":..}
+    // or {"type":"delivery_report_sms","batch_id":..,"statuses":[{"status":..,"recipients":[..]}]}
+    private void readSinch(final String provider, final Buffer body) {
+        final JsonObject report = new JsonObject(body);
+        final String batchId = report.getString("batch_id");
+        if (batchId == null) {
+            throw new DecodeException("Missing batch_id");
+        }
+        final long at = parseTime(report.getString("at"));
+        final JsonArray statuses = report.getJsonArray("statuses");
+        if (statuses == null) {
+            add(new DeliveryReceipt(provider, batchId, report.getString("recipient"),
+                    DeliveryStatus.fromSinch(report.getString("status")), at));
+            return;
+        }
+        for (int i = 0; i < statuses.size(); i++) {
+            final JsonObject status = statuses.getJsonObject(i);
+            final JsonArray recipients = status.getJsonArray("recipients");
+            if (recipients == null) {
+                // Summary report without the recipients, nothing to index
+                continue;
+            }
+            for (int j = 0; j < recipients.size(); j++) {
+                add(new DeliveryReceipt(provider, batchId, recipients.getString(j),
+                        DeliveryStatus.fromSinch(status.getString("status")), at));
+            }
+        }
+    }
+
+    private static long parseTime(final String time) {
+        if (time != null) {
+            try {
+                return Instant.parse(time).toEpochMilli();
+            } catch (DateTimeParseException e) {
+                logger.debug("[DLR] Invalid receipt time " + time);
+            }
+        }
+        return System.currentTimeMillis();
+    }
+
+    private void add(final DeliveryReceipt receipt) {
+        pending.add(receipt);
+        if (pending.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        final List<DeliveryReceipt> batch = pending;
+        pending = new ArrayList<>(Math.min(batch.size(), batchSize));
+        store.apply(batch);
+    }
+}
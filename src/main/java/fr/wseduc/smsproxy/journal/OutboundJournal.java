@@ -0,0 +1,594 @@
+package fr.wseduc.smsproxy.journal;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only local journal of the accepted {@code send-sms} requests, so that the requests still in flight when the
+ * verticle stops are sent again at the next start.
+ * <p>
+ * Each request is recorded before being dispatched ({@link #accepted}) and marked as done once the provider answered
+ * ({@link #completed}). Records are appended to segment files of at most {@code segmentSize} bytes by a single writer
+ * thread, which writes (and syncs) every record queued since its last write at once. Segments are deleted oldest first,
+ * as soon as all the requests recorded in them are done : the completions written in a segment may be those of requests
+ * accepted in an older one, which must not come back at the next start. A few long pending requests (scheduled ones
+ * mostly) would then keep every newer segment : once {@code compactSegments} segments are kept, the requests still
+ * pending in the oldest one are written again in the current segment, and the oldest one is deleted.
+ * </p>
+ * <p>
+ * At the next start, a corrupted record is skipped up to the next valid one, found with the length and checksum of the
+ * records. Only a torn record at the end of the last segment is dropped without a warning.
+ * </p>
+ * <p>
+ * Configuration (the {@code journal} object of the module) :
+ * <ul>
+ *     <li>path : directory of the segment files, mandatory</li>
+ *     <li>segmentSize : size (in bytes) after which a new segment is started, defaults to 64MB</li>
+ *     <li>fsync : "always" to sync every group of records before acknowledging them, "interval" to sync every
+ *     {@code fsyncIntervalMs} milliseconds, "none" to leave it to the OS. Defaults to "always"</li>
+ *     <li>fsyncIntervalMs : defaults to 1000</li>
+ *     <li>compactSegments : number of segments kept on disk from which the oldest one is compacted, defaults to 4</li>
+ *     <li>compactMaxPending : maximum number of pending requests in a segment to compact it, defaults to 1000</li>
+ * </ul>
+ * </p>
+ * <p>
+ * The verticle instances of a module share the journal of a path through {@link #acquire} and {@link #release()} : it
+ * is opened by the first one and closed with the last one.
+ * </p>
+ * Record layout : {@code [int length][int crc32][byte type][json payload]}, length covering the type and the payload.
+ */
+public class OutboundJournal {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundJournal.class);
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte ACCEPTED = 1;
+    private static final byte COMPLETED = 2;
+    private static final int HEADER_SIZE = 9;
+    private static final Write STOP = new Write(null, null, null, null);
+    /** Journals shared by the verticle instances, by directory. */
+    private static final Map<Path, Shared> shared = new HashMap<>();
+
+    private final Path directory;
+    private final long segmentSize;
+    private final String fsync;
+    private final long fsyncInterval;
+    private final int compactSegments;
+    private final int compactMaxPending;
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    /** Segment of each pending request, only used by the writer thread. */
+    private final Map<String, Long> pendingSegments = new HashMap<>();
+    /** Number of pending requests in each segment, only used by the writer thread. */
+    private final Map<Long, Integer> pendingPerSegment = new HashMap<>();
+    /** Oldest segment file not deleted yet, only used by the writer thread. */
+    private long oldestSegment;
+    private List<JsonObject> recovered = Collections.emptyList();
+    private Thread writer;
+    private FileChannel channel;
+    private long segment;
+    private long segmentPosition;
+    private boolean dirty;
+    private long lastSync;
+
+    private OutboundJournal(final JsonObject conf) {
+        this.directory = Paths.get(conf.getString("path")).toAbsolutePath().normalize();
+        this.segmentSize = conf.getLong("segmentSize", 64L * 1024 * 1024);
+        this.fsync = conf.getString("fsync", "always");
+        this.fsyncInterval = conf.getLong("fsyncIntervalMs", 1000L);
+        this.compactSegments = Math.max(2, conf.getInteger("compactSegments", 4));
+        this.compactMaxPending = conf.getInteger("compactMaxPending", 1000);
+    }
+
+    /**
+     * Opens the journal, reading the requests left pending by the previous run (see {@link #getRecovered()}).
+     * @param vertx Vertx object, used to run the blocking file operations
+     * @param conf The {@code journal} configuration object
+     * @return The opened journal
+     */
+    public static Future<OutboundJournal> open(final Vertx vertx, final JsonObject conf) {
+        if (conf.getString("path") == null) {
+            return Future.failedFuture("journal.path.missing");
+        }
+        final OutboundJournal journal = new OutboundJournal(conf);
+        return vertx.executeBlocking(promise -> {
+            try {
+                journal.recover();
+                promise.complete(journal);
+            } catch (IOException e) {
+                promise.fail(e);
+            }
+        });
+    }
+
+    /**
+     * Opens the journal of the configured path, or gets the one already opened by another verticle instance.
+     * @param vertx Vertx object, used to run the blocking file operations
+     * @param conf The {@code journal} configuration object
+     * @return The opened journal, to be released with {@link #release()}
+     */
+    public static Future<OutboundJournal> acquire(final Vertx vertx, final JsonObject conf) {
+        if (conf.getString("path") == null) {
+            return Future.failedFuture("journal.path.missing");
+        }
+        final Path path = Paths.get(conf.getString("path")).toAbsolutePath().normalize();
+        synchronized (shared) {
+            Shared journal = shared.get(path);
+            if (journal == null) {
+                journal = new Shared(open(vertx, conf));
+                shared.put(path, journal);
+                // A journal that could not be opened is not kept, the next instance tries again
+                journal.opening.onFailure(e -> {
+                    synchronized (shared) {
+                        shared.remove(path);
+                    }
+                });
+            }
+            journal.references++;
+            return journal.opening;
+        }
+    }
+
+    /**
+     * Releases a journal given by {@link #acquire}, closing it if no other verticle instance uses it.
+     */
+    public void release() {
+        synchronized (shared) {
+            final Shared journal = shared.get(directory);
+            if (journal == null || --journal.references > 0) {
+                return;
+            }
+            shared.remove(directory);
+        }
+        close();
+    }
+
+    /**
+     * @return The requests accepted by the previous run that were not completed, as written by {@link #accepted}
+     * ({@code id}, {@code provider}, {@code parameters} and, for the scheduled ones, {@code sendAt} and
+     * {@code priority} fields)
+     */
+    public synchronized List<JsonObject> getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * Same as {@link #getRecovered()}, but the requests are only given once : to the first verticle instance calling it.
+     */
+    public synchronized List<JsonObject> takeRecovered() {
+        final List<JsonObject> taken = recovered;
+        recovered = Collections.emptyList();
+        return taken;
+    }
+
+    /**
+     * Records a request before it is dispatched.
+     * @param id Unique identifier of the request
+     * @param provider Name of the provider the request is sent to
+     * @param parameters Parameters of the request
+     * @return Completed once the record is written (and synced depending on the {@code fsync} policy)
+     */
+    public Future<Void> accepted(final String id, final String provider, final JsonObject parameters) {
+        return accepted(id, provider, parameters, 0L);
+    }
+
+    /**
+     * Records a request before it is dispatched or scheduled.
+     * @param id Unique identifier of the request
+     * @param provider Name of the provider the request is sent to
+     * @param parameters Parameters of the request
+     * @param sendAt Time (epoch ms) the request is scheduled at, recorded as the {@code sendAt} field, 0 if it is sent
+     * right away
+     * @return Completed once the record is written (and synced depending on the {@code fsync} policy)
+     */
+    public Future<Void> accepted(final String id, final String provider, final JsonObject parameters, final long sendAt) {
+        return accepted(id, provider, parameters, sendAt, null);
+    }
+
+    /**
+     * Records a request before it is dispatched or scheduled.
+     * @param id Unique identifier of the request
+     * @param provider Name of the provider the request is sent to
+     * @param parameters Parameters of the request
+     * @param sendAt Time (epoch ms) the request is scheduled at, recorded as the {@code sendAt} field, 0 if it is sent
+     * right away
+     * @param priority Priority of the request, recorded as the {@code priority} field so that a recovered request goes
+     * back to its lane, {@code null} for none
+     * @return Completed once the record is written (and synced depending on the {@code fsync} policy)
+     */
+    public Future<Void> accepted(final String id, final String provider, final JsonObject parameters, final long sendAt,
+                                 final String priority) {
+        final JsonObject payload = new JsonObject()
+                .put("id", id)
+                .put("provider", provider)
+                .put("parameters", parameters);
+        if (sendAt > 0) {
+            payload.put("sendAt", sendAt);
+        }
+        if (priority != null) {
+            payload.put("priority", priority);
+        }
+        return append(ACCEPTED, id, payload);
+    }
+
+    /**
+     * Records that the provider answered to the request (whatever the outcome).
+     * @param id Identifier given to {@link #accepted}
+     * @param outcome Status sent back to the caller
+     * @return Completed once the record is written
+     */
+    public Future<Void> completed(final String id, final String outcome) {
+        return append(COMPLETED, id, new JsonObject()
+                .put("id", id)
+                .put("outcome", outcome));
+    }
+
+    /**
+     * Writes the queued records and closes the journal.
+     */
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        queue.add(STOP);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Future<Void> append(final byte type, final String id, final JsonObject payload) {
+        final Promise<Void> promise = Promise.promise();
+        queue.add(new Write(type, id, encode(type, payload), promise, Vertx.currentContext()));
+        return promise.future();
+    }
+
+    private static ByteBuffer encode(final byte type, final JsonObject payload) {
+        final byte[] bytes = payload.encode().getBytes(StandardCharsets.UTF_8);
+        final CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(bytes, 0, bytes.length);
+        final ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + bytes.length);
+        record.putInt(bytes.length + 1).putInt((int) crc.getValue()).put(type).put(bytes);
+        record.flip();
+        return record;
+    }
+
+    /**
+     * Reads the existing segments, rewrites the pending requests in a new segment and deletes the old ones.
+     */
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        final List<Long> segments = listSegments();
+        final Map<String, JsonObject> pending = new LinkedHashMap<>();
+        for (int i = 0; i < segments.size(); i++) {
+            read(segmentPath(segments.get(i)), pending, i == segments.size() - 1);
+        }
+        segment = segments.isEmpty() ? 0L : segments.get(segments.size() - 1) + 1;
+        oldestSegment = segment;
+        openSegment();
+        for (JsonObject entry : pending.values()) {
+            final String id = entry.getString("id");
+            write(encode(ACCEPTED, entry));
+            pendingSegments.put(id, segment);
+            pendingPerSegment.merge(segment, 1, Integer::sum);
+        }
+        channel.force(false);
+        for (long existing : segments) {
+            Files.deleteIfExists(segmentPath(existing));
+        }
+        recovered = new ArrayList<>(pending.values());
+        if (!recovered.isEmpty()) {
+            logger.warn("[Sms][Journal] " + recovered.size() + " requests were not completed by the previous run.");
+        }
+        writer = new Thread(this::writeLoop, "sms-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Applies the records of a segment to the pending requests.
+     * @param last Whether the segment is the last one written, which may end with a torn record
+     */
+    private void read(final Path path, final Map<String, JsonObject> pending, final boolean last) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+            final int size = buffer.limit();
+            int position = 0;
+            while (position < size) {
+                if (!isRecord(buffer, position)) {
+                    final int next = nextRecord(buffer, position + 1);
+                    if (next < 0) {
+                        if (last) {
+                            logger.debug("[Sms][Journal] Torn record at the end of " + path);
+                        } else {
+                            logger.warn("[Sms][Journal] Dropped " + (size - position) + " unreadable bytes at the end of " + path);
+                        }
+                        return;
+                    }
+                    logger.warn("[Sms][Journal] Skipped " + (next - position) + " corrupted bytes at offset " + position + " of " + path);
+                    position = next;
+                }
+                final int length = buffer.getInt(position);
+                final byte[] record = new byte[length];
+                buffer.position(position + 8);
+                buffer.get(record);
+                position += 8 + length;
+                try {
+                    final JsonObject payload = new JsonObject(new String(record, 1, length - 1, StandardCharsets.UTF_8));
+                    if (record[0] == ACCEPTED) {
+                        pending.put(payload.getString("id"), payload);
+                    } else if (record[0] == COMPLETED) {
+                        pending.remove(payload.getString("id"));
+                    }
+                } catch (DecodeException e) {
+                    logger.warn("[Sms][Journal] Unreadable record in " + path, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Whether a whole record, with a valid type and checksum, starts at {@code position}
+     */
+    private static boolean isRecord(final ByteBuffer buffer, final int position) {
+        if (buffer.limit() - position < HEADER_SIZE) {
+            return false;
+        }
+        final int length = buffer.getInt(position);
+        if (length <= 0 || length > buffer.limit() - position - 8) {
+            return false;
+        }
+        final byte type = buffer.get(position + 8);
+        if (type != ACCEPTED && type != COMPLETED) {
+            return false;
+        }
+        final ByteBuffer record = buffer.duplicate();
+        record.limit(position + 8 + length).position(position + 8);
+        final CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue() == buffer.getInt(position + 4);
+    }
+
+    /**
+     * @return The position of the first valid record from {@code from}, -1 if there is none
+     */
+    private static int nextRecord(final ByteBuffer buffer, final int from) {
+        for (int position = from; buffer.limit() - position >= HEADER_SIZE; position++) {
+            if (isRecord(buffer, position)) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private void writeLoop() {
+        final List<Write> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                final Write first = queue.poll(fsyncInterval, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                }
+                running = !batch.remove(STOP);
+                writeBatch(batch);
+                if (!running) {
+                    // Records queued after the stop request are still written
+                    queue.drainTo(batch);
+                    writeBatch(batch);
+                    channel.force(false);
+                    channel.close();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } catch (IOException e) {
+                logger.error("[Sms][Journal] Could not close the journal.", e);
+            }
+        }
+    }
+
+    private void writeBatch(final List<Write> batch) {
+        IOException failure = null;
+        try {
+            for (Write write : batch) {
+                if (segmentPosition > 0 && segmentPosition + write.record.remaining() > segmentSize) {
+                    rotate();
+                }
+                write(write.record);
+                track(write);
+            }
+            if (dirty && ("always".equals(fsync) ||
+                    ("interval".equals(fsync) && System.currentTimeMillis() - lastSync >= fsyncInterval))) {
+                channel.force(false);
+                dirty = false;
+                lastSync = System.currentTimeMillis();
+            }
+        } catch (IOException e) {
+            logger.error("[Sms][Journal] Could not write to the journal.", e);
+            failure = e;
+        }
+        for (Write write : batch) {
+            write.complete(failure);
+        }
+        batch.clear();
+    }
+
+    private void write(final ByteBuffer record) throws IOException {
+        while (record.hasRemaining()) {
+            segmentPosition += channel.write(record);
+        }
+        dirty = true;
+    }
+
+    private void track(final Write write) throws IOException {
+        if (write.type == ACCEPTED) {
+            pendingSegments.put(write.id, segment);
+            pendingPerSegment.merge(segment, 1, Integer::sum);
+        } else {
+            final Long recordedIn = pendingSegments.remove(write.id);
+            if (recordedIn != null && pendingPerSegment.computeIfPresent(recordedIn, (index, left) -> left > 1 ? left - 1 : null) == null) {
+                deleteCompletedSegments();
+            }
+        }
+    }
+
+    /**
+     * Deletes, oldest first, the segments before the current one without pending requests. A segment is kept while an
+     * older one is, as its completions could be those of the requests still pending in the older segment.
+     */
+    private void deleteCompletedSegments() throws IOException {
+        while (oldestSegment < segment && !pendingPerSegment.containsKey(oldestSegment)) {
+            Files.deleteIfExists(segmentPath(oldestSegment));
+            oldestSegment++;
+        }
+    }
+
+    /**
+     * Writes again in the current segment the requests still pending in the oldest segments, while
+     * {@code compactSegments} segments are kept and the oldest one has at most {@code compactMaxPending} pending
+     * requests, then deletes them.
+     */
+    private void compactOldSegments() throws IOException {
+        while (segment - oldestSegment >= compactSegments &&
+                pendingPerSegment.getOrDefault(oldestSegment, 0) <= compactMaxPending) {
+            final long compacted = oldestSegment;
+            final Map<String, JsonObject> accepted = new LinkedHashMap<>();
+            read(segmentPath(compacted), accepted, false);
+            int moved = 0;
+            for (JsonObject entry : accepted.values()) {
+                final String id = entry.getString("id");
+                if (Long.valueOf(compacted).equals(pendingSegments.get(id))) {
+                    write(encode(ACCEPTED, entry));
+                    pendingSegments.put(id, segment);
+                    pendingPerSegment.merge(segment, 1, Integer::sum);
+                    moved++;
+                }
+            }
+            final int expected = pendingPerSegment.getOrDefault(compacted, 0);
+            if (moved < expected) {
+                logger.error("[Sms][Journal] Only " + moved + " of the " + expected + " pending requests of segment " +
+                        compacted + " could be read again.");
+                pendingSegments.values().removeIf(recordedIn -> recordedIn == compacted);
+            }
+            // The requests must be durable in the current segment before their first record goes
+            channel.force(false);
+            pendingPerSegment.remove(compacted);
+            Files.deleteIfExists(segmentPath(compacted));
+            oldestSegment++;
+            logger.info("[Sms][Journal] Compacted segment " + compacted + ", " + moved + " pending requests written again.");
+            deleteCompletedSegments();
+        }
+    }
+
+    private void rotate() throws IOException {
+        channel.force(false);
+        channel.close();
+        segment++;
+        openSegment();
+        deleteCompletedSegments();
+        compactOldSegments();
+    }
+
+    private void openSegment() throws IOException {
+        channel = FileChannel.open(segmentPath(segment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentPosition = channel.size();
+    }
+
+    private Path segmentPath(final long index) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private List<Long> listSegments() {
+        final List<Long> segments = new ArrayList<>();
+        final File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        logger.warn("[Sms][Journal] Ignoring unexpected file " + name);
+                    }
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static class Shared {
+        private final Future<OutboundJournal> opening;
+        private int references;
+
+        private Shared(final Future<OutboundJournal> opening) {
+            this.opening = opening;
+        }
+    }
+
+    private static class Write {
+        private final Byte type;
+        private final String id;
+        private final ByteBuffer record;
+        private final Promise<Void> promise;
+        private final Context context;
+
+        private Write(final Byte type, final String id, final ByteBuffer record, final Promise<Void> promise) {
+            this(type, id, record, promise, null);
+        }
+
+        private Write(final Byte type, final String id, final ByteBuffer record, final Promise<Void> promise, final Context context) {
+            this.type = type;
+            this.id = id;
+            this.record = record;
+            this.promise = promise;
+            this.context = context;
+        }
+
+        private void complete(final IOException failure) {
+            if (context == null) {
+                resolve(failure);
+            } else {
+                context.runOnContext(v -> resolve(failure));
+            }
+        }
+
+        private void resolve(final IOException failure) {
+            if (failure == null) {
+                promise.complete();
+            } else {
+                promise.fail(failure);
+            }
+        }
+    }
+}
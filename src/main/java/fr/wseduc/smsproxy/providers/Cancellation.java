@@ -0,0 +1,65 @@
+package fr.wseduc.smsproxy.providers;
+
+import io.vertx.core.Handler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cancellation signal of a request, shared by all the provider calls made for it.
+ */
+public class Cancellation {
+    private List<Handler<Throwable>> handlers;
+    private Throwable reason;
+
+    /**
+     * Cancels the request : the registered handlers are called and the handlers registered later are called at once.
+     * @param reason Failure given to the handlers
+     */
+    public void cancel(final Throwable reason) {
+        final List<Handler<Throwable>> toCall;
+        synchronized (this) {
+            if (this.reason != null) {
+                return;
+            }
+            this.reason = reason;
+            toCall = handlers;
+            handlers = null;
+        }
+        if (toCall != null) {
+            for (Handler<Throwable> handler : toCall) {
+                handler.handle(reason);
+            }
+        }
+    }
+
+    /**
+     * @param handler Called with the cancellation reason if the request is cancelled
+     */
+    public void onCancel(final Handler<Throwable> handler) {
+        final Throwable cancelled;
+        synchronized (this) {
+            cancelled = reason;
+            if (cancelled == null) {
+                if (handlers == null) {
+                    handlers = new ArrayList<>(2);
+                }
+                handlers.add(handler);
+            }
+        }
+        if (cancelled != null) {
+            handler.handle(cancelled);
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return reason != null;
+    }
+
+    /**
+     * @return The reason given to {@link #cancel(Throwable)}, {@code null} if the request is not cancelled
+     */
+    public synchronized Throwable getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,74 @@
+package fr.wseduc.smsproxy.providers;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Local view of the credits left on a provider account : set from the account information, and decremented by the
+ * credits each sending consumed in between. The instances of a provider (one per verticle instance) share the same
+ * balance through {@link #acquire} and {@link #release()}.
+ */
+public class CreditBalance {
+    private static final Map<String, CreditBalance> balances = new HashMap<>();
+    private final String provider;
+    private double credits = Double.NaN;
+    private int references;
+
+    private CreditBalance(final String provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * @param provider Name of the provider
+     * @return The balance of the provider account, created by its first instance, to be released with
+     * {@link #release()}
+     */
+    public static CreditBalance acquire(final String provider) {
+        synchronized (balances) {
+            final CreditBalance balance = balances.computeIfAbsent(provider, CreditBalance::new);
+            balance.references++;
+            return balance;
+        }
+    }
+
+    /**
+     * Releases the balance given by {@link #acquire}, dropping it if no other instance of the provider uses it so that
+     * a redeployed provider reads its balance again.
+     */
+    public void release() {
+        synchronized (balances) {
+            if (balances.get(provider) != this || --references > 0) {
+                return;
+            }
+            balances.remove(provider);
+        }
+    }
+
+    /**
+     * @return Whether the balance has been read from the provider at least once
+     */
+    public synchronized boolean isKnown() {
+        return !Double.isNaN(credits);
+    }
+
+    /**
+     * @return The credits left, {@code NaN} if unknown
+     */
+    public synchronized double get() {
+        return credits;
+    }
+
+    /**
+     * @param consumed Credits consumed by a sending
+     */
+    public synchronized void debit(final double consumed) {
+        credits -= consumed;
+    }
+
+    /**
+     * @param provided Credits left according to the provider
+     */
+    public synchronized void reconcile(final double provided) {
+        credits = provided;
+    }
+}
@@ -0,0 +1,195 @@
+package fr.wseduc.smsproxy.providers;
+
+import fr.wseduc.smsproxy.providers.SmsProvider.ErrorCodes;
+import io.vertx.core.Future;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.RequestOptions;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A call to a provider API : the request is sent and the whole response body is read, within a timeout and as long as
+ * the request it is made for is not cancelled. Otherwise the HTTP request is reset so that its connection is released.
+ * <p>
+ * Failures are {@link SmsSendingException}s : retryable if no connection could be obtained, {@link ErrorCodes#TIMEOUT}
+ * if the call timed out, the cancellation reason if the request was cancelled and {@link ErrorCodes#CALL_ERROR}
+ * otherwise.
+ * </p>
+ */
+public final class HttpCall {
+    private HttpCall() {}
+
+    /**
+     * @param vertx Vertx object
+     * @param client Client to send the request with
+     * @param options Request options, including the idle timeout
+     * @param body Request body, {@code null} if there is none
+     * @param timeout Maximum duration (in ms) of the whole call, 0 for none
+     * @param cancellation Cancellation of the request the call is made for
+     * @return The response
+     */
+    public static Future<Response> execute(final Vertx vertx, final HttpClient client, final RequestOptions options,
+                                           final Buffer body, final long timeout, final Cancellation cancellation) {
+        return execute(vertx, client, options, body, timeout, cancellation, Observer.NONE);
+    }
+
+    /**
+     * @param vertx Vertx object
+     * @param client Client to send the request with
+     * @param options Request options, including the idle timeout
+     * @param body Request body, {@code null} if there is none
+     * @param timeout Maximum duration (in ms) of the whole call, 0 for none
+     * @param cancellation Cancellation of the request the call is made for
+     * @param observer Told the phase timings of the call once it ended
+     * @return The response
+     */
+    public static Future<Response> execute(final Vertx vertx, final HttpClient client, final RequestOptions options,
+                                           final Buffer body, final long timeout, final Cancellation cancellation,
+                                           final Observer observer) {
+        if (cancellation.isCancelled()) {
+            return Future.failedFuture(cancellation.getReason());
+        }
+        final Timings timings = new Timings();
+        final Promise<Response> promise = Promise.promise();
+        final long timerId = timeout > 0 ? vertx.setTimer(timeout, id -> promise.tryFail(new SmsSendingException(ErrorCodes.TIMEOUT))) : -1L;
+        client.request(options).onComplete(ar -> {
+            if (ar.failed()) {
+                promise.tryFail(SmsSendingException.notSent(ar.cause()));
+                return;
+            }
+            final long sendStart = System.nanoTime();
+            timings.connection = sendStart - timings.start;
+            final HttpClientRequest request = ar.result();
+            // Releases the connection if the call ended (timeout, cancellation) before the response was read
+            promise.future().onFailure(e -> request.reset());
+            cancellation.onCancel(promise::tryFail);
+            (body == null ? request.end() : request.end(body)).onSuccess(v -> timings.write = System.nanoTime() - sendStart);
+            request.response()
+                    .compose(response -> {
+                        final long headersReceived = System.nanoTime();
+                        timings.firstByte = headersReceived - sendStart;
+                        timings.status = response.statusCode();
+                        return response.body().map(responseBody -> {
+                            timings.body = System.nanoTime() - headersReceived;
+                            return new Response(response.statusCode(), response.headers(), responseBody);
+                        });
+                    })
+                    .onSuccess(promise::tryComplete)
+                    .onFailure(e -> promise.tryFail(e instanceof TimeoutException ?
+                            new SmsSendingException(ErrorCodes.TIMEOUT, e) : new SmsSendingException(ErrorCodes.CALL_ERROR, e)));
+        });
+        promise.future().onComplete(ar -> {
+            if (timerId >= 0) {
+                vertx.cancelTimer(timerId);
+            }
+            timings.total = System.nanoTime() - timings.start;
+            observer.onEnd(timings, ar.failed() ? ar.cause() : null);
+        });
+        return promise.future();
+    }
+
+    /**
+     * Durations (in ns, -1 if the phase was not reached) of the phases of a call.
+     * <p>
+     * Vert.x does not expose the name resolution, TCP connection and TLS handshake separately : they are included
+     * in the {@code connection} phase, with the wait for a pooled connection.
+     * </p>
+     */
+    public static class Timings {
+        private final long start = System.nanoTime();
+        private long connection = -1L;
+        private long write = -1L;
+        private long firstByte = -1L;
+        private long body = -1L;
+        private long total = -1L;
+        private int status = -1;
+
+        /**
+         * @return Waiting for a pooled connection, or opening a new one
+         */
+        public long getConnection() {
+            return connection;
+        }
+
+        /**
+         * @return Writing the request, from the connection being obtained
+         */
+        public long getWrite() {
+            return write;
+        }
+
+        /**
+         * @return Receiving the response headers, from the connection being obtained
+         */
+        public long getFirstByte() {
+            return firstByte;
+        }
+
+        /**
+         * @return Reading the response body, from the headers being received
+         */
+        public long getBody() {
+            return body;
+        }
+
+        /**
+         * @return Whole call
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * @return Response status, -1 if no response was received
+         */
+        public int getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * Receives the timings of the calls.
+     */
+    @FunctionalInterface
+    public interface Observer {
+        Observer NONE = (timings, failure) -> {};
+
+        /**
+         * @param timings Phase timings of the call
+         * @param failure Failure of the call, {@code null} if a response was received
+         */
+        void onEnd(Timings timings, Throwable failure);
+    }
+
+    /**
+     * Response of a provider, body included.
+     */
+    public static class Response {
+        private final int statusCode;
+        private final MultiMap headers;
+        private final Buffer body;
+
+        public Response(final int statusCode, final MultiMap headers, final Buffer body) {
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public int statusCode() {
+            return statusCode;
+        }
+
+        public MultiMap headers() {
+            return headers;
+        }
+
+        public Buffer body() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package fr.wseduc.smsproxy.providers;
+
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Maps the {@code http} object of a provider configuration onto the options of its HTTP client :
+ * <ul>
+ *     <li>maxPoolSize : maximum number of HTTP/1.1 connections</li>
+ *     <li>http2 : use HTTP/2 (negotiated with ALPN), http2MaxPoolSize and http2MultiplexingLimit setting the number of
+ *     connections and of streams per connection</li>
+ *     <li>maxWaitQueueSize : maximum number of requests waiting for a connection</li>
+ *     <li>keepAlive, keepAliveTimeout (s) : reuse of the connections, and how long an unused one is kept</li>
+ *     <li>idleTimeout (s) : closes the connections without activity</li>
+ *     <li>connectTimeout (ms), sslHandshakeTimeout (s)</li>
+ *     <li>tcpNoDelay, tcpKeepAlive, pipelining</li>
+ * </ul>
+ * TLS sessions are resumed by the JDK as long as the client is reused, which is the case for every provider.
+ * The client is named {@code sms-<provider>} in the Vert.x HTTP client metrics (pool usage, queue size...).
+ */
+public final class HttpClientConfig {
+    private HttpClientConfig() {}
+
+    /**
+     * @param options Options to fill, holding the provider defaults (host, port, ssl...)
+     * @param http The {@code http} configuration object, may be {@code null}
+     * @param provider Name of the provider
+     * @return {@code options}
+     */
+    public static HttpClientOptions apply(final HttpClientOptions options, final JsonObject http, final String provider) {
+        options.setMetricsName("sms-" + provider);
+        if (http == null) {
+            return options;
+        }
+        if (http.containsKey("maxPoolSize")) {
+            options.setMaxPoolSize(http.getInteger("maxPoolSize"));
+        }
+        if (http.getBoolean("http2", false)) {
+            options.setProtocolVersion(HttpVersion.HTTP_2).setUseAlpn(true);
+        }
+        if (http.containsKey("http2MaxPoolSize")) {
+            options.setHttp2MaxPoolSize(http.getInteger("http2MaxPoolSize"));
+        }
+        if (http.containsKey("http2MultiplexingLimit")) {
+            options.setHttp2MultiplexingLimit(http.getInteger("http2MultiplexingLimit"));
+        }
+        if (http.containsKey("maxWaitQueueSize")) {
+            options.setMaxWaitQueueSize(http.getInteger("maxWaitQueueSize"));
+        }
+        if (http.containsKey("keepAlive")) {
+            options.setKeepAlive(http.getBoolean("keepAlive"));
+        }
+        if (http.containsKey("keepAliveTimeout")) {
+            options.setKeepAliveTimeout(http.getInteger("keepAliveTimeout"));
+            options.setHttp2KeepAliveTimeout(http.getInteger("keepAliveTimeout"));
+        }
+        if (http.containsKey("idleTimeout")) {
+            options.setIdleTimeout(http.getInteger("idleTimeout"));
+        }
+        if (http.containsKey("connectTimeout")) {
+            options.setConnectTimeout(http.getInteger("connectTimeout"));
+        }
+        if (http.containsKey("sslHandshakeTimeout")) {
+            options.setSslHandshakeTimeout(http.getLong("sslHandshakeTimeout"));
+        }
+        if (http.containsKey("tcpNoDelay")) {
+            options.setTcpNoDelay(http.getBoolean("tcpNoDelay"));
+        }
+        if (http.containsKey("tcpKeepAlive")) {
+            options.setTcpKeepAlive(http.getBoolean("tcpKeepAlive"));
+        }
+        if (http.containsKey("pipelining")) {
+            options.setPipelining(http.getBoolean("pipelining"));
+        }
+        return options;
+    }
+}
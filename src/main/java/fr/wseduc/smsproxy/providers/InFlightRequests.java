@@ -0,0 +1,105 @@
+package fr.wseduc.smsproxy.providers;
+
+import fr.wseduc.smsproxy.providers.SmsProvider.ErrorCodes;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of the requests being sent by a provider.
+ * <p>
+ * Each tracked request is completed exactly once : with the result of its sending, or with {@link ErrorCodes#TIMEOUT}
+ * (and cancelled) if it is still outstanding after {@code maxAge} milliseconds, so that a call which never ends cannot
+ * leave its caller without answer nor stay in memory.
+ * </p>
+ */
+public class InFlightRequests {
+    private static final Logger logger = LoggerFactory.getLogger(InFlightRequests.class);
+    private final String provider;
+    private final long maxAge;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, InFlight> requests = new ConcurrentHashMap<>();
+
+    /**
+     * @param vertx Vertx object
+     * @param provider Name of the provider, for the logs
+     * @param maxAge Maximum duration (in ms) of a request, 0 to never expire them
+     */
+    public InFlightRequests(final Vertx vertx, final String provider, final long maxAge) {
+        this.provider = provider;
+        this.maxAge = maxAge;
+        if (maxAge > 0) {
+            vertx.setPeriodic(Math.max(100L, Math.min(1000L, maxAge / 10)), id -> expire());
+        }
+    }
+
+    /**
+     * @param request Request being sent
+     * @param result Result of the sending
+     * @return The result, or a failure if the request expired first
+     */
+    public <T> Future<T> track(final SmsRequest request, final Future<T> result) {
+        final Long id = ids.incrementAndGet();
+        final Promise<T> promise = Promise.promise();
+        requests.put(id, new InFlight(request, promise, System.currentTimeMillis()));
+        result.onComplete(ar -> {
+            requests.remove(id);
+            if (ar.succeeded()) {
+                promise.tryComplete(ar.result());
+            } else {
+                promise.tryFail(ar.cause());
+            }
+        });
+        return promise.future();
+    }
+
+    /**
+     * @return The number of outstanding requests
+     */
+    public int size() {
+        return requests.size();
+    }
+
+    /**
+     * @return The age (in ms) of the oldest outstanding request, 0 if there is none
+     */
+    public long getOldestAge() {
+        long oldest = Long.MAX_VALUE;
+        for (InFlight inFlight : requests.values()) {
+            oldest = Math.min(oldest, inFlight.start);
+        }
+        return oldest == Long.MAX_VALUE ? 0L : System.currentTimeMillis() - oldest;
+    }
+
+    private void expire() {
+        final long limit = System.currentTimeMillis() - maxAge;
+        for (Map.Entry<Long, InFlight> entry : requests.entrySet()) {
+            final InFlight inFlight = entry.getValue();
+            if (inFlight.start <= limit && requests.remove(entry.getKey(), inFlight)) {
+                logger.warn("[" + provider + "] Request " + inFlight.request.getIdempotencyKey() +
+                        " still outstanding after " + maxAge + "ms, failing it.");
+                final SmsSendingException timeout = new SmsSendingException(ErrorCodes.TIMEOUT);
+                inFlight.promise.tryFail(timeout);
+                inFlight.request.getCancellation().cancel(timeout);
+            }
+        }
+    }
+
+    private static class InFlight {
+        private final SmsRequest request;
+        private final Promise<?> promise;
+        private final long start;
+
+        private InFlight(final SmsRequest request, final Promise<?> promise, final long start) {
+            this.request = request;
+            this.promise = promise;
+            this.start = start;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package fr.wseduc.smsproxy.providers;
+
+import fr.wseduc.webutils.StringValidation;
+import io.vertx.core.json.JsonArray;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Normalizes the receivers of a request : numbers are formatted with {@link StringValidation#formatPhone(String)},
+ * duplicates are removed and non string values are dropped.
+ * <p>
+ * Numbers already in international format (a '+' followed by 8 to 15 digits, possibly separated by spaces, dots or
+ * dashes) are formatted in a single pass without regular expression. The other ones, including the numbers with a
+ * parenthesized part such as a national prefix ({@code +33 (0)6...}), are left to {@code formatPhone}. Formatted
+ * numbers are kept in a bounded LRU cache since the same receivers come back in most notifications.
+ * </p>
+ */
+public class ReceiverNormalizer {
+    private final Map<String, String> cache;
+
+    /**
+     * @param cacheSize Maximum number of formatted numbers kept, 0 to disable the cache
+     */
+    public ReceiverNormalizer(final int cacheSize) {
+        this.cache = cacheSize <= 0 ? null : new LinkedHashMap<String, String>(Math.min(cacheSize, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @param receivers Receivers as sent by the caller
+     * @return The formatted receivers, without duplicates, in their original order
+     */
+    public JsonArray normalize(final JsonArray receivers) {
+        final int size = receivers.size();
+        final List<Object> normalized = new ArrayList<>(size);
+        final Set<String> seen = size > 1 ? new HashSet<>(size * 2) : null;
+        for (final Object receiver : receivers) {
+            if (receiver instanceof String) {
+                final String number = normalize((String) receiver);
+                if (seen == null || seen.add(number)) {
+                    normalized.add(number);
+                }
+            }
+        }
+        return new JsonArray(normalized);
+    }
+
+    /**
+     * @param receiver Number as sent by the caller
+     * @return The formatted number
+     */
+    public String normalize(final String receiver) {
+        if (cache != null) {
+            final String cached;
+            synchronized (cache) {
+                cached = cache.get(receiver);
+            }
+            if (cached != null) {
+                return cached;
+            }
+        }
+        String number = formatInternational(receiver);
+        if (number == null) {
+            number = StringValidation.formatPhone(receiver);
+        }
+        if (cache != null) {
+            synchronized (cache) {
+                cache.put(receiver, number);
+            }
+        }
+        return number;
+    }
+
+    /**
+     * @return The number without its separators if it is in international format, {@code null} otherwise
+     */
+    static String formatInternational(final String receiver) {
+        final int length = receiver.length();
+        final char[] digits = new char[length];
+        int count = 0;
+        boolean prefixed = false;
+        for (int i = 0; i < length; i++) {
+            final char c = receiver.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (!prefixed) {
+                    return null;
+                }
+                digits[count++] = c;
+            } else if (c == '+') {
+                if (prefixed) {
+                    return null;
+                }
+                prefixed = true;
+                digits[count++] = c;
+            } else if (c != ' ' && c != '.' && c != '-') {
+                return null;
+            }
+        }
+        // '+' and 8 to 15 digits (E.164)
+        if (count < 9 || count > 16) {
+            return null;
+        }
+        return count == length ? receiver : new String(digits, 0, count);
+    }
+}
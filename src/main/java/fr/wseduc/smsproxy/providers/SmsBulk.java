@@ -0,0 +1,180 @@
+package fr.wseduc.smsproxy.providers;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsProvider.ErrorCodes;
+import fr.wseduc.smsproxy.providers.dispatch.SmsReports;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Sending of the entries of a {@code send-sms-bulk} message : the entries are sent by groups (see
+ * {@link SmsProvider#groupBulk(List)}), at most {@code concurrency} groups at the same time, and the report of each
+ * group is split back between its entries.
+ */
+public class SmsBulk {
+    private final List<JsonObject> entries;
+    private final List<Group> groups;
+    private final int concurrency;
+    private final Function<Group, Future<SmsSendingReport>> sender;
+    private final AsyncResult<SmsSendingReport>[] results;
+    private final Promise<List<AsyncResult<SmsSendingReport>>> promise = Promise.promise();
+    private int nextGroup;
+    private int completed;
+
+    /**
+     * @param entries Parameters of the entries, receivers normalized, {@code null} for the entries already answered
+     * @param results Results of the entries, already set for the {@code null} entries
+     */
+    SmsBulk(final List<JsonObject> entries, final List<Group> groups, final int concurrency,
+            final Function<Group, Future<SmsSendingReport>> sender, final AsyncResult<SmsSendingReport>[] results) {
+        this.entries = entries;
+        this.groups = groups;
+        this.concurrency = Math.max(1, concurrency);
+        this.sender = sender;
+        this.results = results;
+    }
+
+    /**
+     * @return The result of each entry, in the order of the entries
+     */
+    Future<List<AsyncResult<SmsSendingReport>>> start() {
+        if (groups.isEmpty()) {
+            promise.complete(Arrays.asList(results));
+        }
+        final int initial = Math.min(concurrency, groups.size());
+        for (int i = 0; i < initial; i++) {
+            sendNext();
+        }
+        return promise.future();
+    }
+
+    private void sendNext() {
+        final Group group;
+        synchronized (this) {
+            if (nextGroup >= groups.size()) {
+                return;
+            }
+            group = groups.get(nextGroup++);
+        }
+        Future<SmsSendingReport> sent;
+        try {
+            sent = sender.apply(group);
+        } catch (RuntimeException e) {
+            sent = Future.failedFuture(new SmsSendingException(ErrorCodes.CALL_ERROR, e));
+        }
+        sent.onComplete(ar -> onGroupSent(group, ar));
+    }
+
+    private void onGroupSent(final Group group, final AsyncResult<SmsSendingReport> ar) {
+        final boolean done;
+        synchronized (this) {
+            for (int entry : group.entries) {
+                results[entry] = entryResult(ar, receivers(entries.get(entry)));
+            }
+            done = ++completed == groups.size();
+        }
+        if (done) {
+            promise.complete(Arrays.asList(results));
+        } else {
+            sendNext();
+        }
+    }
+
+    // The part of the group result concerning the receivers of an entry, failing as send-sms would for its receivers
+    private static AsyncResult<SmsSendingReport> entryResult(final AsyncResult<SmsSendingReport> ar, final Set<String> receivers) {
+        final SmsSendingReport report = ar.succeeded() ? ar.result() :
+                ar.cause() instanceof SmsSendingException ? ((SmsSendingException) ar.cause()).getReport() : null;
+        if (report == null) {
+            return ar;
+        }
+        final SmsSendingReport restricted = SmsReports.restrictTo(report, receivers);
+        if (restricted.getValidReceivers().length == 0) {
+            return Future.failedFuture(new SmsSendingException(ErrorCodes.INVALID_RECEIVERS_ALL, null, restricted));
+        } else if (restricted.getInvalidReceivers().length > 0) {
+            return Future.failedFuture(new SmsSendingException(ErrorCodes.INVALID_RECEIVERS_PARTIAL, null, restricted));
+        }
+        return Future.succeededFuture(restricted);
+    }
+
+    /**
+     * @param entry Parameters of an entry
+     * @return Its receivers
+     */
+    public static Set<String> receivers(final JsonObject entry) {
+        final JsonArray receivers = entry.getJsonArray("receivers", new JsonArray());
+        final Set<String> set = new HashSet<>(receivers.size() * 2);
+        for (Object receiver : receivers) {
+            set.add((String) receiver);
+        }
+        return set;
+    }
+
+    /**
+     * Groups the entries sharing the same text and options (sender...) : each group is sent in a single call.
+     * @param entries Parameters of the entries, {@code null} for the entries not to send
+     * @return The groups, in the order of their first entry
+     */
+    public static List<Group> byText(final List<JsonObject> entries) {
+        final Map<String, Group> groups = new LinkedHashMap<>();
+        final Map<Group, Set<String>> receivers = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            final JsonObject entry = entries.get(i);
+            if (entry == null) {
+                continue;
+            }
+            final JsonObject options = entry.copy();
+            options.remove("receivers");
+            final int index = i;
+            final Group group = groups.computeIfAbsent(options.encode(), key -> new Group(options));
+            group.add(index);
+            receivers.computeIfAbsent(group, g -> new LinkedHashSet<>()).addAll(receivers(entry));
+        }
+        receivers.forEach((group, groupReceivers) ->
+                group.getParameters().put("receivers", new JsonArray(new ArrayList<>(groupReceivers))));
+        return new ArrayList<>(groups.values());
+    }
+
+    /**
+     * Entries sent in a single call.
+     */
+    public static class Group {
+        private final JsonObject parameters;
+        private final List<Integer> entries = new ArrayList<>();
+
+        /**
+         * @param parameters Parameters of the call, as for a {@code send-sms} message
+         */
+        public Group(final JsonObject parameters) {
+            this.parameters = parameters;
+        }
+
+        public JsonObject getParameters() {
+            return parameters;
+        }
+
+        /**
+         * @return Indexes of the entries sent by the call
+         */
+        public List<Integer> getEntries() {
+            return entries;
+        }
+
+        public Group add(final int entry) {
+            entries.add(entry);
+            return this;
+        }
+    }
+}
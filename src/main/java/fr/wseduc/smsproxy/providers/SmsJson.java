@@ -0,0 +1,80 @@
+package fr.wseduc.smsproxy.providers;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import fr.wseduc.sms.SmsSendingReport;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JSON helpers of the providers : responses are read with a streaming parser straight from the bytes of the response
+ * buffer, without intermediate string nor tree, and reports are turned into the reply JSON without reflection.
+ */
+public final class SmsJson {
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final String[] EMPTY = new String[0];
+
+    private SmsJson() {}
+
+    /**
+     * @param body JSON document
+     * @return A parser reading the bytes of the buffer, to be closed by the caller
+     */
+    public static JsonParser parser(final Buffer body) throws IOException {
+        final ByteBuf buf = body.getByteBuf();
+        if (buf.hasArray()) {
+            return FACTORY.createParser(buf.array(), buf.arrayOffset() + buf.readerIndex(), buf.readableBytes());
+        }
+        return FACTORY.createParser(new ByteBufInputStream(buf.duplicate()));
+    }
+
+    /**
+     * Reads an array of strings (numbers are read as their text), the parser being on its first token.
+     * @return The strings, an empty array for a JSON {@code null}
+     */
+    public static String[] readStrings(final JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return EMPTY;
+        }
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new DecodeException("Expected an array at " + parser.getCurrentLocation());
+        }
+        final List<String> values = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() == null) {
+                throw new DecodeException("Unexpected end of document");
+            }
+            values.add(parser.getValueAsString());
+        }
+        return values.toArray(EMPTY);
+    }
+
+    /**
+     * @param report Report of a provider, may be {@code null}
+     * @return The {@code data} field of the replies
+     */
+    public static JsonObject toJson(final SmsSendingReport report) {
+        if (report == null) {
+            return null;
+        }
+        return new JsonObject()
+                .put("ids", toJson(report.getIds()))
+                .put("invalidReceivers", toJson(report.getInvalidReceivers()))
+                .put("validReceivers", toJson(report.getValidReceivers()));
+    }
+
+    // The array is wrapped, not copied : reports are not modified once built
+    private static JsonArray toJson(final String[] values) {
+        return values == null ? null : new JsonArray(Arrays.asList((Object[]) values));
+    }
+}
@@ -16,9 +16,22 @@
 
 package fr.wseduc.smsproxy.providers;
 
+import fr.wseduc.smsproxy.providers.cache.CachedValue;
+import fr.wseduc.smsproxy.providers.dedup.SmsDeduplicator;
+import fr.wseduc.smsproxy.providers.dispatch.SmsChunker;
+import fr.wseduc.smsproxy.providers.dispatch.SmsCircuitBreaker;
+import fr.wseduc.smsproxy.providers.dispatch.SmsCoalescer;
+import fr.wseduc.smsproxy.providers.dispatch.SmsRateLimiter;
+import fr.wseduc.smsproxy.providers.dispatch.SmsRetrier;
+import fr.wseduc.smsproxy.providers.dispatch.SmsScheduler;
+import fr.wseduc.smsproxy.providers.dispatch.SmsSender;
 import fr.wseduc.smsproxy.providers.metrics.SmsMetricsRecorder;
 import fr.wseduc.smsproxy.providers.metrics.SmsMetricsRecorderFactory;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonArray;
@@ -26,26 +39,244 @@ import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import fr.wseduc.sms.SmsSendingReport;
-import fr.wseduc.webutils.StringValidation;
 import static java.lang.System.currentTimeMillis;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 
 
 public abstract class SmsProvider {
 	private SmsMetricsRecorder smsMetricsRecorder;
+	/**
+	 * Name under which the provider has been configured.
+	 */
+	private String name;
+	/**
+	 * Entry point of the sending pipeline, ending with {@link #doSendSms(SmsRequest)}.
+	 */
+	private SmsSender sender;
+	/**
+	 * Optional circuit breaker on the provider calls.
+	 */
+	private SmsCircuitBreaker circuitBreaker;
+	/**
+	 * Optional rate limiter and scheduler, whose gauges are removed when the provider stops.
+	 */
+	private SmsRateLimiter rateLimiter;
+	private SmsScheduler scheduler;
+	/**
+	 * Names of the providers to send the requests to while the circuit of this one is open.
+	 */
+	private List<String> failover = Collections.emptyList();
+	private ReceiverNormalizer receiverNormalizer;
 
 	/**
 	 * Logger object.
 	 */
 	protected Logger logger = LoggerFactory.getLogger(SmsProvider.class);
 
+	private static final Logger traceLogger = LoggerFactory.getLogger("fr.wseduc.smsproxy.trace");
+
+	/**
+	 * Vertx object.
+	 */
+	protected Vertx vertx;
+
+	/**
+	 * Maximum duration (in ms) of a provider call, 0 for none ({@code requestTimeout} field of the configuration).
+	 */
+	protected long requestTimeout;
+
+	/**
+	 * Maximum duration (in ms) without data received during a provider call, 0 for none ({@code idleTimeout} field).
+	 */
+	protected long idleTimeout;
+
+	/**
+	 * Requests being sent.
+	 */
+	private InFlightRequests inFlight;
+	private Supplier<Number> inFlightCount;
+	private Supplier<Number> inFlightAge;
+
+	/**
+	 * Account information, shared by the {@code get-info} calls without parameters.
+	 */
+	private CachedValue<JsonObject> info;
+
+	/**
+	 * Credits left on the account, known once the account information has been read.
+	 */
+	private CreditBalance credits;
+
+	/**
+	 * Whether sendings are refused without calling the provider once the account has no credits left.
+	 */
+	private boolean rejectWithoutCredits;
+
+	/**
+	 * Default number of groups of a {@code send-sms-bulk} message sent at the same time.
+	 */
+	private int bulkConcurrency;
+
+	/**
+	 * Maximum number of receivers of a provider call, 0 if there is no limit.
+	 */
+	private int maxBatchSize;
+
+	/**
+	 * Optional suppression of the receivers already sent the same text recently.
+	 */
+	private SmsDeduplicator deduplicator;
+
 	/**
 	 * Initialization method of the provider class.
 	 * @param vertx : Vertx object
 	 * @param conf : Specific provider configuration
 	 */
 	public void initProvider(Vertx vertx, JsonObject conf) {
+		final String className = getClass().getSimpleName();
+		initProvider(vertx, className.endsWith("SmsProvider") ? className.substring(0, className.length() - "SmsProvider".length()) : className, conf);
+	}
+
+	/**
+	 * Initialization method of the provider class.
+	 * @param vertx : Vertx object
+	 * @param name : Name under which the provider is configured
+	 * @param conf : Specific provider configuration
+	 */
+	public void initProvider(Vertx vertx, String name, JsonObject conf) {
+		this.name = name;
+		this.vertx = vertx;
+		this.requestTimeout = conf.getLong("requestTimeout", 30000L);
+		this.idleTimeout = conf.getLong("idleTimeout", 10000L);
 		this.doInitProvider(vertx, conf);
 		this.smsMetricsRecorder = SmsMetricsRecorderFactory.getInstance();
+		this.inFlight = new InFlightRequests(vertx, name, conf.getLong("maxInFlightMs", 300000L));
+		this.inFlightCount = inFlight::size;
+		this.inFlightAge = inFlight::getOldestAge;
+		smsMetricsRecorder.registerInFlight(name, inFlightCount, inFlightAge);
+		this.info = new CachedValue<>(this::loadInfo, conf.getLong("infoCacheTtl", 60000L), conf.getLong("infoRefreshAhead", 10000L));
+		this.credits = CreditBalance.acquire(name);
+		this.rejectWithoutCredits = conf.getBoolean("rejectWithoutCredits", false);
+		this.bulkConcurrency = conf.getInteger("bulkConcurrency", 4);
+		this.maxBatchSize = Math.max(0, conf.getInteger("maxBatchSize", getDefaultMaxBatchSize()));
+		final long reconcileInterval = conf.getLong("creditsReconcileIntervalMs", 300000L);
+		if (getCreditsField() != null && reconcileInterval > 0) {
+			if (rejectWithoutCredits) {
+				info.refresh();
+			}
+			vertx.setPeriodic(reconcileInterval, id -> {
+				if (credits.isKnown() || rejectWithoutCredits) {
+					info.refresh();
+				}
+			});
+		}
+		this.receiverNormalizer = new ReceiverNormalizer(conf.getInteger("receiversCacheSize", 10000));
+		if (conf.getJsonObject("dedup") != null) {
+			this.deduplicator = SmsDeduplicator.acquire(name, conf.getJsonObject("dedup"));
+		}
+		this.sender = createSender(vertx, conf);
+		final JsonArray failoverConf = conf.getJsonArray("failover");
+		if (failoverConf != null) {
+			final List<String> names = new ArrayList<>();
+			for (Object failoverName : failoverConf) {
+				names.add((String) failoverName);
+			}
+			this.failover = Collections.unmodifiableList(names);
+		}
+	}
+
+	/**
+	 * Builds the sending pipeline from the optional stages enabled in the provider configuration.
+	 * @param vertx : Vertx object
+	 * @param conf : Specific provider configuration
+	 * @return The first stage of the pipeline
+	 */
+	private SmsSender createSender(Vertx vertx, JsonObject conf) {
+		SmsSender sender = this::doSendSms;
+		if (conf.getJsonObject("circuitBreaker") != null) {
+			circuitBreaker = new SmsCircuitBreaker(sender, name, conf.getJsonObject("circuitBreaker"));
+			sender = circuitBreaker;
+		}
+		if (conf.getJsonObject("rateLimit") != null) {
+			rateLimiter = new SmsRateLimiter(vertx, sender, name, smsMetricsRecorder, conf.getJsonObject("rateLimit"),
+					SmsScheduler.isInteractive(conf.getJsonObject("scheduler")), getInstanceCount());
+			sender = rateLimiter;
+		}
+		if (conf.getJsonObject("scheduler") != null) {
+			scheduler = new SmsScheduler(sender, name, smsMetricsRecorder, conf.getJsonObject("scheduler"));
+			sender = scheduler;
+		}
+		if (conf.getJsonObject("retry") != null) {
+			sender = new SmsRetrier(vertx, sender, conf.getJsonObject("retry"));
+		}
+		if (maxBatchSize > 0) {
+			sender = new SmsChunker(sender, maxBatchSize, conf.getInteger("batchConcurrency", 4));
+		}
+		if (conf.getJsonObject("coalescing") != null) {
+			sender = new SmsCoalescer(vertx, sender, conf.getJsonObject("coalescing"));
+		}
+		return sender;
+	}
+
+	//Number of instances of the verticle creating the provider, each one having its own providers
+	private static int getInstanceCount() {
+		final Context context = Vertx.currentContext();
+		return context == null ? 1 : Math.max(1, context.getInstanceCount());
+	}
+
+	/**
+	 * Releases what the provider shares with the other verticle instances, when the verticle instance stops : its
+	 * sources of the metrics gauges, its deduplicator and its credit balance.
+	 */
+	public void stop() {
+		if (deduplicator != null) {
+			deduplicator.release();
+		}
+		if (credits != null) {
+			credits.release();
+		}
+		if (smsMetricsRecorder == null) {
+			return;
+		}
+		smsMetricsRecorder.unregister(inFlightCount);
+		smsMetricsRecorder.unregister(inFlightAge);
+		if (rateLimiter != null) {
+			rateLimiter.close();
+		}
+		if (scheduler != null) {
+			scheduler.close();
+		}
+	}
+
+	/**
+	 * @return Whether requests can currently be sent to the provider, i.e. its circuit (if any) is not open
+	 */
+	public boolean isAvailable() {
+		return circuitBreaker == null || circuitBreaker.isCallPermitted();
+	}
+
+	/**
+	 * @return The names of the providers to use instead of this one while it is not available
+	 */
+	public List<String> getFailover() {
+		return failover;
+	}
+
+	/**
+	 * @return The name under which the provider has been configured
+	 */
+	public String getName() {
+		return name;
 	}
 	/**
 	 * Initialization method of the provider class.
@@ -55,37 +286,589 @@ public abstract class SmsProvider {
 	protected abstract void doInitProvider(Vertx vertx, JsonObject conf);
 
 	/**
-	 * Sends a new text message.
+	 * @return The maximum number of receivers accepted by the provider in a single call, or 0 if there is no limit.
+	 * It can be overridden with the {@code maxBatchSize} field of the provider configuration.
+	 */
+	protected int getDefaultMaxBatchSize() {
+		return 0;
+	}
+
+	/**
+	 * @return The maximum number of receivers of a provider call, as configured ({@code maxBatchSize}) or by default,
+	 * or 0 if there is no limit
+	 */
+	protected int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * Sends a new text message and answers the message with the result.
+	 * The message can set a deadline for the answer, either as a duration ({@code timeoutMs}) or as a time
+	 * ({@code deadline}, epoch ms). A {@code traceId} header of the message is attached to the provider calls timings.
+	 * Its {@code priority} ({@code interactive} or {@code bulk}) is used by the scheduler, if any. The receivers
+	 * suppressed as duplicates, if any, are listed in the {@code suppressedReceivers} field of the reply data.
 	 * @param message : Message contents, implementation is provider dependent.
+	 * @return The result of {@link #send(JsonObject, long, String, String)}, completed once the reply has been sent
 	 */
-	public void sendSms(final Message<JsonObject> message) {
-		final JsonObject parameters = message.body().getJsonObject("parameters");
-		final JsonArray receivers = parameters.getJsonArray("receivers");
-		final JsonArray receiversWithPrefix = new JsonArray();
-		for (final Object receiver : receivers) {
-			if (receiver instanceof String) {
-				receiversWithPrefix.add(StringValidation.formatPhone((String) receiver));
+	public Future<SmsSendingReport> sendSms(final Message<JsonObject> message) {
+		final JsonObject body = message.body();
+		long deadline = body.getLong("deadline", 0L);
+		final long timeout = body.getLong("timeoutMs", 0L);
+		if (timeout > 0) {
+			deadline = deadline > 0 ? Math.min(deadline, currentTimeMillis() + timeout) : currentTimeMillis() + timeout;
+		}
+		final String traceId = message.headers() == null ? null : message.headers().get("traceId");
+		final List<String> suppressed = new ArrayList<>();
+		return send(body.getJsonObject("parameters"), deadline, traceId, body.getString("priority"), suppressed).onComplete(ar -> {
+			if (ar.succeeded()) {
+				replyOk(message, ar.result(), suppressed);
+			} else if (ar.cause() instanceof SmsSendingException) {
+				final SmsSendingException e = (SmsSendingException) ar.cause();
+				sendError(message, e.getErrorCode(), e.getCause(), e.getReport(), suppressed);
+			} else {
+				sendError(message, ErrorCodes.CALL_ERROR, ar.cause(), null, suppressed);
+			}
+		});
+	}
+
+	/**
+	 * Sends a new text message.
+	 * @param parameters : Parameters of the send-sms message, implementation is provider dependent.
+	 * @return The report of the provider, or a {@link SmsSendingException} if the request failed or if some receivers
+	 * are invalid
+	 */
+	public Future<SmsSendingReport> send(final JsonObject parameters) {
+		return send(parameters, 0L, null);
+	}
+
+	/**
+	 * Sends a new text message.
+	 * @param parameters : Parameters of the send-sms message, implementation is provider dependent.
+	 * @param deadline : Time (epoch ms) after which the request is cancelled and fails with
+	 * {@link ErrorCodes#DEADLINE_EXCEEDED}, 0 for none
+	 * @param traceId : Trace id of the caller, {@code null} if there is none
+	 * @return The report of the provider, or a {@link SmsSendingException} if the request failed or if some receivers
+	 * are invalid
+	 */
+	public Future<SmsSendingReport> send(final JsonObject parameters, final long deadline, final String traceId) {
+		return send(parameters, deadline, traceId, null);
+	}
+
+	/**
+	 * Sends a new text message.
+	 * @param parameters : Parameters of the send-sms message, implementation is provider dependent.
+	 * @param deadline : Time (epoch ms) after which the request is cancelled and fails with
+	 * {@link ErrorCodes#DEADLINE_EXCEEDED}, 0 for none
+	 * @param traceId : Trace id of the caller, {@code null} if there is none
+	 * @param priority : Priority of the request ({@code interactive} or {@code bulk}), {@code null} to let the scheduler
+	 * decide from the number of receivers
+	 * @return The report of the provider, or a {@link SmsSendingException} if the request failed or if some receivers
+	 * are invalid
+	 */
+	public Future<SmsSendingReport> send(final JsonObject parameters, final long deadline, final String traceId,
+			final String priority) {
+		return send(parameters, deadline, traceId, priority, new ArrayList<>());
+	}
+
+	/**
+	 * Sends a new text message to the receivers not suppressed as duplicates. Receivers suppressed while the request
+	 * they duplicate is still being sent wait for its outcome.
+	 * @param suppressed : List the receivers suppressed as duplicates are added to, {@code null} if the receivers have
+	 * already been deduplicated
+	 * @return The report of the provider (empty if all the receivers were suppressed), or a
+	 * {@link SmsSendingException} if the request failed, if some receivers are invalid or if some duplicated requests
+	 * did not reach their receivers
+	 */
+	private Future<SmsSendingReport> send(final JsonObject parameters, final long deadline, final String traceId,
+			final String priority, final List<String> suppressed) {
+		final long start = nanoTime();
+		Future<SmsSendingReport> sent;
+		String text = null;
+		JsonArray kept = null;
+		final Map<String, Future<Boolean>> pending = new HashMap<>();
+		// The receivers are read when the request is sent, after the deduplication
+		final SmsRequest request = new SmsRequest(parameters, deadline, traceId, priority);
+		try {
+			parameters.put("receivers", receiverNormalizer.normalize(parameters.getJsonArray("receivers")));
+			if (deduplicator != null && suppressed != null) {
+				final JsonArray receivers = parameters.getJsonArray("receivers");
+				text = String.valueOf(parameters.getValue("message"));
+				kept = deduplicator.filter(receivers, text, suppressed, pending);
+				smsMetricsRecorder.onDeduplication(name, receivers.size(), suppressed.size());
+				if (kept.isEmpty() && !suppressed.isEmpty()) {
+					// Nothing left to send, which is not an error for the caller once the duplicated requests are sent
+					return afterDuplicates(Future.succeededFuture(new SmsSendingReport(new String[0], new String[0], new String[0])),
+							pending, suppressed, deadline, request.getCancellation());
+				}
+				parameters.put("receivers", kept);
+			}
+			if (deadline > 0 && deadline <= currentTimeMillis()) {
+				sent = Future.failedFuture(new SmsSendingException(ErrorCodes.DEADLINE_EXCEEDED));
+			} else if (rejectWithoutCredits && credits.get() <= 0) {
+				sent = Future.failedFuture(new SmsSendingException(ErrorCodes.CREDITS_EXHAUSTED));
+			} else {
+				sent = inFlight.track(request, withDeadline(request, sender.send(request)));
 			}
+		} catch (RuntimeException e) {
+			// Malformed parameters or a bug in a stage, the caller must still get its answer
+			sent = Future.failedFuture(new SmsSendingException(ErrorCodes.CALL_ERROR, e));
 		}
-		parameters.put("receivers", receiversWithPrefix);
-		final long start = currentTimeMillis();
+		final String dedupText = text;
+		final JsonArray dedupKept = kept;
 		// Log execution times
-		doSendSms(message)
-				.onSuccess(e -> smsMetricsRecorder.onSmsSent(currentTimeMillis() - start) )
-				.onFailure(e -> smsMetricsRecorder.onSmsFailure(currentTimeMillis() - start));
+		final Future<SmsSendingReport> result = sent.compose(report -> {
+			if (length(report.getValidReceivers()) == 0) {
+				return Future.<SmsSendingReport>failedFuture(new SmsSendingException(ErrorCodes.INVALID_RECEIVERS_ALL, null, report));
+			} else if (length(report.getInvalidReceivers()) > 0) {
+				return Future.<SmsSendingReport>failedFuture(new SmsSendingException(ErrorCodes.INVALID_RECEIVERS_PARTIAL, null, report));
+			}
+			return Future.succeededFuture(report);
+		}).onComplete(ar -> {
+			final long duration = NANOSECONDS.toMillis(nanoTime() - start);
+			final SmsSendingReport report;
+			if (ar.succeeded()) {
+				report = ar.result();
+				smsMetricsRecorder.onSmsSent(name, duration);
+			} else if (ar.cause() instanceof SmsSendingException) {
+				final SmsSendingException e = (SmsSendingException) ar.cause();
+				report = e.getReport();
+				smsMetricsRecorder.onSmsFailure(name, e.getErrorCode().getCode(), duration);
+			} else {
+				report = null;
+				smsMetricsRecorder.onSmsFailure(name, ErrorCodes.CALL_ERROR.getCode(), duration);
+			}
+			smsMetricsRecorder.onReceivers(name, receiversCount(parameters),
+					report == null ? 0 : length(report.getValidReceivers()),
+					report == null ? 0 : length(report.getInvalidReceivers()));
+			if (dedupText != null) {
+				deduplicator.completed(dedupKept, notSent(dedupKept, report), dedupText);
+			}
+		});
+		return afterDuplicates(result, pending, suppressed, deadline, request.getCancellation());
+	}
+
+	/**
+	 * Waits for the requests still being sent when some receivers were suppressed as their duplicates.
+	 * @param result : Result of the request
+	 * @param pending : Outcomes of the duplicated requests, by suppressed receiver
+	 * @param suppressed : Suppressed receivers, from which those the duplicated requests did not reach are removed
+	 * @param deadline : Time (epoch ms) after which the duplicated requests are not waited for anymore, 0 for none
+	 * @param cancellation : Cancellation of the request, which stops the wait, {@code null} if there is none
+	 * @return The result of the request, a {@link ErrorCodes#DUPLICATE_NOT_SENT} failure (with the report of the
+	 * request) if some duplicated requests did not reach their receivers, or a {@link ErrorCodes#DEADLINE_EXCEEDED}
+	 * failure (with the report of the request) if they are still being sent at the deadline
+	 */
+	private Future<SmsSendingReport> afterDuplicates(final Future<SmsSendingReport> result,
+			final Map<String, Future<Boolean>> pending, final List<String> suppressed, final long deadline,
+			final Cancellation cancellation) {
+		if (pending.isEmpty()) {
+			return result;
+		}
+		// The duplicated requests may be completed on the event loop of another verticle instance
+		final Context context = Vertx.currentContext();
+		Future<Void> waited = result.transform(ar -> Future.succeededFuture());
+		for (Future<Boolean> duplicated : pending.values()) {
+			waited = waited.compose(v -> duplicated.mapEmpty());
+		}
+		final Promise<SmsSendingReport> promise = Promise.promise();
+		// The duplicated requests, retries included, may take longer than the caller is willing to wait
+		final long timerId = deadline <= 0 ? -1L : vertx.setTimer(Math.max(1L, deadline - currentTimeMillis()), id -> {
+			final SmsSendingException exceeded = new SmsSendingException(ErrorCodes.DEADLINE_EXCEEDED, null,
+					result.succeeded() ? result.result() : null);
+			if (promise.tryFail(exceeded) && cancellation != null) {
+				cancellation.cancel(exceeded);
+			}
+		});
+		if (cancellation != null) {
+			cancellation.onCancel(promise::tryFail);
+		}
+		waited.onComplete(v -> {
+			final Handler<Void> done = ignored -> {
+				if (timerId >= 0) {
+					vertx.cancelTimer(timerId);
+				}
+				if (promise.future().isComplete()) {
+					// Answered at the deadline or on cancellation, the suppressed receivers are left as they were
+					return;
+				}
+				final List<String> notSent = new ArrayList<>();
+				pending.forEach((receiver, delivered) -> {
+					if (!delivered.result()) {
+						notSent.add(receiver);
+					}
+				});
+				suppressed.removeAll(notSent);
+				if (result.failed()) {
+					promise.tryFail(result.cause());
+				} else if (notSent.isEmpty()) {
+					promise.tryComplete(result.result());
+				} else {
+					promise.tryFail(new SmsSendingException(ErrorCodes.DUPLICATE_NOT_SENT, null, result.result()));
+				}
+			};
+			if (context == null) {
+				done.handle(null);
+			} else {
+				context.runOnContext(done);
+			}
+		});
+		return promise.future();
+	}
+
+	// Receivers of the request the report does not list as valid, i.e. which may be sent the text again
+	private static List<String> notSent(final JsonArray receivers, final SmsSendingReport report) {
+		final Set<String> valid = new HashSet<>();
+		if (report != null && report.getValidReceivers() != null) {
+			Collections.addAll(valid, report.getValidReceivers());
+		}
+		final List<String> notSent = new ArrayList<>();
+		for (Object receiver : receivers) {
+			if (!valid.contains(receiver)) {
+				notSent.add((String) receiver);
+			}
+		}
+		return notSent;
+	}
+
+	/**
+	 * Sends the entries of a bulk message and answers the message with the result of each entry.
+	 * @param message : Message whose parameters hold the {@code entries} (each one being the parameters of a send-sms
+	 * message) and optionally the {@code concurrency}
+	 * @return The result of {@link #sendBulk(JsonObject, long, String, String)}, completed once the reply has been sent
+	 */
+	public Future<List<AsyncResult<SmsSendingReport>>> sendBulk(final Message<JsonObject> message) {
+		final JsonObject body = message.body();
+		final JsonObject parameters = body.getJsonObject("parameters", new JsonObject());
+		long deadline = body.getLong("deadline", 0L);
+		final long timeout = body.getLong("timeoutMs", 0L);
+		if (timeout > 0) {
+			deadline = deadline > 0 ? Math.min(deadline, currentTimeMillis() + timeout) : currentTimeMillis() + timeout;
+		}
+		final String traceId = message.headers() == null ? null : message.headers().get("traceId");
+		final String priority = body.getString("priority");
+		final List<List<String>> suppressed = new ArrayList<>();
+		return sendBulk(parameters.getJsonArray("entries", new JsonArray()), getBulkConcurrency(parameters), deadline,
+				traceId, priority == null ? SmsScheduler.BULK : priority, suppressed)
+				.onSuccess(results -> message.reply(new JsonObject().put("status", "ok").put("data", toBulkJson(results, suppressed))))
+				.onFailure(e -> sendError(message, ErrorCodes.CALL_ERROR, e));
+	}
+
+	/**
+	 * Sends the entries of a bulk message.
+	 * @param parameters : Parameters of the message : {@code entries} and optionally {@code concurrency}, at most the
+	 * {@code bulkConcurrency} of the provider
+	 * @param deadline : Time (epoch ms) after which the requests are cancelled, 0 for none
+	 * @param traceId : Trace id of the caller, {@code null} if there is none
+	 * @param priority : Priority of the calls, {@code null} for {@code bulk}
+	 * @return The result of each entry, in the order of the entries
+	 */
+	public Future<List<AsyncResult<SmsSendingReport>>> sendBulk(final JsonObject parameters, final long deadline,
+			final String traceId, final String priority) {
+		return sendBulk(parameters.getJsonArray("entries", new JsonArray()), getBulkConcurrency(parameters), deadline,
+				traceId, priority == null ? SmsScheduler.BULK : priority);
+	}
+
+	private int getBulkConcurrency(final JsonObject parameters) {
+		return Math.min(bulkConcurrency, parameters.getInteger("concurrency", bulkConcurrency));
+	}
+
+	/**
+	 * Sends several messages : entries are grouped by {@link #groupBulk(List)}, each group going through the sending
+	 * pipeline as a single request.
+	 * @param entries : Parameters of the entries, as for send-sms messages
+	 * @param concurrency : Number of groups sent at the same time
+	 * @param deadline : Time (epoch ms) after which the requests are cancelled, 0 for none
+	 * @param traceId : Trace id of the caller, {@code null} if there is none
+	 * @param priority : Priority of the calls
+	 * @return The result of each entry, in the order of the entries, as {@link #send(JsonObject)} would give it
+	 */
+	public Future<List<AsyncResult<SmsSendingReport>>> sendBulk(final JsonArray entries, final int concurrency,
+			final long deadline, final String traceId, final String priority) {
+		return sendBulk(entries, concurrency, deadline, traceId, priority, new ArrayList<>());
+	}
+
+	/**
+	 * Sends several messages, the receivers of each entry being deduplicated before the entries are grouped (the text
+	 * of a group may not be the one of its entries).
+	 * @param suppressed : List the receivers suppressed as duplicates are added to, one list per entry
+	 */
+	@SuppressWarnings("unchecked")
+	private Future<List<AsyncResult<SmsSendingReport>>> sendBulk(final JsonArray entries, final int concurrency,
+			final long deadline, final String traceId, final String priority, final List<List<String>> suppressed) {
+		final List<JsonObject> normalized = new ArrayList<>(entries.size());
+		final AsyncResult<SmsSendingReport>[] results = new AsyncResult[entries.size()];
+		final List<Map<String, Future<Boolean>>> pending = new ArrayList<>(entries.size());
+		for (int i = 0; i < entries.size(); i++) {
+			final List<String> entrySuppressed = new ArrayList<>();
+			suppressed.add(entrySuppressed);
+			final Map<String, Future<Boolean>> entryPending = new HashMap<>();
+			pending.add(entryPending);
+			try {
+				final JsonObject entry = entries.getJsonObject(i).copy();
+				entry.put("receivers", receiverNormalizer.normalize(entry.getJsonArray("receivers")));
+				if (deduplicator != null && deduplicate(entry, entrySuppressed, entryPending)) {
+					normalized.add(null);
+					results[i] = Future.succeededFuture(new SmsSendingReport(new String[0], new String[0], new String[0]));
+				} else {
+					normalized.add(entry);
+				}
+			} catch (RuntimeException e) {
+				normalized.add(null);
+				results[i] = Future.failedFuture(new SmsSendingException(ErrorCodes.CALL_ERROR, e));
+			}
+		}
+		final List<SmsBulk.Group> groups;
+		try {
+			groups = groupBulk(normalized);
+		} catch (RuntimeException e) {
+			forgetBulk(normalized, null);
+			return Future.failedFuture(e);
+		}
+		return new SmsBulk(normalized, groups, concurrency,
+				group -> send(group.getParameters(), deadline, traceId, priority, null), results).start()
+				.onSuccess(sent -> forgetBulk(normalized, sent))
+				.compose(sent -> afterDuplicates(sent, pending, suppressed, deadline));
+	}
+
+	// Waits, entry by entry and until the deadline, for the requests still being sent when some receivers were
+	// suppressed as their duplicates
+	private Future<List<AsyncResult<SmsSendingReport>>> afterDuplicates(final List<AsyncResult<SmsSendingReport>> results,
+			final List<Map<String, Future<Boolean>>> pending, final List<List<String>> suppressed, final long deadline) {
+		final List<AsyncResult<SmsSendingReport>> waited = new ArrayList<>(results.size());
+		Future<Void> all = Future.succeededFuture();
+		for (int i = 0; i < results.size(); i++) {
+			final AsyncResult<SmsSendingReport> result = results.get(i);
+			if (pending.get(i).isEmpty()) {
+				waited.add(result);
+				continue;
+			}
+			final Future<SmsSendingReport> entry = afterDuplicates(result.succeeded() ?
+					Future.succeededFuture(result.result()) : Future.failedFuture(result.cause()), pending.get(i), suppressed.get(i), deadline, null);
+			waited.add(entry);
+			all = all.compose(v -> entry.transform(ar -> Future.succeededFuture()));
+		}
+		return all.map(v -> waited);
+	}
+
+	/**
+	 * Removes from the receivers of a bulk entry the ones already sent its text.
+	 * @param pending : Outcomes of the duplicated requests still being sent, by suppressed receiver
+	 * @return Whether all its receivers were suppressed, the entry having nothing left to send
+	 */
+	private boolean deduplicate(final JsonObject entry, final List<String> suppressed, final Map<String, Future<Boolean>> pending) {
+		final JsonArray receivers = entry.getJsonArray("receivers");
+		final JsonArray kept = deduplicator.filter(receivers, String.valueOf(entry.getValue("message")), suppressed, pending);
+		smsMetricsRecorder.onDeduplication(name, receivers.size(), suppressed.size());
+		entry.put("receivers", kept);
+		return kept.isEmpty() && !suppressed.isEmpty();
+	}
+
+	// Ends the sending of the bulk entries for the deduplicator, forgetting the receivers that did not get their text
+	private void forgetBulk(final List<JsonObject> entries, final List<AsyncResult<SmsSendingReport>> results) {
+		if (deduplicator == null) {
+			return;
+		}
+		for (int i = 0; i < entries.size(); i++) {
+			final JsonObject entry = entries.get(i);
+			if (entry == null) {
+				continue;
+			}
+			final AsyncResult<SmsSendingReport> result = results == null ? null : results.get(i);
+			final SmsSendingReport report = result == null ? null : result.succeeded() ? result.result() :
+					result.cause() instanceof SmsSendingException ? ((SmsSendingException) result.cause()).getReport() : null;
+			final JsonArray receivers = entry.getJsonArray("receivers");
+			deduplicator.completed(receivers, notSent(receivers, report), String.valueOf(entry.getValue("message")));
+		}
+	}
+
+	/**
+	 * Groups the entries of a bulk message into provider calls. By default, entries with the same text are sent together.
+	 * @param entries : Parameters of the entries, receivers normalized, {@code null} for the invalid ones
+	 * @return The groups to send
+	 */
+	protected List<SmsBulk.Group> groupBulk(final List<JsonObject> entries) {
+		return SmsBulk.byText(entries);
+	}
+
+	// {"sent": n, "failed": n, "results": [{"ids": [..]} | {"error": "..", "ids": [..], "invalidReceivers": [..]}]},
+	// each result listing its "suppressedReceivers" if any
+	private static JsonObject toBulkJson(final List<AsyncResult<SmsSendingReport>> results, final List<List<String>> suppressed) {
+		final JsonArray json = new JsonArray(new ArrayList<>(results.size()));
+		int failed = 0;
+		for (int i = 0; i < results.size(); i++) {
+			final AsyncResult<SmsSendingReport> result = results.get(i);
+			final JsonObject entry = new JsonObject();
+			final SmsSendingReport report;
+			if (result.succeeded()) {
+				report = result.result();
+			} else {
+				failed++;
+				final SmsSendingException e = result.cause() instanceof SmsSendingException ? (SmsSendingException) result.cause() : null;
+				entry.put("error", e == null ? ErrorCodes.CALL_ERROR.getCode() : e.getErrorCode().getCode());
+				report = e == null ? null : e.getReport();
+			}
+			if (report != null) {
+				final JsonObject reportJson = SmsJson.toJson(report);
+				entry.put("ids", reportJson.getJsonArray("ids"));
+				if (length(report.getInvalidReceivers()) > 0) {
+					entry.put("invalidReceivers", reportJson.getJsonArray("invalidReceivers"));
+				}
+			}
+			if (!suppressed.get(i).isEmpty()) {
+				entry.put("suppressedReceivers", new JsonArray(new ArrayList<>(suppressed.get(i))));
+			}
+			json.add(entry);
+		}
+		return new JsonObject()
+				.put("sent", results.size() - failed)
+				.put("failed", failed)
+				.put("results", json);
+	}
+
+	private static int receiversCount(final JsonObject parameters) {
+		final JsonArray receivers = parameters == null ? null : parameters.getJsonArray("receivers");
+		return receivers == null ? 0 : receivers.size();
+	}
+
+	/**
+	 * Records the credits spent on the provider account by a call.
+	 * @param credits : Number of credits
+	 */
+	protected void recordCreditsConsumed(final double credits) {
+		smsMetricsRecorder.onCreditsConsumed(name, credits);
+		this.credits.debit(credits);
+	}
+
+	/**
+	 * Records the time spent in a phase of a call (service lookup, job post...).
+	 * @param phase : Name of the phase, used as a metrics tag
+	 * @param start : Start time of the phase ({@link System#nanoTime()})
+	 */
+	protected void recordPhase(final String phase, final long start) {
+		smsMetricsRecorder.onPhase(name, phase, NANOSECONDS.toMillis(nanoTime() - start));
+	}
+
+	/**
+	 * @param operation : Name of the provider API operation, used as a metrics tag
+	 * @param traceId : Trace id of the request the calls are made for, {@code null} if there is none
+	 * @return An observer recording the phase timings of the HTTP calls, and logging them as a span of the trace if any
+	 */
+	protected HttpCall.Observer observe(final String operation, final String traceId) {
+		return (timings, failure) -> {
+			smsMetricsRecorder.onHttpCall(name, operation, timings);
+			if (traceId != null) {
+				traceLogger.info("[" + traceId + "] " + name + " " + operation +
+						" status=" + timings.getStatus() +
+						" total=" + millis(timings.getTotal()) +
+						" connection=" + millis(timings.getConnection()) +
+						" write=" + millis(timings.getWrite()) +
+						" firstByte=" + millis(timings.getFirstByte()) +
+						" body=" + millis(timings.getBody()) +
+						(failure == null ? "" : " failure=" + failure));
+			}
+		};
+	}
+
+	private static String millis(final long nanos) {
+		return nanos < 0 ? "-" : (nanos / 1000L) / 1000d + "ms";
+	}
+
+	//Fails the result and cancels the request once its deadline is reached
+	private Future<SmsSendingReport> withDeadline(final SmsRequest request, final Future<SmsSendingReport> result) {
+		if (request.getDeadline() <= 0) {
+			return result;
+		}
+		final Promise<SmsSendingReport> promise = Promise.promise();
+		final long timerId = vertx.setTimer(Math.max(1L, request.getDeadline() - currentTimeMillis()), id -> {
+			final SmsSendingException exceeded = new SmsSendingException(ErrorCodes.DEADLINE_EXCEEDED);
+			if (promise.tryFail(exceeded)) {
+				request.getCancellation().cancel(exceeded);
+			}
+		});
+		result.onComplete(ar -> {
+			vertx.cancelTimer(timerId);
+			if (ar.succeeded()) {
+				promise.tryComplete(ar.result());
+			} else {
+				promise.tryFail(ar.cause());
+			}
+		});
+		return promise.future();
+	}
+
+	private static int length(final String[] values) {
+		return values == null ? 0 : values.length;
 	}
 
 	/**
 	 * Sends a new text message to a list of receivers (numbers have been prefixed with the default prefix).
+	 * Every receiver being invalid or some of them being invalid is turned into an error by {@link #send(JsonObject)}.
+	 * @param request : Request to send, parameters are provider dependent.
+	 * @return The report of the provider, or a {@link SmsSendingException} describing the failure
+	 */
+	protected abstract Future<SmsSendingReport> doSendSms(final SmsRequest request);
+
+	/**
+	 * Retrieves the account information and answers the message with it.
+	 * Without parameters, the information is served from a cache (refreshed every {@code infoCacheTtl} ms, a single call
+	 * being made for concurrent requests) and its credits are the locally tracked balance.
 	 * @param message : Message contents, implementation is provider dependent.
 	 */
-	protected abstract Future<Void> doSendSms(final Message<JsonObject> message);
+	public void getInfo(final Message<JsonObject> message) {
+		final JsonObject parameters = message.body().getJsonObject("parameters");
+		final Future<JsonObject> result;
+		if (parameters == null || parameters.isEmpty()) {
+			result = info.get().map(this::withCredits);
+		} else {
+			result = doGetInfo(parameters);
+		}
+		result.onSuccess(message::reply)
+				.onFailure(e -> sendError(message, e instanceof SmsSendingException ?
+						((SmsSendingException) e).getErrorCode() : ErrorCodes.CALL_ERROR, e));
+	}
+
+	private Future<JsonObject> loadInfo() {
+		return doGetInfo(new JsonObject()).onSuccess(loaded -> {
+			final String field = getCreditsField();
+			if (field != null && loaded.getValue(field) instanceof Number) {
+				credits.reconcile(((Number) loaded.getValue(field)).doubleValue());
+			}
+		});
+	}
+
+	private JsonObject withCredits(final JsonObject cached) {
+		final String field = getCreditsField();
+		if (field == null || !credits.isKnown()) {
+			return cached;
+		}
+		return cached.copy().put(field, credits.get());
+	}
 
 	/**
 	 * Retrieves the account information.
-	 * @param message : Message contents, implementation is provider dependent.
+	 * @param parameters : Parameters of the get-info message, implementation is provider dependent.
+	 * @return The account information
+	 */
+	protected abstract Future<JsonObject> doGetInfo(final JsonObject parameters);
+
+	/**
+	 * @return The field of the account information holding the credits left, {@code null} if the provider does not
+	 * count credits
+	 */
+	protected String getCreditsField() {
+		return null;
+	}
+
+	/**
+	 * Error management method, sends back a message containing the error details on the bus.
+	 * @param message : Original message
+	 * @param error : Error message
+	 * @param e : Exception thrown
+	 * @param data : Additional data from the provider
 	 */
-	public abstract void getInfo(final Message<JsonObject> message);
+	protected void sendError(Message<JsonObject> message, ErrorCodes error, Throwable e, SmsSendingReport data){
+		sendError(message, error, e, data, Collections.emptyList());
+	}
 
 	/**
 	 * Error management method, sends back a message containing the error details on the bus.
@@ -93,12 +876,14 @@ public abstract class SmsProvider {
 	 * @param error : Error message
 	 * @param e : Exception thrown
 	 * @param data : Additional data from the provider
+	 * @param suppressed : Receivers suppressed as duplicates
 	 */
-	protected void sendError(Message<JsonObject> message, ErrorCodes error, Exception e, SmsSendingReport data){
+	protected void sendError(Message<JsonObject> message, ErrorCodes error, Throwable e, SmsSendingReport data,
+			List<String> suppressed){
 		logger.error(error + " -> " + data, e);
 	    final JsonObject json = new JsonObject().put("status", "error")
 	    		.put("message", error.getCode())
-	    		.put("data", JsonObject.mapFrom(data));
+	    		.put("data", withSuppressed(SmsJson.toJson(data), suppressed));
 	    message.reply(json);
 	}
 
@@ -108,7 +893,7 @@ public abstract class SmsProvider {
 	 * @param error : Error message
 	 * @param e : Exception thrown
 	 */
-	protected void sendError(Message<JsonObject> message, ErrorCodes error, Exception e){
+	protected void sendError(Message<JsonObject> message, ErrorCodes error, Throwable e){
 		sendError(message, error, e, null);
 	}
 
@@ -118,15 +903,38 @@ public abstract class SmsProvider {
 	 * @param report : Additional data from the provider
 	 */
 	protected void replyOk(Message<JsonObject> message, final SmsSendingReport report){
+		replyOk(message, report, Collections.emptyList());
+	}
+
+	/**
+	 * Sends back a message containing the report of the provider on the bus.
+	 * @param message : Original message
+	 * @param report : Additional data from the provider
+	 * @param suppressed : Receivers suppressed as duplicates
+	 */
+	protected void replyOk(Message<JsonObject> message, final SmsSendingReport report, final List<String> suppressed){
 		final JsonObject json = new JsonObject().put("status", "ok")
-				.put("data", JsonObject.mapFrom(report));
+				.put("data", withSuppressed(SmsJson.toJson(report), suppressed));
 		message.reply(json);
 	}
 
+	private static JsonObject withSuppressed(final JsonObject data, final List<String> suppressed) {
+		if (suppressed.isEmpty()) {
+			return data;
+		}
+		return (data == null ? new JsonObject() : data).put("suppressedReceivers", new JsonArray(new ArrayList<>(suppressed)));
+	}
+
 	public enum ErrorCodes {
 		CALL_ERROR("provider.apicall.error"),
 		INVALID_RECEIVERS_ALL("invalid.receivers.all"),
-		INVALID_RECEIVERS_PARTIAL("invalid.receivers.partial");
+		INVALID_RECEIVERS_PARTIAL("invalid.receivers.partial"),
+		QUEUE_FULL("provider.queue.full"),
+		CIRCUIT_OPEN("provider.circuit.open"),
+		TIMEOUT("provider.timeout"),
+		DEADLINE_EXCEEDED("deadline.exceeded"),
+		CREDITS_EXHAUSTED("provider.credits.exhausted"),
+		DUPLICATE_NOT_SENT("duplicate.not.sent");
 
 		private final String code;
 
@@ -0,0 +1,87 @@
+package fr.wseduc.smsproxy.providers;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Immutable registry of the initialized providers, indexed by their configured name.
+ * <p>
+ * Each entry of the {@code providers} configuration block creates its own provider instance. The implementation is
+ * chosen with the optional {@code type} field (defaults to the entry name), so that several accounts of the same
+ * provider can be configured :
+ * <pre>
+ * "providers": {
+ *     "OVH": { ... },
+ *     "OVH-secondary": { "type": "OVH", ... }
+ * }
+ * </pre>
+ * </p>
+ */
+public class SmsProviderRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(SmsProviderRegistry.class);
+    private static final String SUFFIX = "SmsProvider";
+
+    private final Map<String, SmsProvider> providers;
+
+    private SmsProviderRegistry(final Map<String, SmsProvider> providers) {
+        this.providers = providers;
+    }
+
+    /**
+     * Instantiates and initializes every configured provider.
+     * @param vertx Vertx object
+     * @param providersConf The {@code providers} configuration block
+     * @return The registry of the providers that could be initialized
+     */
+    public static SmsProviderRegistry create(final Vertx vertx, final JsonObject providersConf) {
+        final Map<String, Class<? extends SmsProvider>> implementations = new HashMap<>();
+        for (SmsProvider implementation : ServiceLoader.load(SmsProvider.class)) {
+            final String className = implementation.getClass().getSimpleName();
+            if (className.endsWith(SUFFIX)) {
+                implementations.put(className.substring(0, className.length() - SUFFIX.length()), implementation.getClass());
+            }
+        }
+        final Map<String, SmsProvider> providers = new HashMap<>();
+        for (String name : providersConf.fieldNames()) {
+            final JsonObject conf = providersConf.getJsonObject(name);
+            final String type = conf.getString("type", name);
+            final Class<? extends SmsProvider> implementation = implementations.get(type);
+            if (implementation == null) {
+                logger.error("[Sms] No provider implementation found for " + name + " (type " + type + ").");
+                continue;
+            }
+            try {
+                final SmsProvider provider = implementation.getDeclaredConstructor().newInstance();
+                provider.initProvider(vertx, name, conf);
+                providers.put(name, provider);
+                logger.info("[Sms] " + implementation.getName() + " registered as " + name + ".");
+            } catch (Exception e) {
+                logger.error("[Sms] Could not initialize provider " + name + ".", e);
+            }
+        }
+        return new SmsProviderRegistry(Collections.unmodifiableMap(providers));
+    }
+
+    /**
+     * @param name Configured name of the provider
+     * @return The initialized provider or {@code null} if there is none under this name
+     */
+    public SmsProvider get(final String name) {
+        return providers.get(name);
+    }
+
+    /**
+     * @return All the initialized providers
+     */
+    public Collection<SmsProvider> getAll() {
+        return providers.values();
+    }
+}
@@ -0,0 +1,99 @@
+package fr.wseduc.smsproxy.providers;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A sending request as it goes through the dispatch stages down to {@link SmsProvider#doSendSms(SmsRequest)}.
+ */
+public class SmsRequest {
+    /**
+     * Parameters of the {@code send-sms} message, receivers already normalized.
+     */
+    private final JsonObject parameters;
+    /**
+     * Key identifying the request at the provider (OVH tag, Sinch client reference), shared by all its attempts.
+     */
+    private final String idempotencyKey;
+    /**
+     * Time (epoch ms) after which the caller does not wait for the result anymore, 0 if there is none.
+     */
+    private final long deadline;
+    private final Cancellation cancellation;
+    /**
+     * Trace id given by the caller, {@code null} if there is none.
+     */
+    private final String traceId;
+    /**
+     * Priority given by the caller ({@code interactive}, {@code bulk}), {@code null} if there is none.
+     */
+    private final String priority;
+
+    public SmsRequest(final JsonObject parameters) {
+        this(parameters, 0L, null);
+    }
+
+    public SmsRequest(final JsonObject parameters, final long deadline, final String traceId) {
+        this(parameters, deadline, traceId, null);
+    }
+
+    public SmsRequest(final JsonObject parameters, final long deadline, final String traceId, final String priority) {
+        this(parameters, Long.toHexString(ThreadLocalRandom.current().nextLong()), deadline, new Cancellation(), traceId, priority);
+    }
+
+    private SmsRequest(final JsonObject parameters, final String idempotencyKey, final long deadline,
+                       final Cancellation cancellation, final String traceId, final String priority) {
+        this.parameters = parameters;
+        this.idempotencyKey = idempotencyKey;
+        this.deadline = deadline;
+        this.cancellation = cancellation;
+        this.traceId = traceId;
+        this.priority = priority;
+    }
+
+    public JsonObject getParameters() {
+        return parameters;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return The cancellation signal of the request, shared with the requests derived from it
+     */
+    public Cancellation getCancellation() {
+        return cancellation;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getPriority() {
+        return priority;
+    }
+
+    public JsonArray getReceivers() {
+        return parameters.getJsonArray("receivers", new JsonArray());
+    }
+
+    public String getMessage() {
+        return parameters.getString("message");
+    }
+
+    /**
+     * @param receivers Subset of the receivers of this request
+     * @return A part of this request : same parameters, key, deadline, cancellation, trace and priority, but sent to
+     * {@code receivers}
+     */
+    public SmsRequest withReceivers(final JsonArray receivers) {
+        return new SmsRequest(parameters.copy().put("receivers", receivers), idempotencyKey, deadline, cancellation, traceId, priority);
+    }
+}
@@ -0,0 +1,66 @@
+package fr.wseduc.smsproxy.providers;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsProvider.ErrorCodes;
+
+/**
+ * Failure of a sending request, carrying the error code sent back to the caller.
+ */
+public class SmsSendingException extends Exception {
+    private final ErrorCodes errorCode;
+    private final SmsSendingReport report;
+    /**
+     * Whether the request is known not to have been processed by the provider, so that it can be sent again safely.
+     */
+    private final boolean retryable;
+
+    public SmsSendingException(final ErrorCodes errorCode) {
+        this(errorCode, null, null);
+    }
+
+    public SmsSendingException(final ErrorCodes errorCode, final Throwable cause) {
+        this(errorCode, cause, null);
+    }
+
+    public SmsSendingException(final ErrorCodes errorCode, final Throwable cause, final SmsSendingReport report) {
+        this(errorCode, cause, report, false);
+    }
+
+    public SmsSendingException(final ErrorCodes errorCode, final Throwable cause, final SmsSendingReport report, final boolean retryable) {
+        super(errorCode.getCode(), cause);
+        this.errorCode = errorCode;
+        this.report = report;
+        this.retryable = retryable;
+    }
+
+    /**
+     * @param cause Error raised before the request could be written (connection refused, DNS...)
+     * @return A retryable call error
+     */
+    public static SmsSendingException notSent(final Throwable cause) {
+        return new SmsSendingException(ErrorCodes.CALL_ERROR, cause, null, true);
+    }
+
+    /**
+     * @param statusCode Unexpected HTTP status answered by the provider
+     * @return A call error, retryable if the status states that the request was not processed (429 and 503)
+     */
+    public static SmsSendingException forStatus(final int statusCode) {
+        return new SmsSendingException(ErrorCodes.CALL_ERROR, null, null, statusCode == 429 || statusCode == 503);
+    }
+
+    public ErrorCodes getErrorCode() {
+        return errorCode;
+    }
+
+    public boolean isRetryable() {
+        return retryable;
+    }
+
+    /**
+     * @return Additional data from the provider, may be {@code null}
+     */
+    public SmsSendingReport getReport() {
+        return report;
+    }
+}
@@ -0,0 +1,98 @@
+package fr.wseduc.smsproxy.providers.cache;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+
+import java.util.function.Supplier;
+
+/**
+ * Single value cache used to keep provider metadata (service names, account information...) off the sending path.
+ * <ul>
+ *     <li>the value is kept for {@code ttl} milliseconds,</li>
+ *     <li>once it is older than {@code ttl - refreshAhead} it is still served but a reload is started in the background,</li>
+ *     <li>concurrent callers share the same pending load (single-flight).</li>
+ * </ul>
+ * @param <T> Type of the cached value
+ */
+public class CachedValue<T> {
+    private final Supplier<Future<T>> loader;
+    private final long ttl;
+    private final long refreshAhead;
+    private T value;
+    private long loadedAt;
+    private Future<T> pending;
+
+    /**
+     * @param loader Function called to (re)load the value
+     * @param ttl Time (in ms) after which a cached value is not served anymore
+     * @param refreshAhead Time (in ms) before expiry at which a background reload is triggered
+     */
+    public CachedValue(final Supplier<Future<T>> loader, final long ttl, final long refreshAhead) {
+        this.loader = loader;
+        this.ttl = ttl;
+        this.refreshAhead = Math.min(refreshAhead, ttl);
+    }
+
+    /**
+     * @return The cached value if it is still fresh, otherwise the result of the (possibly already running) load
+     */
+    public synchronized Future<T> get() {
+        if (value != null) {
+            final long age = System.currentTimeMillis() - loadedAt;
+            if (age < ttl) {
+                if (age >= ttl - refreshAhead) {
+                    load();
+                }
+                return Future.succeededFuture(value);
+            }
+        }
+        return load();
+    }
+
+    /**
+     * @return The currently cached value, even if expired, or {@code null} if none has been loaded yet
+     */
+    public synchronized T peek() {
+        return value;
+    }
+
+    /**
+     * Drops the cached value so that the next call to {@link #get()} reloads it.
+     */
+    public synchronized void invalidate() {
+        value = null;
+    }
+
+    /**
+     * Reloads the value (or joins the running load), the current value being served until the reload completes.
+     * @return The result of the load
+     */
+    public Future<T> refresh() {
+        return load();
+    }
+
+    private synchronized Future<T> load() {
+        if (pending != null) {
+            return pending;
+        }
+        final Promise<T> promise = Promise.promise();
+        pending = promise.future();
+        Future<T> loading;
+        try {
+            loading = loader.get();
+        } catch (RuntimeException e) {
+            loading = Future.failedFuture(e);
+        }
+        loading.onComplete(ar -> {
+            synchronized (this) {
+                pending = null;
+                if (ar.succeeded() && ar.result() != null) {
+                    value = ar.result();
+                    loadedAt = System.currentTimeMillis();
+                }
+            }
+            promise.handle(ar);
+        });
+        return promise.future();
+    }
+}
@@ -0,0 +1,146 @@
+package fr.wseduc.smsproxy.providers.dedup;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Suppresses the receivers a provider already sent the same text to within a time window.
+ * <p>
+ * Each (receiver, text) pair is remembered as a 64-bit hash in a {@link TimeBucketedSet}, so that memory does not grow
+ * with the traffic. Pairs whose sending failed are forgotten, so that the caller can send them again. A receiver
+ * suppressed while its pair is still being sent is given the outcome of that sending, so that its caller only hears
+ * of a success once the text did reach it.
+ * </p>
+ * <p>
+ * Configuration (the {@code dedup} object of the provider) :
+ * <ul>
+ *     <li>windowMs : how long (in ms) a sending is remembered, defaults to 60000</li>
+ *     <li>expectedEntries : number of (receiver, text) pairs sent per window the memory is sized for, defaults to
+ *     1000000 (16 bytes per pair)</li>
+ *     <li>buckets : number of time buckets covering the window, defaults to 4</li>
+ * </ul>
+ * The instances of a provider (one per verticle instance) share the same set through {@link #acquire} and
+ * {@link #release()}.
+ * </p>
+ */
+public class SmsDeduplicator {
+    private static final Map<String, SmsDeduplicator> shared = new HashMap<>();
+    private final String provider;
+    private final TimeBucketedSet sent;
+    /** Pairs being sent, completed with whether the receiver got the text */
+    private final Map<Long, Promise<Boolean>> sending = new HashMap<>();
+    private int references;
+
+    private SmsDeduplicator(final String provider, final JsonObject conf) {
+        this.provider = provider;
+        this.sent = new TimeBucketedSet(conf.getLong("windowMs", 60000L), conf.getInteger("buckets", 4),
+                conf.getInteger("expectedEntries", 1000000), System.currentTimeMillis());
+    }
+
+    /**
+     * @param provider Name of the provider
+     * @param conf The {@code dedup} configuration object
+     * @return The deduplicator of the provider, created by its first instance, to be released with {@link #release()}
+     */
+    public static SmsDeduplicator acquire(final String provider, final JsonObject conf) {
+        synchronized (shared) {
+            final SmsDeduplicator deduplicator = shared.computeIfAbsent(provider, name -> new SmsDeduplicator(name, conf));
+            deduplicator.references++;
+            return deduplicator;
+        }
+    }
+
+    /**
+     * Releases the deduplicator given by {@link #acquire}, dropping it if no other instance of the provider uses it.
+     */
+    public void release() {
+        synchronized (shared) {
+            if (shared.get(provider) != this || --references > 0) {
+                return;
+            }
+            shared.remove(provider);
+        }
+    }
+
+    /**
+     * @param receivers Normalized receivers of a request
+     * @param text Text of the request
+     * @param suppressed List the receivers already sent {@code text} are added to
+     * @param pending Outcomes of the sendings still in flight of the suppressed receivers, by receiver : whether the
+     * receiver got the text
+     * @return The other receivers, now remembered as sent, to be given to {@link #completed} once sent
+     */
+    public synchronized JsonArray filter(final JsonArray receivers, final String text, final List<String> suppressed,
+                                         final Map<String, Future<Boolean>> pending) {
+        final long now = System.currentTimeMillis();
+        final long textHash = hash(text, 0xCBF29CE484222325L);
+        final JsonArray kept = new JsonArray(new ArrayList<>(receivers.size()));
+        for (Object receiver : receivers) {
+            final long hash = hash((String) receiver, textHash);
+            if (sent.add(hash, now)) {
+                kept.add(receiver);
+                sending.putIfAbsent(hash, Promise.promise());
+            } else {
+                suppressed.add((String) receiver);
+                final Promise<Boolean> inFlight = sending.get(hash);
+                if (inFlight != null) {
+                    pending.put((String) receiver, inFlight.future());
+                }
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Ends the sending of {@code text} to the receivers kept by {@link #filter} : those that did not get it are
+     * forgotten, so that the caller can send them again.
+     * @param receivers Receivers kept by {@link #filter}
+     * @param notSent Those of them {@code text} could not be sent to
+     * @param text Text of the request
+     */
+    public void completed(final JsonArray receivers, final Collection<String> notSent, final String text) {
+        final long textHash = hash(text, 0xCBF29CE484222325L);
+        final Set<String> failed = new HashSet<>(notSent);
+        final Map<Promise<Boolean>, Boolean> outcomes = new HashMap<>();
+        synchronized (this) {
+            for (Object receiver : receivers) {
+                final long hash = hash((String) receiver, textHash);
+                final boolean delivered = !failed.contains(receiver);
+                if (!delivered) {
+                    sent.remove(hash);
+                }
+                final Promise<Boolean> inFlight = sending.remove(hash);
+                if (inFlight != null) {
+                    outcomes.put(inFlight, delivered);
+                }
+            }
+        }
+        // Outside the lock : the duplicates waiting for these receivers go on from here
+        outcomes.forEach(Promise::complete);
+    }
+
+    // FNV-1a over the chars, finished with the MurmurHash3 mixer
+    private static long hash(final String value, final long seed) {
+        long hash = seed;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
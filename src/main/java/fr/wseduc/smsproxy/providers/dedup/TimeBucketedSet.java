@@ -0,0 +1,119 @@
+package fr.wseduc.smsproxy.providers.dedup;
+
+import java.util.Arrays;
+
+/**
+ * Set of 64-bit hashes remembered for a time window, in fixed memory.
+ * <p>
+ * The window is covered by {@code buckets} open-addressing tables of {@code long}, the newest one receiving the added
+ * hashes. Every {@code window / (buckets - 1)} milliseconds the oldest table is cleared and becomes the newest, so a
+ * hash is remembered between {@code window} and {@code window * buckets / (buckets - 1)} milliseconds. A table holds at
+ * most 3/4 of its capacity : once full, hashes are not remembered anymore until the next rotation.
+ * </p>
+ */
+public class TimeBucketedSet {
+    private static final long EMPTY = 0L;
+    private static final long REMOVED = 1L;
+    private final long bucketSpan;
+    private final long[][] tables;
+    private final int[] sizes;
+    private final int mask;
+    private final int maxSize;
+    private int current;
+    private long nextRotation;
+
+    /**
+     * @param window Minimum duration (in ms) a hash is remembered
+     * @param buckets Number of tables, at least 2
+     * @param expectedEntries Number of hashes added per window the tables are sized for
+     * @param now Current time (epoch ms)
+     */
+    public TimeBucketedSet(final long window, final int buckets, final int expectedEntries, final long now) {
+        final int bucketCount = Math.max(2, buckets);
+        this.bucketSpan = Math.max(1L, window / (bucketCount - 1));
+        final long perBucket = Math.max(16L, (long) expectedEntries / (bucketCount - 1) * 4 / 3 + 1);
+        final int capacity = (int) Math.min(1 << 30, Long.highestOneBit(perBucket - 1) << 1);
+        this.mask = capacity - 1;
+        this.maxSize = capacity / 4 * 3;
+        this.tables = new long[bucketCount][capacity];
+        this.sizes = new int[bucketCount];
+        this.nextRotation = now + bucketSpan;
+    }
+
+    /**
+     * @param hash Hash to add
+     * @param now Current time (epoch ms)
+     * @return {@code false} if the hash was already in the set
+     */
+    public synchronized boolean add(final long hash, final long now) {
+        rotate(now);
+        final long key = key(hash);
+        for (int i = 0; i < tables.length; i++) {
+            if (indexOf(tables[i], key) >= 0) {
+                return false;
+            }
+        }
+        if (sizes[current] < maxSize) {
+            final long[] table = tables[current];
+            int slot = (int) (mix(key) & mask);
+            while (table[slot] != EMPTY && table[slot] != REMOVED) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = key;
+            sizes[current]++;
+        }
+        return true;
+    }
+
+    /**
+     * @param hash Hash to forget
+     */
+    public synchronized void remove(final long hash) {
+        final long key = key(hash);
+        for (long[] table : tables) {
+            final int slot = indexOf(table, key);
+            if (slot >= 0) {
+                // Removed slots are still counted in the size : they are only reused by the next rotation
+                table[slot] = REMOVED;
+            }
+        }
+    }
+
+    private void rotate(final long now) {
+        if (now < nextRotation) {
+            return;
+        }
+        // After a long idle period, every table is cleared at most once
+        final long rotations = Math.min(tables.length, (now - nextRotation) / bucketSpan + 1);
+        for (long i = 0; i < rotations; i++) {
+            current = (current + 1) % tables.length;
+            Arrays.fill(tables[current], EMPTY);
+            sizes[current] = 0;
+        }
+        nextRotation += ((now - nextRotation) / bucketSpan + 1) * bucketSpan;
+    }
+
+    private int indexOf(final long[] table, final long key) {
+        int slot = (int) (mix(key) & mask);
+        for (int probes = 0; probes <= mask; probes++) {
+            final long value = table[slot];
+            if (value == key) {
+                return slot;
+            } else if (value == EMPTY) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // 0 and 1 mark the empty and removed slots
+    private static long key(final long hash) {
+        return hash == EMPTY || hash == REMOVED ? hash + 2 : hash;
+    }
+
+    // Spreads the bits of the hash over the slot index
+    private static long mix(final long key) {
+        return (key ^ (key >>> 32)) * 0x9E3779B97F4A7C15L >>> 16;
+    }
+}
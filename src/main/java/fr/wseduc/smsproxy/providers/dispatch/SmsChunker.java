@@ -0,0 +1,107 @@
+package fr.wseduc.smsproxy.providers.dispatch;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsRequest;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the requests with more than {@code maxBatchSize} receivers into several provider calls, at most
+ * {@code concurrency} of them running at the same time.
+ * <p>
+ * The reports of the calls are merged into a single one. The receivers of a failed call are reported as invalid so
+ * that the caller gets a partial failure instead of losing the whole request, which only fails if every call failed.
+ * </p>
+ */
+public class SmsChunker implements SmsSender {
+    private static final Logger logger = LoggerFactory.getLogger(SmsChunker.class);
+    private final SmsSender next;
+    private final int maxBatchSize;
+    private final int concurrency;
+
+    public SmsChunker(final SmsSender next, final int maxBatchSize, final int concurrency) {
+        this.next = next;
+        this.maxBatchSize = maxBatchSize;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    @Override
+    public Future<SmsSendingReport> send(final SmsRequest request) {
+        final JsonArray receivers = request.getReceivers();
+        if (receivers.size() <= maxBatchSize) {
+            return next.send(request);
+        }
+        final List<SmsRequest> chunks = new ArrayList<>(receivers.size() / maxBatchSize + 1);
+        for (int start = 0; start < receivers.size(); start += maxBatchSize) {
+            final int end = Math.min(start + maxBatchSize, receivers.size());
+            chunks.add(request.withReceivers(new JsonArray(new ArrayList<>(receivers.getList().subList(start, end)))));
+        }
+        return new Dispatch(chunks).start();
+    }
+
+    /**
+     * Sending of the chunks of one request.
+     */
+    private class Dispatch {
+        private final List<SmsRequest> chunks;
+        private final List<SmsSendingReport> reports = new ArrayList<>();
+        private final List<String> failedReceivers = new ArrayList<>();
+        private final Promise<SmsSendingReport> promise = Promise.promise();
+        private Throwable lastFailure;
+        private int nextChunk;
+        private int completed;
+
+        private Dispatch(final List<SmsRequest> chunks) {
+            this.chunks = chunks;
+        }
+
+        private Future<SmsSendingReport> start() {
+            final int initial = Math.min(concurrency, chunks.size());
+            for (int i = 0; i < initial; i++) {
+                sendNext();
+            }
+            return promise.future();
+        }
+
+        private void sendNext() {
+            final SmsRequest chunk;
+            synchronized (this) {
+                if (nextChunk >= chunks.size()) {
+                    return;
+                }
+                chunk = chunks.get(nextChunk++);
+            }
+            next.send(chunk).onComplete(ar -> onChunkSent(chunk, ar));
+        }
+
+        private void onChunkSent(final SmsRequest chunk, final AsyncResult<SmsSendingReport> ar) {
+            final boolean done;
+            synchronized (this) {
+                if (ar.succeeded()) {
+                    reports.add(ar.result());
+                } else {
+                    logger.error("[Sms] Could not send a chunk of " + chunk.getReceivers().size() + " receivers.", ar.cause());
+                    lastFailure = ar.cause();
+                    for (Object receiver : chunk.getReceivers()) {
+                        failedReceivers.add((String) receiver);
+                    }
+                }
+                done = ++completed == chunks.size();
+            }
+            if (!done) {
+                sendNext();
+            } else if (reports.isEmpty()) {
+                promise.fail(lastFailure);
+            } else {
+                promise.complete(SmsReports.merge(reports, failedReceivers));
+            }
+        }
+    }
+}
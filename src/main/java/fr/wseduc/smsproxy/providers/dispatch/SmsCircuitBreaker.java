@@ -0,0 +1,186 @@
+package fr.wseduc.smsproxy.providers.dispatch;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsProvider.ErrorCodes;
+import fr.wseduc.smsproxy.providers.SmsRequest;
+import fr.wseduc.smsproxy.providers.SmsSendingException;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+/**
+ * Circuit breaker on the calls made to a provider.
+ * <p>
+ * The outcome of the last {@code windowSize} calls is kept. Once at least {@code minimumCalls} calls have been recorded,
+ * the circuit opens if the rate of failed calls or the rate of calls slower than {@code slowCallMs} reaches its
+ * threshold. While open, calls fail immediately with {@link ErrorCodes#CIRCUIT_OPEN}. After {@code openMs}, the circuit
+ * is half-open : {@code halfOpenCalls} probe calls are let through, and the circuit closes if they all succeed, or opens
+ * again otherwise.
+ * </p>
+ * <p>
+ * Configuration (the {@code circuitBreaker} object of the provider) :
+ * <ul>
+ *     <li>windowSize : defaults to 50</li>
+ *     <li>minimumCalls : defaults to 10</li>
+ *     <li>failureRateThreshold : between 0 and 1, defaults to 0.5</li>
+ *     <li>slowCallMs : defaults to 5000</li>
+ *     <li>slowCallRateThreshold : between 0 and 1, defaults to 0.8</li>
+ *     <li>openMs : defaults to 30000</li>
+ *     <li>halfOpenCalls : defaults to 3</li>
+ * </ul>
+ * </p>
+ */
+public class SmsCircuitBreaker implements SmsSender {
+    private static final Logger logger = LoggerFactory.getLogger(SmsCircuitBreaker.class);
+    private static final byte SUCCESS = 0;
+    private static final byte FAILURE = 1;
+    private static final byte SLOW = 2;
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final SmsSender next;
+    private final String provider;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long slowCallMs;
+    private final double slowCallRateThreshold;
+    private final long openMs;
+    private final int halfOpenCalls;
+    /** Ring buffer of the outcomes of the last calls */
+    private final byte[] outcomes;
+    private int position;
+    private int recorded;
+    private int failures;
+    private int slowCalls;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probesSent;
+    private int probesSucceeded;
+
+    public SmsCircuitBreaker(final SmsSender next, final String provider, final JsonObject conf) {
+        this.next = next;
+        this.provider = provider;
+        this.outcomes = new byte[Math.max(1, conf.getInteger("windowSize", 50))];
+        this.minimumCalls = Math.min(outcomes.length, conf.getInteger("minimumCalls", 10));
+        this.failureRateThreshold = conf.getDouble("failureRateThreshold", 0.5d);
+        this.slowCallMs = conf.getLong("slowCallMs", 5000L);
+        this.slowCallRateThreshold = conf.getDouble("slowCallRateThreshold", 0.8d);
+        this.openMs = conf.getLong("openMs", 30000L);
+        this.halfOpenCalls = Math.max(1, conf.getInteger("halfOpenCalls", 3));
+    }
+
+    @Override
+    public Future<SmsSendingReport> send(final SmsRequest request) {
+        if (!tryAcquire()) {
+            return Future.failedFuture(new SmsSendingException(ErrorCodes.CIRCUIT_OPEN));
+        }
+        final long start = System.nanoTime();
+        return next.send(request).onComplete(ar -> {
+            final long duration = (System.nanoTime() - start) / 1_000_000L;
+            record(ar.failed() && isFailure(ar.cause()) ? FAILURE : (duration >= slowCallMs ? SLOW : SUCCESS));
+        });
+    }
+
+    /**
+     * @return Whether a call failing with {@code cause} tells that the provider is not working : errors and calls the
+     * provider did not answer in time. Invalid receivers are answered by a working provider, and expired deadlines,
+     * full queues or open circuits say nothing about it.
+     */
+    private static boolean isFailure(final Throwable cause) {
+        if (!(cause instanceof SmsSendingException)) {
+            return true;
+        }
+        final ErrorCodes code = ((SmsSendingException) cause).getErrorCode();
+        return code == ErrorCodes.CALL_ERROR || code == ErrorCodes.TIMEOUT;
+    }
+
+    /**
+     * @return Whether calls are currently let through (closed circuit, or half-open with probes left)
+     */
+    public synchronized boolean isCallPermitted() {
+        switch (state) {
+            case OPEN:
+                return System.currentTimeMillis() - openedAt >= openMs;
+            case HALF_OPEN:
+                return probesSent < halfOpenCalls;
+            default:
+                return true;
+        }
+    }
+
+    private synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openMs) {
+                return false;
+            }
+            logger.info("[Sms] Circuit of provider " + provider + " is half-open.");
+            state = State.HALF_OPEN;
+            probesSent = 0;
+            probesSucceeded = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesSent >= halfOpenCalls) {
+                return false;
+            }
+            probesSent++;
+        }
+        return true;
+    }
+
+    private synchronized void record(final byte outcome) {
+        if (state == State.HALF_OPEN) {
+            if (outcome == SUCCESS) {
+                if (++probesSucceeded >= halfOpenCalls) {
+                    logger.info("[Sms] Circuit of provider " + provider + " is closed.");
+                    state = State.CLOSED;
+                    reset();
+                }
+            } else {
+                open();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            return;
+        }
+        if (recorded == outcomes.length) {
+            forget(outcomes[position]);
+        } else {
+            recorded++;
+        }
+        outcomes[position] = outcome;
+        position = (position + 1) % outcomes.length;
+        if (outcome == FAILURE) {
+            failures++;
+        } else if (outcome == SLOW) {
+            slowCalls++;
+        }
+        if (recorded >= minimumCalls && (failures >= failureRateThreshold * recorded ||
+                slowCalls >= slowCallRateThreshold * recorded)) {
+            open();
+        }
+    }
+
+    private void forget(final byte outcome) {
+        if (outcome == FAILURE) {
+            failures--;
+        } else if (outcome == SLOW) {
+            slowCalls--;
+        }
+    }
+
+    private void open() {
+        logger.error("[Sms] Circuit of provider " + provider + " is open.");
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        reset();
+    }
+
+    private void reset() {
+        position = 0;
+        recorded = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+}
@@ -0,0 +1,178 @@
+package fr.wseduc.smsproxy.providers.dispatch;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsRequest;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Micro-batching stage : requests sharing the same text and options (sender, ...) received within a short window are
+ * merged into a single provider call, whose report is then split back between the original requests.
+ * <p>
+ * The merged call is given the latest deadline of the requests, and is cancelled once all of them are cancelled.
+ * </p>
+ * <p>
+ * Configuration (the {@code coalescing} object of the provider) :
+ * <ul>
+ *     <li>windowMs : how long (in ms) a request may wait for others, defaults to 30</li>
+ *     <li>maxReceivers : number of receivers after which the batch is sent without waiting, defaults to 1000</li>
+ * </ul>
+ * </p>
+ */
+public class SmsCoalescer implements SmsSender {
+    private final Vertx vertx;
+    private final SmsSender next;
+    private final long windowMs;
+    private final int maxReceivers;
+    private final Map<String, Batch> batches = new HashMap<>();
+
+    public SmsCoalescer(final Vertx vertx, final SmsSender next, final JsonObject conf) {
+        this.vertx = vertx;
+        this.next = next;
+        this.windowMs = Math.max(1L, conf.getLong("windowMs", 30L));
+        this.maxReceivers = conf.getInteger("maxReceivers", 1000);
+    }
+
+    @Override
+    public Future<SmsSendingReport> send(final SmsRequest request) {
+        final int size = request.getReceivers().size();
+        if (size >= maxReceivers) {
+            return next.send(request);
+        }
+        final String key = keyOf(request);
+        final Promise<SmsSendingReport> promise = Promise.promise();
+        final Batch full;
+        synchronized (this) {
+            Batch batch = batches.get(key);
+            if (batch == null) {
+                batch = new Batch(request);
+                batches.put(key, batch);
+                final Batch created = batch;
+                batch.timerId = vertx.setTimer(windowMs, id -> flush(key, created));
+            }
+            batch.add(request, promise);
+            if (batch.receivers.size() >= maxReceivers) {
+                batches.remove(key);
+                vertx.cancelTimer(batch.timerId);
+                full = batch;
+            } else {
+                full = null;
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return promise.future();
+    }
+
+    private void flush(final String key, final Batch batch) {
+        synchronized (this) {
+            if (batches.get(key) != batch) {
+                return;
+            }
+            batches.remove(key);
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(final Batch batch) {
+        if (batch.entries.size() == 1) {
+            final Entry entry = batch.entries.get(0);
+            next.send(entry.request).onComplete(entry.promise);
+            return;
+        }
+        final JsonArray receivers = new JsonArray(new ArrayList<>(batch.receivers));
+        // The merged request has its own key and cancellation : it goes on while one of the callers still waits for it
+        final JsonObject parameters = batch.template.getParameters().copy().put("receivers", receivers);
+        final SmsRequest merged = new SmsRequest(parameters, batch.deadline(), null, batch.template.getPriority());
+        final AtomicInteger waiting = new AtomicInteger(batch.entries.size());
+        for (Entry entry : batch.entries) {
+            entry.request.getCancellation().onCancel(reason -> {
+                if (waiting.decrementAndGet() == 0) {
+                    merged.getCancellation().cancel(reason);
+                }
+            });
+        }
+        next.send(merged).onComplete(ar -> {
+            for (Entry entry : batch.entries) {
+                if (ar.succeeded()) {
+                    entry.promise.complete(SmsReports.restrictTo(ar.result(), entry.receivers()));
+                } else {
+                    entry.promise.fail(ar.cause());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return A key identifying the requests that can be sent together : every parameter but the receivers, and the
+     * priority
+     */
+    private static String keyOf(final SmsRequest request) {
+        final JsonObject parameters = request.getParameters().copy();
+        parameters.remove("receivers");
+        return request.getPriority() + parameters.encode();
+    }
+
+    private static class Batch {
+        private final SmsRequest template;
+        private final List<Entry> entries = new ArrayList<>();
+        private final Set<String> receivers = new LinkedHashSet<>();
+        private long timerId;
+
+        private Batch(final SmsRequest template) {
+            this.template = template;
+        }
+
+        /**
+         * @return The latest deadline of the requests, 0 if one of them has none
+         */
+        private long deadline() {
+            long deadline = 0L;
+            for (Entry entry : entries) {
+                if (entry.request.getDeadline() <= 0) {
+                    return 0L;
+                }
+                deadline = Math.max(deadline, entry.request.getDeadline());
+            }
+            return deadline;
+        }
+
+        private void add(final SmsRequest request, final Promise<SmsSendingReport> promise) {
+            entries.add(new Entry(request, promise));
+            for (Object receiver : request.getReceivers()) {
+                receivers.add((String) receiver);
+            }
+        }
+    }
+
+    private static class Entry {
+        private final SmsRequest request;
+        private final Promise<SmsSendingReport> promise;
+
+        private Entry(final SmsRequest request, final Promise<SmsSendingReport> promise) {
+            this.request = request;
+            this.promise = promise;
+        }
+
+        private Set<String> receivers() {
+            final Set<String> receivers = new HashSet<>();
+            for (Object receiver : request.getReceivers()) {
+                receivers.add((String) receiver);
+            }
+            return receivers;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package fr.wseduc.smsproxy.providers.dispatch;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsProvider.ErrorCodes;
+import fr.wseduc.smsproxy.providers.SmsRequest;
+import fr.wseduc.smsproxy.providers.SmsSendingException;
+import fr.wseduc.smsproxy.providers.metrics.SmsMetricsRecorder;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Token bucket rate limiter on the calls made to a provider, limiting both the number of requests and the number of
+ * receivers per second. Requests above the rate wait in a bounded FIFO queue per lane (see {@link SmsScheduler}), and
+ * are rejected with {@link ErrorCodes#QUEUE_FULL} when it is full. The interactive requests go first : bulk requests
+ * only get the tokens no interactive request waits for, so that a one-time code never waits behind a broadcast.
+ * <p>
+ * Configuration (the {@code rateLimit} object of the provider) :
+ * <ul>
+ *     <li>requestsPerSecond : maximum number of calls per second, no limit if absent</li>
+ *     <li>receiversPerSecond : maximum number of receivers per second, no limit if absent</li>
+ *     <li>burstSeconds : number of seconds of unused rate that can be spent at once, defaults to 1</li>
+ *     <li>maxQueueSize : maximum number of waiting requests of each lane, defaults to 1000</li>
+ * </ul>
+ * The rates are those of the whole module : each of the {@code instances} verticle instances limits its own calls to
+ * its share of them.
+ * </p>
+ */
+public class SmsRateLimiter implements SmsSender {
+    private final Vertx vertx;
+    private final SmsSender next;
+    private final String provider;
+    private final SmsMetricsRecorder metricsRecorder;
+    private final TokenBucket requests;
+    private final TokenBucket receivers;
+    private final int maxQueueSize;
+    private final Predicate<SmsRequest> isInteractive;
+    private final Deque<Waiting> interactiveQueue = new ArrayDeque<>();
+    private final Deque<Waiting> bulkQueue = new ArrayDeque<>();
+    private final Supplier<Number> queueSize = this::getQueueSize;
+    private boolean drainScheduled;
+    private long drainTimer;
+    private long drainAt;
+
+    /**
+     * @param isInteractive Whether a request goes to the interactive lane, see {@link SmsScheduler#isInteractive}
+     * @param instances Number of verticle instances sharing the rates
+     */
+    public SmsRateLimiter(final Vertx vertx, final SmsSender next, final String provider,
+                          final SmsMetricsRecorder metricsRecorder, final JsonObject conf,
+                          final Predicate<SmsRequest> isInteractive, final int instances) {
+        this.vertx = vertx;
+        this.next = next;
+        this.provider = provider;
+        this.metricsRecorder = metricsRecorder;
+        final double burstSeconds = conf.getDouble("burstSeconds", 1d);
+        this.requests = TokenBucket.create(share(conf.getDouble("requestsPerSecond"), instances), burstSeconds);
+        this.receivers = TokenBucket.create(share(conf.getDouble("receiversPerSecond"), instances), burstSeconds);
+        this.maxQueueSize = conf.getInteger("maxQueueSize", 1000);
+        this.isInteractive = isInteractive;
+        metricsRecorder.registerRateLimiterQueue(provider, queueSize);
+    }
+
+    /**
+     * Stops exposing the queue size, once the verticle instance is stopped.
+     */
+    public void close() {
+        metricsRecorder.unregister(queueSize);
+    }
+
+    private static Double share(final Double rate, final int instances) {
+        return rate == null ? null : rate / Math.max(1, instances);
+    }
+
+    @Override
+    public Future<SmsSendingReport> send(final SmsRequest request) {
+        final int cost = request.getReceivers().size();
+        final boolean interactive = isInteractive.test(request);
+        final Deque<Waiting> queue = interactive ? interactiveQueue : bulkQueue;
+        final Waiting waiting;
+        synchronized (this) {
+            if (queue.isEmpty() && (interactive || interactiveQueue.isEmpty()) && tryAcquire(cost)) {
+                // Fast path, nothing to wait for (interactive requests do not wait for the bulk ones)
+                waiting = null;
+            } else if (queue.size() >= maxQueueSize) {
+                return Future.failedFuture(new SmsSendingException(ErrorCodes.QUEUE_FULL));
+            } else {
+                waiting = new Waiting(request, cost);
+                queue.addLast(waiting);
+                scheduleDrain();
+            }
+        }
+        if (waiting == null) {
+            return next.send(request);
+        }
+        // A cancelled request leaves the queue at once, without waiting for nor spending tokens
+        request.getCancellation().onCancel(reason -> cancel(waiting, reason));
+        return waiting.promise.future();
+    }
+
+    private void cancel(final Waiting waiting, final Throwable reason) {
+        synchronized (this) {
+            if (!interactiveQueue.remove(waiting) && !bulkQueue.remove(waiting)) {
+                // Already sent
+                return;
+            }
+        }
+        metricsRecorder.onRateLimiterWait(provider, System.currentTimeMillis() - waiting.queuedAt);
+        waiting.promise.tryFail(reason);
+    }
+
+    public synchronized int getQueueSize() {
+        return interactiveQueue.size() + bulkQueue.size();
+    }
+
+    private boolean tryAcquire(final int cost) {
+        final long now = System.nanoTime();
+        requests.refill(now);
+        receivers.refill(now);
+        if (requests.has(1) && receivers.has(cost)) {
+            requests.take(1);
+            receivers.take(cost);
+            return true;
+        }
+        return false;
+    }
+
+    private void scheduleDrain() {
+        final Waiting first = interactiveQueue.isEmpty() ? bulkQueue.peekFirst() : interactiveQueue.peekFirst();
+        if (first == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        requests.refill(now);
+        receivers.refill(now);
+        final long delay = Math.max(1L, Math.max(requests.millisUntil(1), receivers.millisUntil(first.cost)));
+        final long at = System.currentTimeMillis() + delay;
+        if (drainScheduled) {
+            if (at >= drainAt) {
+                return;
+            }
+            // An interactive request can go before the bulk one the drain was scheduled for
+            vertx.cancelTimer(drainTimer);
+        }
+        drainScheduled = true;
+        drainAt = at;
+        drainTimer = vertx.setTimer(delay, id -> drain());
+    }
+
+    private void drain() {
+        final List<Waiting> ready = new ArrayList<>();
+        final List<Waiting> cancelled = new ArrayList<>();
+        synchronized (this) {
+            drainScheduled = false;
+            // Bulk requests only go once no interactive request waits
+            if (drain(interactiveQueue, ready, cancelled)) {
+                drain(bulkQueue, ready, cancelled);
+            }
+            scheduleDrain();
+        }
+        final long now = System.currentTimeMillis();
+        for (Waiting waiting : cancelled) {
+            metricsRecorder.onRateLimiterWait(provider, now - waiting.queuedAt);
+            waiting.promise.tryFail(waiting.request.getCancellation().getReason());
+        }
+        for (Waiting waiting : ready) {
+            metricsRecorder.onRateLimiterWait(provider, now - waiting.queuedAt);
+            next.send(waiting.request).onComplete(waiting.promise);
+        }
+    }
+
+    /**
+     * Takes the requests of a queue as long as there are tokens for them.
+     * @return Whether the queue has been emptied
+     */
+    private boolean drain(final Deque<Waiting> queue, final List<Waiting> ready, final List<Waiting> cancelled) {
+        while (!queue.isEmpty()) {
+            final Waiting first = queue.peekFirst();
+            // Cancelled requests must not spend tokens
+            if (first.request.getCancellation().isCancelled()) {
+                cancelled.add(queue.pollFirst());
+            } else if (tryAcquire(first.cost)) {
+                ready.add(queue.pollFirst());
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Waiting {
+        private final SmsRequest request;
+        private final int cost;
+        private final long queuedAt = System.currentTimeMillis();
+        private final Promise<SmsSendingReport> promise = Promise.promise();
+
+        private Waiting(final SmsRequest request, final int cost) {
+            this.request = request;
+            this.cost = cost;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package fr.wseduc.smsproxy.providers.dispatch;
+
+import fr.wseduc.sms.SmsSendingReport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Helpers to split and merge {@link SmsSendingReport}s between the requests handled by the dispatch stages.
+ */
+public final class SmsReports {
+    private static final String[] EMPTY = new String[0];
+
+    private SmsReports() {}
+
+    /**
+     * @param report Report of a call made for several requests
+     * @param receivers Receivers of one of these requests
+     * @return The part of the report concerning {@code receivers}. When the provider gives one id per valid receiver
+     * (OVH), the ids are split along with the valid receivers ; otherwise (a single batch id for Sinch) they are shared
+     * by all the requests
+     */
+    public static SmsSendingReport restrictTo(final SmsSendingReport report, final Set<String> receivers) {
+        final String[] ids = report.getIds();
+        final String[] validReceivers = report.getValidReceivers();
+        if (ids == null || validReceivers == null || ids.length != validReceivers.length) {
+            return new SmsSendingReport(
+                    ids,
+                    filter(report.getInvalidReceivers(), receivers),
+                    filter(validReceivers, receivers));
+        }
+        final List<String> keptIds = new ArrayList<>();
+        final List<String> keptReceivers = new ArrayList<>();
+        for (int i = 0; i < validReceivers.length; i++) {
+            if (receivers.contains(validReceivers[i])) {
+                keptIds.add(ids[i]);
+                keptReceivers.add(validReceivers[i]);
+            }
+        }
+        return new SmsSendingReport(
+                keptIds.toArray(EMPTY),
+                filter(report.getInvalidReceivers(), receivers),
+                keptReceivers.toArray(EMPTY));
+    }
+
+    /**
+     * @param reports Reports of the calls made for parts of a request
+     * @param failedReceivers Receivers of the parts whose call failed, reported as invalid
+     * @return A single report for the whole request
+     */
+    public static SmsSendingReport merge(final List<SmsSendingReport> reports, final List<String> failedReceivers) {
+        final List<String> ids = new ArrayList<>();
+        final List<String> invalidReceivers = new ArrayList<>(failedReceivers);
+        final List<String> validReceivers = new ArrayList<>();
+        for (SmsSendingReport report : reports) {
+            addAll(ids, report.getIds());
+            addAll(invalidReceivers, report.getInvalidReceivers());
+            addAll(validReceivers, report.getValidReceivers());
+        }
+        return new SmsSendingReport(ids.toArray(EMPTY), invalidReceivers.toArray(EMPTY), validReceivers.toArray(EMPTY));
+    }
+
+    private static void addAll(final List<String> list, final String[] values) {
+        if (values != null) {
+            Collections.addAll(list, values);
+        }
+    }
+
+    private static String[] filter(final String[] values, final Set<String> kept) {
+        if (values == null || values.length == 0) {
+            return EMPTY;
+        }
+        final List<String> filtered = new ArrayList<>(Math.min(values.length, kept.size()));
+        for (String value : values) {
+            if (kept.contains(value)) {
+                filtered.add(value);
+            }
+        }
+        return filtered.toArray(EMPTY);
+    }
+}
@@ -0,0 +1,103 @@
+package fr.wseduc.smsproxy.providers.dispatch;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsRequest;
+import fr.wseduc.smsproxy.providers.SmsSendingException;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sends again the requests failing with a retryable {@link SmsSendingException} (the provider did not process them),
+ * after an exponential backoff with full jitter.
+ * <p>
+ * Retries are limited by a budget shared by all the requests of the provider : each request adds {@code budgetRatio}
+ * retry, on top of {@code minRetriesPerSecond}, so that an outage does not multiply the load on the provider.
+ * </p>
+ * <p>
+ * Configuration (the {@code retry} object of the provider) :
+ * <ul>
+ *     <li>maxAttempts : maximum number of attempts (first one included), defaults to 3</li>
+ *     <li>initialBackoffMs : upper bound of the first backoff, doubled after each attempt, defaults to 200</li>
+ *     <li>maxBackoffMs : maximum upper bound of a backoff, defaults to 5000</li>
+ *     <li>budgetRatio : retries allowed per request, defaults to 0.1</li>
+ *     <li>minRetriesPerSecond : retries always allowed per second, defaults to 1</li>
+ * </ul>
+ * </p>
+ */
+public class SmsRetrier implements SmsSender {
+    private static final Logger logger = LoggerFactory.getLogger(SmsRetrier.class);
+    private final Vertx vertx;
+    private final SmsSender next;
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final double budgetRatio;
+    private final double minRetriesPerSecond;
+    private final double maxBudget;
+    private double budget;
+    private long lastRefill = System.nanoTime();
+
+    public SmsRetrier(final Vertx vertx, final SmsSender next, final JsonObject conf) {
+        this.vertx = vertx;
+        this.next = next;
+        this.maxAttempts = Math.max(1, conf.getInteger("maxAttempts", 3));
+        this.initialBackoff = Math.max(1L, conf.getLong("initialBackoffMs", 200L));
+        this.maxBackoff = Math.max(initialBackoff, conf.getLong("maxBackoffMs", 5000L));
+        this.budgetRatio = conf.getDouble("budgetRatio", 0.1d);
+        this.minRetriesPerSecond = conf.getDouble("minRetriesPerSecond", 1d);
+        this.maxBudget = Math.max(10d, minRetriesPerSecond * 10d);
+        this.budget = maxBudget;
+    }
+
+    @Override
+    public Future<SmsSendingReport> send(final SmsRequest request) {
+        deposit();
+        final Promise<SmsSendingReport> promise = Promise.promise();
+        attempt(request, 1, promise);
+        return promise.future();
+    }
+
+    private void attempt(final SmsRequest request, final int attempt, final Promise<SmsSendingReport> promise) {
+        next.send(request).onComplete(ar -> {
+            if (ar.succeeded() || attempt >= maxAttempts || !isRetryable(ar.cause()) ||
+                    request.getCancellation().isCancelled() || !withdraw()) {
+                promise.handle(ar);
+                return;
+            }
+            final long bound = Math.min(maxBackoff, initialBackoff << Math.min(attempt - 1, 30));
+            final long delay = 1L + ThreadLocalRandom.current().nextLong(bound);
+            logger.warn("[Sms] Attempt " + attempt + " of request " + request.getIdempotencyKey() + " failed, retrying in " + delay + "ms.");
+            vertx.setTimer(delay, id -> attempt(request, attempt + 1, promise));
+        });
+    }
+
+    private static boolean isRetryable(final Throwable cause) {
+        return cause instanceof SmsSendingException && ((SmsSendingException) cause).isRetryable();
+    }
+
+    private synchronized void deposit() {
+        refill();
+        budget = Math.min(maxBudget, budget + budgetRatio);
+    }
+
+    private synchronized boolean withdraw() {
+        refill();
+        if (budget < 1d) {
+            return false;
+        }
+        budget -= 1d;
+        return true;
+    }
+
+    private void refill() {
+        final long now = System.nanoTime();
+        budget = Math.min(maxBudget, budget + (now - lastRefill) * minRetriesPerSecond / 1_000_000_000d);
+        lastRefill = now;
+    }
+}
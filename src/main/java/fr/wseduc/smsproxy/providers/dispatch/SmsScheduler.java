@@ -0,0 +1,219 @@
+package fr.wseduc.smsproxy.providers.dispatch;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsProvider.ErrorCodes;
+import fr.wseduc.smsproxy.providers.SmsRequest;
+import fr.wseduc.smsproxy.providers.SmsSendingException;
+import fr.wseduc.smsproxy.providers.metrics.SmsMetricsRecorder;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Weighted fair scheduler between two lanes of requests : {@code interactive} (one-time codes, alerts...) and
+ * {@code bulk} (broadcasts). Each lane has its own bounded queue, requests being rejected with
+ * {@link ErrorCodes#QUEUE_FULL} when it is full, and at most {@code maxConcurrency} requests are sent at the same time,
+ * {@code interactiveReserved} of these slots being kept for the interactive lane. When a slot is free, the lane that
+ * got the smallest share of the calls relative to its weight goes first.
+ * <p>
+ * The lane of a request is its {@code priority} ({@code interactive} or {@code bulk}) ; without priority, requests
+ * with at most {@code interactiveMaxReceivers} receivers are interactive.
+ * </p>
+ * <p>
+ * Configuration (the {@code scheduler} object of the provider) :
+ * <ul>
+ *     <li>maxConcurrency : defaults to 16</li>
+ *     <li>interactiveReserved : defaults to 4</li>
+ *     <li>interactiveWeight / bulkWeight : default to 4 and 1</li>
+ *     <li>interactiveQueueSize / bulkQueueSize : default to 1000 and 10000</li>
+ *     <li>interactiveMaxReceivers : defaults to 10</li>
+ * </ul>
+ * The limits apply to each verticle instance.
+ * </p>
+ */
+public class SmsScheduler implements SmsSender {
+    public static final String INTERACTIVE = "interactive";
+    public static final String BULK = "bulk";
+    private final SmsSender next;
+    private final String provider;
+    private final SmsMetricsRecorder metricsRecorder;
+    private final int maxConcurrency;
+    private final int bulkMaxConcurrency;
+    private final Predicate<SmsRequest> isInteractive;
+    private final Lane interactive;
+    private final Lane bulk;
+    private final Supplier<Number> interactiveQueueSize = this::getInteractiveQueueSize;
+    private final Supplier<Number> bulkQueueSize = this::getBulkQueueSize;
+    private int running;
+
+    public SmsScheduler(final SmsSender next, final String provider, final SmsMetricsRecorder metricsRecorder,
+                        final JsonObject conf) {
+        this.next = next;
+        this.provider = provider;
+        this.metricsRecorder = metricsRecorder;
+        this.maxConcurrency = Math.max(1, conf.getInteger("maxConcurrency", 16));
+        this.bulkMaxConcurrency = Math.max(1, maxConcurrency - conf.getInteger("interactiveReserved", 4));
+        this.isInteractive = isInteractive(conf);
+        this.interactive = new Lane(INTERACTIVE, conf.getInteger("interactiveWeight", 4), conf.getInteger("interactiveQueueSize", 1000));
+        this.bulk = new Lane(BULK, conf.getInteger("bulkWeight", 1), conf.getInteger("bulkQueueSize", 10000));
+        metricsRecorder.registerSchedulerQueue(provider, INTERACTIVE, interactiveQueueSize);
+        metricsRecorder.registerSchedulerQueue(provider, BULK, bulkQueueSize);
+    }
+
+    /**
+     * Stops exposing the queue sizes, once the verticle instance is stopped.
+     */
+    public void close() {
+        metricsRecorder.unregister(interactiveQueueSize);
+        metricsRecorder.unregister(bulkQueueSize);
+    }
+
+    @Override
+    public Future<SmsSendingReport> send(final SmsRequest request) {
+        final Lane lane = laneOf(request);
+        final Waiting waiting;
+        synchronized (this) {
+            if (lane.queue.isEmpty() && canRun(lane)) {
+                start(lane);
+                waiting = null;
+            } else if (lane.queue.size() >= lane.maxQueueSize) {
+                return Future.failedFuture(new SmsSendingException(ErrorCodes.QUEUE_FULL));
+            } else {
+                waiting = new Waiting(request);
+                lane.queue.addLast(waiting);
+            }
+        }
+        if (waiting != null) {
+            // A cancelled request leaves its lane at once, so that it does not hold a place in the queue
+            request.getCancellation().onCancel(reason -> cancel(lane, waiting, reason));
+            return waiting.promise.future();
+        }
+        metricsRecorder.onSchedulerWait(provider, lane.name, 0L);
+        return run(request);
+    }
+
+    private void cancel(final Lane lane, final Waiting waiting, final Throwable reason) {
+        synchronized (this) {
+            if (!lane.queue.remove(waiting)) {
+                // Already started
+                return;
+            }
+        }
+        metricsRecorder.onSchedulerWait(provider, lane.name, System.currentTimeMillis() - waiting.queuedAt);
+        waiting.promise.tryFail(reason);
+    }
+
+    public synchronized int getInteractiveQueueSize() {
+        return interactive.queue.size();
+    }
+
+    public synchronized int getBulkQueueSize() {
+        return bulk.queue.size();
+    }
+
+    /**
+     * @param conf The {@code scheduler} configuration object, {@code null} for the defaults
+     * @return Whether a request goes to the interactive lane : its priority, or without one its number of receivers
+     */
+    public static Predicate<SmsRequest> isInteractive(final JsonObject conf) {
+        final int maxReceivers = conf == null ? 10 : conf.getInteger("interactiveMaxReceivers", 10);
+        return request -> {
+            final String priority = request.getPriority();
+            if (INTERACTIVE.equals(priority)) {
+                return true;
+            } else if (BULK.equals(priority)) {
+                return false;
+            }
+            return request.getReceivers().size() <= maxReceivers;
+        };
+    }
+
+    private Lane laneOf(final SmsRequest request) {
+        return isInteractive.test(request) ? interactive : bulk;
+    }
+
+    private boolean canRun(final Lane lane) {
+        return running < (lane == bulk ? bulkMaxConcurrency : maxConcurrency);
+    }
+
+    private void start(final Lane lane) {
+        final Lane other = lane == bulk ? interactive : bulk;
+        if (other.queue.isEmpty()) {
+            // A lane alone does not build up a share that the other would have to catch up with later
+            lane.served = Math.max(lane.served, other.served);
+        }
+        running++;
+        lane.served += 1d / lane.weight;
+    }
+
+    private Future<SmsSendingReport> run(final SmsRequest request) {
+        return next.send(request).onComplete(ar -> release());
+    }
+
+    private void release() {
+        final List<Waiting> ready = new ArrayList<>();
+        final List<Lane> lanes = new ArrayList<>();
+        synchronized (this) {
+            running--;
+            Lane lane;
+            while ((lane = pick()) != null) {
+                start(lane);
+                ready.add(lane.queue.pollFirst());
+                lanes.add(lane);
+            }
+        }
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < ready.size(); i++) {
+            final Waiting waiting = ready.get(i);
+            metricsRecorder.onSchedulerWait(provider, lanes.get(i).name, now - waiting.queuedAt);
+            if (waiting.request.getCancellation().isCancelled()) {
+                waiting.promise.fail(waiting.request.getCancellation().getReason());
+                release();
+            } else {
+                run(waiting.request).onComplete(waiting.promise);
+            }
+        }
+    }
+
+    // The lane to start a request from : the runnable one with the smallest weighted share, null if there is none
+    private Lane pick() {
+        final boolean interactiveReady = !interactive.queue.isEmpty() && canRun(interactive);
+        final boolean bulkReady = !bulk.queue.isEmpty() && canRun(bulk);
+        if (interactiveReady && bulkReady) {
+            return interactive.served <= bulk.served ? interactive : bulk;
+        }
+        return interactiveReady ? interactive : bulkReady ? bulk : null;
+    }
+
+    private static class Lane {
+        private final String name;
+        private final int weight;
+        private final int maxQueueSize;
+        private final Deque<Waiting> queue = new ArrayDeque<>();
+        /** Number of calls started, divided by the weight */
+        private double served;
+
+        private Lane(final String name, final int weight, final int maxQueueSize) {
+            this.name = name;
+            this.weight = Math.max(1, weight);
+            this.maxQueueSize = maxQueueSize;
+        }
+    }
+
+    private static class Waiting {
+        private final SmsRequest request;
+        private final long queuedAt = System.currentTimeMillis();
+        private final Promise<SmsSendingReport> promise = Promise.promise();
+
+        private Waiting(final SmsRequest request) {
+            this.request = request;
+        }
+    }
+}
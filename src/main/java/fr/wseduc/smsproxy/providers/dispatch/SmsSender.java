@@ -0,0 +1,18 @@
+package fr.wseduc.smsproxy.providers.dispatch;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsRequest;
+import io.vertx.core.Future;
+
+/**
+ * A stage of the sending pipeline of a provider. Stages wrap each other down to the provider call itself.
+ */
+@FunctionalInterface
+public interface SmsSender {
+
+    /**
+     * @param request Request to send
+     * @return The provider report, or a failure (preferably a {@link fr.wseduc.smsproxy.providers.SmsSendingException})
+     */
+    Future<SmsSendingReport> send(final SmsRequest request);
+}
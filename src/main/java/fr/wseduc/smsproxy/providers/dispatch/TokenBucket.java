@@ -0,0 +1,69 @@
+package fr.wseduc.smsproxy.providers.dispatch;
+
+/**
+ * Token bucket refilled continuously at {@code rate} tokens per second, holding at most {@code capacity} tokens.
+ * <p>
+ * A request is always charged its full cost, the bucket going into debt when the cost is above the tokens left : a
+ * request costing more than the capacity only waits for a full bucket, and the requests after it wait until the debt
+ * is paid off, so that the rate holds whatever the size of the requests.
+ * </p>
+ */
+class TokenBucket {
+    private final double rate;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param rate Tokens added per second
+     * @param capacity Maximum number of tokens
+     * @param now Current time (as given by {@link System#nanoTime()}), the bucket starting full
+     */
+    TokenBucket(final double rate, final double capacity, final long now) {
+        this.rate = rate;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    /**
+     * @param rate Tokens per second, no limit if {@code null} or not positive
+     * @param burstSeconds Number of seconds of unused rate the bucket holds (at least one token)
+     */
+    static TokenBucket create(final Double rate, final double burstSeconds) {
+        if (rate == null || rate <= 0) {
+            return new TokenBucket(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, System.nanoTime());
+        }
+        return new TokenBucket(rate, Math.max(1d, rate * burstSeconds), System.nanoTime());
+    }
+
+    void refill(final long now) {
+        if (tokens < capacity) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / 1_000_000_000d);
+        }
+        lastRefill = now;
+    }
+
+    /**
+     * @return Whether a request of {@code cost} can go : the bucket holds its cost, or is full
+     */
+    boolean has(final int cost) {
+        return tokens >= Math.min(cost, capacity);
+    }
+
+    void take(final int cost) {
+        tokens -= cost;
+    }
+
+    /**
+     * @return The time (in ms) to wait before {@link #has(int)} is true
+     */
+    long millisUntil(final int cost) {
+        final double missing = Math.min(cost, capacity) - tokens;
+        return missing <= 0 ? 0L : (long) Math.ceil(missing * 1000d / rate);
+    }
+
+    double getTokens() {
+        return tokens;
+    }
+}
@@ -1,29 +1,160 @@
 package fr.wseduc.smsproxy.providers.metrics;
 
+import fr.wseduc.smsproxy.providers.HttpCall;
+
+import java.util.function.Supplier;
+
 /**
- * Records metrics specific to OVH SMS-sending service.
+ * Records metrics of the SMS-sending services, tagged by provider.
  */
 public interface SmsMetricsRecorder {
 
-    /** Record the fact that an interaction with SMS service to send SMS has been done and has taken {@code duration}
+    /** Record the fact that an interaction with SMS service to send SMS has succeeded and has taken {@code duration}
      * milliseconds.
-     * N.B. : Call this method even if the interaction has failed.
      * */
-    void onSmsSent(final long duration);
+    void onSmsSent(final String provider, final long duration);
+
+    /** Record the fact that an interaction with SMS service to send SMS has failed with {@code errorCode} and has taken
+     * {@code duration} milliseconds.
+     * */
+    void onSmsFailure(final String provider, final String errorCode, final long duration);
+
+    /**
+     * Record the size of a request : the number of receivers asked for, and how many of them the provider accepted and
+     * rejected.
+     */
+    void onReceivers(final String provider, final int requested, final int valid, final int invalid);
+
+    /**
+     * Record the credits spent on the provider account by a sending.
+     */
+    void onCreditsConsumed(final String provider, final double credits);
+
+    /**
+     * Record the time (in milliseconds) spent in a phase of a provider call (e.g. {@code service.lookup},
+     * {@code job.post}).
+     */
+    void onPhase(final String provider, final String phase, final long duration);
+
+    /**
+     * Record the phase timings of an HTTP call to the {@code operation} of the {@code provider} API.
+     */
+    void onHttpCall(final String provider, final String operation, final HttpCall.Timings timings);
+
+    /**
+     * Record the time (in milliseconds) a request waited in the rate limiter queue of {@code provider}.
+     */
+    void onRateLimiterWait(final String provider, final long duration);
+
+    /**
+     * Exposes the number of requests waiting in the rate limiter queue of {@code provider}.
+     */
+    void registerRateLimiterQueue(final String provider, final Supplier<Number> queueSize);
 
-    void onSmsFailure(final long duration);
+    /**
+     * Record the time (in milliseconds) a request waited in the {@code lane} queue of the scheduler of {@code provider}.
+     */
+    void onSchedulerWait(final String provider, final String lane, final long duration);
+
+    /**
+     * Exposes the number of requests waiting in the {@code lane} queue of the scheduler of {@code provider}.
+     */
+    void registerSchedulerQueue(final String provider, final String lane, final Supplier<Number> queueSize);
+
+    /**
+     * Exposes the number of requests being sent by {@code provider} and the age (in milliseconds) of the oldest one.
+     */
+    void registerInFlight(final String provider, final Supplier<Number> count, final Supplier<Number> oldestAge);
+
+    /**
+     * Stops using a source given to one of the {@code register} methods, once the verticle instance it belongs to is
+     * stopped.
+     */
+    void unregister(final Supplier<Number> source);
+
+    /**
+     * Record a delivery receipt of a message sent by {@code provider}, and the time (in milliseconds) the message took
+     * to be delivered ({@code -1} if it is not delivered or if its sending time is unknown).
+     */
+    void onDeliveryReceipt(final String provider, final String status, final long latency);
+
+    /**
+     * Record the deduplication of a request : the number of receivers checked, and how many of them were suppressed
+     * because {@code provider} recently sent them the same text.
+     */
+    void onDeduplication(final String provider, final int checked, final int suppressed);
 
     /**
      * Mock implementation used when no metrics options are defined.
      */
     class NoopSmsMetricsRecorder implements SmsMetricsRecorder {
         @Override
-        public void onSmsSent(final long delay) {
+        public void onSmsSent(final String provider, final long delay) {
+            // Do nothing in this implementation
+        }
+
+        @Override
+        public void onSmsFailure(final String provider, final String errorCode, final long duration) {
+            // Do nothing in this implementation
+        }
+
+        @Override
+        public void onReceivers(final String provider, final int requested, final int valid, final int invalid) {
+            // Do nothing in this implementation
+        }
+
+        @Override
+        public void onCreditsConsumed(final String provider, final double credits) {
+            // Do nothing in this implementation
+        }
+
+        @Override
+        public void onPhase(final String provider, final String phase, final long duration) {
+            // Do nothing in this implementation
+        }
+
+        @Override
+        public void onHttpCall(final String provider, final String operation, final HttpCall.Timings timings) {
+            // Do nothing in this implementation
+        }
+
+        @Override
+        public void onRateLimiterWait(final String provider, final long duration) {
+            // Do nothing in this implementation
+        }
+
+        @Override
+        public void registerRateLimiterQueue(final String provider, final Supplier<Number> queueSize) {
+            // Do nothing in this implementation
+        }
+
+        @Override
+        public void onSchedulerWait(final String provider, final String lane, final long duration) {
+            // Do nothing in this implementation
+        }
+
+        @Override
+        public void registerSchedulerQueue(final String provider, final String lane, final Supplier<Number> queueSize) {
+            // Do nothing in this implementation
+        }
+
+        @Override
+        public void registerInFlight(final String provider, final Supplier<Number> count, final Supplier<Number> oldestAge) {
+            // Do nothing in this implementation
+        }
+
+        @Override
+        public void unregister(final Supplier<Number> source) {
+            // Do nothing in this implementation
+        }
+
+        @Override
+        public void onDeliveryReceipt(final String provider, final String status, final long latency) {
             // Do nothing in this implementation
         }
 
         @Override
-        public void onSmsFailure(final long duration) {
+        public void onDeduplication(final String provider, final int checked, final int suppressed) {
             // Do nothing in this implementation
         }
     }
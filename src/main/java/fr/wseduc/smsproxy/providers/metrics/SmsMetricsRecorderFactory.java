@@ -7,13 +7,16 @@ import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.metrics.MetricsOptions;
 
+/**
+ * Holds the recorder shared by every provider of every verticle instance. The verticle instances initialize it
+ * concurrently, with the same configuration : the first initialization wins.
+ */
 public class SmsMetricsRecorderFactory {
     private static JsonObject config;
     private static MetricsOptions metricsOptions;
-    private static SmsMetricsRecorder smsMetricsRecorder;
+    private static volatile SmsMetricsRecorder smsMetricsRecorder;
     private SmsMetricsRecorderFactory(){}
     public static Future<Void> init(final Vertx vertx, final JsonObject config) {
-        SmsMetricsRecorderFactory.config = config;
         final String metricsOptionsName = "metricsOptions";
         final Future<Void> future;
         if(config.getJsonObject(metricsOptionsName) == null) {
@@ -22,26 +25,38 @@ public class SmsMetricsRecorderFactory {
               .compose(map -> map.get(metricsOptionsName))
               .onSuccess(metricsOptions -> {
                 if (metricsOptions == null) {
-                  SmsMetricsRecorderFactory.metricsOptions = new MetricsOptions().setEnabled(false);
+                  setOptions(config, new MetricsOptions().setEnabled(false));
                 } else {
-                  SmsMetricsRecorderFactory.metricsOptions = new MetricsOptions(new JsonObject(metricsOptions));
+                  setOptions(config, new MetricsOptions(new JsonObject(metricsOptions)));
                 }
                 promise.complete();
               })
               .onFailure(promise::fail);
             future = promise.future();
         } else {
-            metricsOptions = new MetricsOptions(config.getJsonObject(metricsOptionsName));
+            setOptions(config, new MetricsOptions(config.getJsonObject(metricsOptionsName)));
             future = Future.succeededFuture();
         }
         return future;
     }
 
+    private static synchronized void setOptions(final JsonObject config, final MetricsOptions metricsOptions) {
+        if (SmsMetricsRecorderFactory.metricsOptions == null) {
+            SmsMetricsRecorderFactory.config = config;
+            SmsMetricsRecorderFactory.metricsOptions = metricsOptions;
+        }
+    }
+
     /**
      * @return The backend to record metrics. If metricsOptions is defined in the configuration then the backend used
      * is MicroMeter. Otherwise a dummy registrar is returned and it collects nothing.
      */
     public static SmsMetricsRecorder getInstance() {
+        final SmsMetricsRecorder recorder = smsMetricsRecorder;
+        return recorder != null ? recorder : createInstance();
+    }
+
+    private static synchronized SmsMetricsRecorder createInstance() {
         if(smsMetricsRecorder == null) {
             if(metricsOptions == null) {
                 throw new IllegalStateException("sms.metricsrecorder.factory.not.set");
@@ -1,7 +1,12 @@
 package fr.wseduc.smsproxy.providers.metrics.impl;
 
+import fr.wseduc.smsproxy.providers.HttpCall;
 import fr.wseduc.smsproxy.providers.metrics.SmsMetricsRecorder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import io.micrometer.core.instrument.Timer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -10,49 +15,303 @@ import io.vertx.micrometer.backends.BackendRegistries;
 import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+/**
+ * Micrometer recorder. The meters of a provider are built on its first record and then reused, so that recording does
+ * not allocate.
+ */
 public class MicrometerSmsMetricsRecorder implements SmsMetricsRecorder {
-    private final Timer smsSendingTimes;
-    private final Timer smsFailureTimes;
+    private final MeterRegistry registry;
+    private final Configuration configuration;
+    private final Map<String, ProviderMeters> providers = new ConcurrentHashMap<>();
+    private final Map<String, GaugeSources> gauges = new ConcurrentHashMap<>();
 
     public MicrometerSmsMetricsRecorder(final Configuration configuration) {
         final MeterRegistry registry = BackendRegistries.getDefaultNow();
         if(registry == null) {
             throw new IllegalStateException("micrometer.registries.empty");
         }
-        final Timer.Builder smsSendingTimesBuilder = Timer.builder("sms.sending.time")
-                .description("time to send SMS");
+        this.registry = registry;
+        this.configuration = configuration;
+    }
+
+    private ProviderMeters meters(final String provider) {
+        final ProviderMeters meters = providers.get(provider);
+        return meters != null ? meters : providers.computeIfAbsent(provider, ProviderMeters::new);
+    }
+
+    private Timer timer(final String name, final String description, final Duration maximumExpectedValue, final Tags tags) {
+        final Timer.Builder builder = Timer.builder(name)
+                .description(description)
+                .tags(tags);
         if(configuration.sla.isEmpty()) {
-            smsSendingTimesBuilder
-                    .publishPercentileHistogram()
-                    .maximumExpectedValue(Duration.ofSeconds(2L));
+            builder.publishPercentileHistogram()
+                    .maximumExpectedValue(maximumExpectedValue);
         } else {
-            smsSendingTimesBuilder.sla(configuration.sla.toArray(new Duration[0]));
+            builder.sla(configuration.sla.toArray(new Duration[0]));
         }
-        smsSendingTimes = smsSendingTimesBuilder.register(registry);
+        return builder.register(registry);
+    }
 
-        final Timer.Builder smsFailureTimesBuilder = Timer.builder("sms.failure.time")
-                .description("time spent to send failed SMS");
-        if(configuration.sla.isEmpty()) {
-            smsFailureTimesBuilder
-                    .publishPercentileHistogram()
-                    .maximumExpectedValue(Duration.ofSeconds(2L));
-        } else {
-            smsFailureTimesBuilder.sla(configuration.sla.toArray(new Duration[0]));
+    @Override
+    public void onSmsSent(final String provider, final long duration) {
+        meters(provider).sendingTime.record(duration, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onSmsFailure(final String provider, final String errorCode, final long duration) {
+        meters(provider).failureTime(errorCode).record(duration, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onReceivers(final String provider, final int requested, final int valid, final int invalid) {
+        final ProviderMeters meters = meters(provider);
+        meters.receivers.record(requested);
+        meters.validReceivers.increment(valid);
+        meters.invalidReceivers.increment(invalid);
+    }
+
+    @Override
+    public void onCreditsConsumed(final String provider, final double credits) {
+        meters(provider).credits.increment(credits);
+    }
+
+    @Override
+    public void onPhase(final String provider, final String phase, final long duration) {
+        meters(provider).phaseTime(phase).record(duration, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onHttpCall(final String provider, final String operation, final HttpCall.Timings timings) {
+        final HttpMeters meters = meters(provider).http(operation);
+        record(meters.connection, timings.getConnection());
+        record(meters.write, timings.getWrite());
+        record(meters.firstByte, timings.getFirstByte());
+        record(meters.body, timings.getBody());
+    }
+
+    private static void record(final Timer timer, final long nanos) {
+        if (nanos >= 0) {
+            timer.record(nanos, TimeUnit.NANOSECONDS);
         }
-        smsFailureTimes = smsFailureTimesBuilder.register(registry);
     }
 
     @Override
-    public void onSmsSent(final long duration) {
-        smsSendingTimes.record(duration, TimeUnit.MILLISECONDS);
+    public void onRateLimiterWait(final String provider, final long duration) {
+        meters(provider).rateLimiterWaitTime.record(duration, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void registerRateLimiterQueue(final String provider, final Supplier<Number> queueSize) {
+        gauge("sms.ratelimiter.queue.size", "number of SMS requests waiting for the provider rate limit", null,
+                provider, false).add(queueSize);
+    }
+
+    @Override
+    public void onSchedulerWait(final String provider, final String lane, final long duration) {
+        meters(provider).schedulerWaitTime(lane).record(duration, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void registerSchedulerQueue(final String provider, final String lane, final Supplier<Number> queueSize) {
+        gauge("sms.scheduler.queue.size", "number of SMS requests waiting in a lane of the scheduler", null,
+                provider, lane, false).add(queueSize);
+    }
+
+    @Override
+    public void registerInFlight(final String provider, final Supplier<Number> count, final Supplier<Number> oldestAge) {
+        gauge("sms.inflight.count", "number of SMS requests being sent", null, provider, false).add(count);
+        gauge("sms.inflight.oldest.age", "age of the oldest SMS request being sent", "milliseconds", provider, true)
+                .add(oldestAge);
+    }
+
+    @Override
+    public void unregister(final Supplier<Number> source) {
+        for (GaugeSources sources : gauges.values()) {
+            sources.remove(source);
+        }
     }
 
     @Override
-    public void onSmsFailure(final long duration) {
-        smsFailureTimes.record(duration, TimeUnit.MILLISECONDS);
+    public void onDeliveryReceipt(final String provider, final String status, final long latency) {
+        final ProviderMeters meters = meters(provider);
+        meters.receipts(status).increment();
+        if (latency >= 0) {
+            meters.deliveryLatency.record(latency, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void onDeduplication(final String provider, final int checked, final int suppressed) {
+        final ProviderMeters meters = meters(provider);
+        meters.dedupChecked.increment(checked);
+        meters.dedupSuppressed.increment(suppressed);
+    }
+
+    //Each verticle instance has its own providers : the gauge of a provider aggregates the values of every instance
+    private GaugeSources gauge(final String name, final String description, final String baseUnit,
+                               final String provider, final boolean max) {
+        return gauge(name, description, baseUnit, provider, null, max);
+    }
+
+    private GaugeSources gauge(final String name, final String description, final String baseUnit,
+                               final String provider, final String lane, final boolean max) {
+        return gauges.computeIfAbsent(name + '|' + provider + '|' + lane, key -> {
+            final GaugeSources sources = new GaugeSources(max);
+            final Gauge.Builder<GaugeSources> builder = Gauge.builder(name, sources, GaugeSources::value)
+                    .description(description)
+                    .tag("provider", provider);
+            if (lane != null) {
+                builder.tag("lane", lane);
+            }
+            if (baseUnit != null) {
+                builder.baseUnit(baseUnit);
+            }
+            builder.register(registry);
+            return sources;
+        });
+    }
+
+    private static class GaugeSources {
+        private final List<Supplier<Number>> sources = new CopyOnWriteArrayList<>();
+        private final boolean max;
+
+        private GaugeSources(final boolean max) {
+            this.max = max;
+        }
+
+        private void add(final Supplier<Number> source) {
+            sources.add(source);
+        }
+
+        private void remove(final Supplier<Number> source) {
+            sources.remove(source);
+        }
+
+        private double value() {
+            double value = 0d;
+            for (Supplier<Number> source : sources) {
+                final double sourceValue = source.get().doubleValue();
+                value = max ? Math.max(value, sourceValue) : value + sourceValue;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Meters of a provider.
+     */
+    private class ProviderMeters {
+        private final Tags tags;
+        private final Timer sendingTime;
+        private final Map<String, Timer> failureTimes = new ConcurrentHashMap<>();
+        private final Map<String, Timer> phaseTimes = new ConcurrentHashMap<>();
+        private final Map<String, HttpMeters> httpMeters = new ConcurrentHashMap<>();
+        private final Map<String, Counter> receipts = new ConcurrentHashMap<>();
+        private final Map<String, Timer> schedulerWaitTimes = new ConcurrentHashMap<>();
+        private final Timer deliveryLatency;
+        private final Timer rateLimiterWaitTime;
+        private final DistributionSummary receivers;
+        private final Counter validReceivers;
+        private final Counter invalidReceivers;
+        private final Counter credits;
+        private final Counter dedupChecked;
+        private final Counter dedupSuppressed;
+
+        private ProviderMeters(final String provider) {
+            this.tags = Tags.of("provider", provider);
+            this.sendingTime = timer("sms.sending.time", "time to send SMS", Duration.ofSeconds(2L), tags);
+            this.rateLimiterWaitTime = timer("sms.ratelimiter.wait.time",
+                    "time spent by SMS requests waiting for the provider rate limit", Duration.ofSeconds(30L), tags);
+            this.deliveryLatency = timer("sms.delivery.latency",
+                    "time between the sending of SMS and their delivery receipt", Duration.ofMinutes(10L), tags);
+            this.receivers = DistributionSummary.builder("sms.receivers")
+                    .description("number of receivers per SMS request")
+                    .tags(tags)
+                    .publishPercentileHistogram()
+                    .maximumExpectedValue(10000L)
+                    .register(registry);
+            this.validReceivers = Counter.builder("sms.receivers.valid")
+                    .description("number of receivers accepted by the provider")
+                    .tags(tags)
+                    .register(registry);
+            this.invalidReceivers = Counter.builder("sms.receivers.invalid")
+                    .description("number of receivers rejected by the provider")
+                    .tags(tags)
+                    .register(registry);
+            this.credits = Counter.builder("sms.credits.consumed")
+                    .description("credits spent on the provider account")
+                    .tags(tags)
+                    .register(registry);
+            this.dedupChecked = Counter.builder("sms.dedup.checked")
+                    .description("number of receivers checked for duplicate sendings")
+                    .tags(tags)
+                    .register(registry);
+            this.dedupSuppressed = Counter.builder("sms.dedup.suppressed")
+                    .description("number of receivers suppressed as duplicate sendings")
+                    .tags(tags)
+                    .register(registry);
+        }
+
+        private Timer failureTime(final String errorCode) {
+            final Timer timer = failureTimes.get(errorCode);
+            return timer != null ? timer : failureTimes.computeIfAbsent(errorCode, code ->
+                    timer("sms.failure.time", "time spent to send failed SMS", Duration.ofSeconds(2L), tags.and("error", code)));
+        }
+
+        private HttpMeters http(final String operation) {
+            final HttpMeters meters = httpMeters.get(operation);
+            return meters != null ? meters : httpMeters.computeIfAbsent(operation, op -> new HttpMeters(tags.and("operation", op)));
+        }
+
+        private Timer schedulerWaitTime(final String lane) {
+            final Timer timer = schedulerWaitTimes.get(lane);
+            return timer != null ? timer : schedulerWaitTimes.computeIfAbsent(lane, l ->
+                    timer("sms.scheduler.wait.time", "time spent by SMS requests waiting in a lane of the scheduler",
+                            Duration.ofSeconds(30L), tags.and("lane", l)));
+        }
+
+        private Counter receipts(final String status) {
+            final Counter counter = receipts.get(status);
+            return counter != null ? counter : receipts.computeIfAbsent(status, s -> Counter.builder("sms.delivery.receipts")
+                    .description("number of delivery receipts received")
+                    .tags(tags.and("status", s))
+                    .register(registry));
+        }
+
+        private Timer phaseTime(final String phase) {
+            final Timer timer = phaseTimes.get(phase);
+            return timer != null ? timer : phaseTimes.computeIfAbsent(phase, p ->
+                    timer("sms.phase.time", "time spent in a phase of the provider calls", Duration.ofSeconds(2L), tags.and("phase", p)));
+        }
+    }
+
+    /**
+     * Phase timers of the calls to an operation of a provider API.
+     */
+    private class HttpMeters {
+        private final Timer connection;
+        private final Timer write;
+        private final Timer firstByte;
+        private final Timer body;
+
+        private HttpMeters(final Tags tags) {
+            this.connection = phase(tags, "connection");
+            this.write = phase(tags, "write");
+            this.firstByte = phase(tags, "first.byte");
+            this.body = phase(tags, "body");
+        }
+
+        private Timer phase(final Tags tags, final String phase) {
+            return timer("sms.http.phase.time", "time spent in a phase of the HTTP calls to the provider",
+                    Duration.ofSeconds(2L), tags.and("phase", phase));
+        }
     }
 
     public static class Configuration {
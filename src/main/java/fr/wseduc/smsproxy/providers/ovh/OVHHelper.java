@@ -18,15 +18,19 @@ package fr.wseduc.smsproxy.providers.ovh;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Date;
 import java.util.Map.Entry;
 
-import io.vertx.core.Handler;
+import fr.wseduc.smsproxy.providers.Cancellation;
+import fr.wseduc.smsproxy.providers.HttpCall;
+import fr.wseduc.smsproxy.providers.HttpCall.Response;
+import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.*;
 import io.vertx.core.http.impl.headers.HeadersMultiMap;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
 
 public class OVHHelper {
 	
@@ -61,139 +65,142 @@ public class OVHHelper {
 	public static String getRequestSignature(String AS, String CK, String method, String query, String body, String timestamp) throws NoSuchAlgorithmException{
 		MessageDigest md = MessageDigest.getInstance("SHA1");
 		byte[] result = md.digest((AS+"+"+CK+"+"+method+"+"+query+"+"+body+"+"+timestamp).getBytes());
-		
 		StringBuffer sb = new StringBuffer("$1$");
-        for (int i = 0; i < result.length; i++) {
-            sb.append(Integer.toString((result[i] & 0xff) + 0x100, 16).substring(1));
-        }
-		
+		for (int i = 0; i < result.length; i++) {
+			sb.append(Integer.toString((result[i] & 0xff) + 0x100, 16).substring(1));
+		}
 		return sb.toString();
 	}
 	
 	public static class OVHClient{
 		
+		private static final Logger logger = LoggerFactory.getLogger(OVHClient.class);
+		private final Vertx vertx;
 		private HttpClient httpclient;
-		private Long timeDiff = null;
-		private String AK, AS, CK, endPoint;
+		private final OVHRequestSigner signer;
+		private final OVHTimeSync timeSync;
+		private final long requestTimeout;
+		private final long idleTimeout;
+		private String AK, CK, endPoint;
 		
 		public OVHClient(Vertx vertx, String endPoint, String AK, String AS, String CK){
+			this(vertx, endPoint, AK, AS, CK, 1800000L, new HttpClientOptions().setSsl(true).setDefaultPort(443), 0L, 0L, HttpCall.Observer.NONE);
+		}
+
+		/**
+		 * @param options HTTP client options, including the port and ssl of the end point (the host is set by the client)
+		 * @param requestTimeout Maximum duration (in ms) of a call, 0 for none
+		 * @param idleTimeout Maximum duration (in ms) without data received during a call, 0 for none
+		 * @param timeSyncObserver Observer of the time synchronization calls
+		 */
+		public OVHClient(Vertx vertx, String endPoint, String AK, String AS, String CK, long timeSyncInterval,
+						 HttpClientOptions options, long requestTimeout, long idleTimeout, HttpCall.Observer timeSyncObserver){
+			this.vertx = vertx;
 			this.AK = AK;
-			this.AS = AS;
 			this.CK = CK;
 			this.endPoint = endPoint;
-			HttpClientOptions options = new HttpClientOptions()
-					.setDefaultHost(endPoint).setSsl(true).setDefaultPort(443);
+			this.requestTimeout = requestTimeout;
+			this.idleTimeout = idleTimeout;
+			options.setDefaultHost(endPoint);
 			this.httpclient = vertx.createHttpClient(options);
+			this.signer = new OVHRequestSigner(AS, CK);
+			this.timeSync = new OVHTimeSync(this, API_VERSION, timeSyncInterval, timeSyncObserver);
+		}
+
+		/**
+		 * Sends an unsigned request, within the client timeouts.
+		 * @param options Request options, the uri includes the API version
+		 * @return The response, with its body fully read
+		 */
+		Future<Response> call(final RequestOptions options, final Buffer body, final Cancellation cancellation, final HttpCall.Observer observer){
+			if(idleTimeout > 0){
+				options.setTimeout(idleTimeout);
+			}
+			return HttpCall.execute(vertx, httpclient, options, body, requestTimeout, cancellation, observer);
 		}
 		
-		private void getOvhTime(final Handler<Long> handler){
-			httpclient.request(new RequestOptions().setMethod(HttpMethod.GET).setURI("/" + API_VERSION + "/auth/time"))
-					.flatMap(HttpClientRequest::send)
-					.onSuccess(response -> {
-						if(response.statusCode() == 200){
-							response.bodyHandler(new Handler<Buffer>() {
-								public void handle(Buffer body) {
-									handler.handle(Long.parseLong(body.getString(0, body.length())));
-								}
-							});
-						} else {
-							handler.handle(new Date().getTime() / 1000l);
-						}
-					});
+		private Future<Response> request(final String httpMethod, final String basepath, final JsonObject params, final Cancellation cancellation, final HttpCall.Observer observer, final boolean resync){
+			return timeSync.now().compose(timestamp -> {
+				final String uri = buildUri(httpMethod, basepath, params);
+				final Buffer body = buildBody(httpMethod, params);
+				
+				//Fill headers
+				HeadersMultiMap headers = new HeadersMultiMap();
+				headers.add("Content-Type", "application/json");
+				//OVH specific fields
+				headers.add("X-Ovh-Application", AK);
+				headers.add("X-Ovh-Consumer", CK);
+				headers.add("X-Ovh-Timestamp", Long.toString(timestamp));
+				headers.add("X-Ovh-Signature", signer.sign(httpMethod, "https://" + endPoint + uri, body, timestamp));
+				if(body != null && body.length() > 0){
+					headers.add("Content-Length", Integer.toString(body.length()));
+				}
+				
+				final RequestOptions options = new RequestOptions()
+						.setMethod(HttpMethod.valueOf(httpMethod))
+						.setURI(uri)
+						.setHeaders(headers);
+				return call(options, body != null && body.length() > 0 ? body : null, cancellation, observer);
+			}).compose(response -> {
+				// OVH rejects the requests whose timestamp is too far from its own clock
+				if(resync && response.statusCode() == 400 && response.body().toString("UTF-8").contains("QUERY_TIME_OUT")){
+					logger.warn("[OVH] Request rejected for its timestamp, synchronizing time again.");
+					timeSync.invalidate();
+					return request(httpMethod, basepath, params, cancellation, observer, false);
+				}
+				return Future.succeededFuture(response);
+			});
 		}
 		
-		private void request(final String httpMethod, final String basepath, final JsonObject params, final Handler<HttpClientResponse> handler){
-			
-			//First time - retrieving ovh timestamp and adjusting to the server time.
-			if(timeDiff == null){
-				this.getOvhTime(new Handler<Long>() {
-					public void handle(Long ovhTime) {
-						long serverTime = Math.round(new Date().getTime() / 1000l);
-						timeDiff = ovhTime - serverTime;
-						request(httpMethod, basepath, params, handler);
-					}
-				});
-				return;
-			}
-			
+		/**
+		 * @return The uri of the request : the API version, the path and the parameters of GET and DELETE requests
+		 */
+		static String buildUri(final String httpMethod, final String basepath, final JsonObject params){
 			//Prepend API version
-			final String path = "/" + API_VERSION + basepath;
+			final StringBuilder fullPath = new StringBuilder(basepath.length() + 16).append('/').append(API_VERSION).append(basepath);
 			
 			//Append query parameters
-			StringBuilder query = new StringBuilder();
-			String fullPath = path;
 			switch(httpMethod){
 				case "GET":
 				case "DELETE":
-					for(Entry<String, Object> entry : params.getMap().entrySet()){
-						if(query.length() == 0){
-							query.append("?");
-						} else {
-							query.append("&");
-						}
-						query.append(entry.getKey()).append("=").append(entry.getValue());
+					char separator = '?';
+					for(Entry<String, Object> entry : params){
+						fullPath.append(separator).append(entry.getKey()).append('=').append(entry.getValue());
+						separator = '&';
 					}
-					fullPath += query.toString();
 					break;
 				default:
 			}
-			
-			//Create body
-			StringBuilder body = new StringBuilder();
+			return fullPath.toString();
+		}
+		
+		/**
+		 * @return The body of the request : the parameters of POST and PUT requests, {@code null} otherwise
+		 */
+		static Buffer buildBody(final String httpMethod, final JsonObject params){
 			switch(httpMethod){
 				case "POST":
 				case "PUT":
-					body.append(params.toString());
-					break;
+					return params.toBuffer();
 				default:
-			}
-			
-			String timestamp = Long.toString(Math.round(new Date().getTime() / 1000l) + timeDiff);
-			
-			//Fill headers
-			HeadersMultiMap headers = new HeadersMultiMap();
-			headers.add("Content-Type", "application/json");
-			//OVH specific fields
-			headers.add("X-Ovh-Application", AK);
-			headers.add("X-Ovh-Consumer", CK);
-			headers.add("X-Ovh-Timestamp", Long.toString(Math.round(new Date().getTime() / 1000l) + timeDiff));
-			try{
-				headers.add("X-Ovh-Signature", getRequestSignature(AS, CK, httpMethod, "https://"+endPoint+fullPath, body.toString(), timestamp));
-			} catch(NoSuchAlgorithmException e){
-				//TODO - better error logging.
-				e.printStackTrace();
-			}
-
-			//Fill body
-			Buffer bodyBuffer = Buffer.buffer();
-			if(body.length() > 0){
-				bodyBuffer.appendString(body.toString(), "UTF-8");
-				headers.add("Content-Length", Integer.toString(bodyBuffer.length()));
-				httpclient.request(new RequestOptions()
-								.setMethod(HttpMethod.valueOf(httpMethod))
-								.setURI(fullPath)
-								.setHeaders(headers))
-						.flatMap(request -> request.send(bodyBuffer));
-			} else {
-				httpclient.request(new RequestOptions()
-								.setMethod(HttpMethod.valueOf(httpMethod))
-								.setURI(fullPath)
-								.setHeaders(headers))
-						.flatMap(HttpClientRequest::send);
+					return null;
 			}
 		}
 		
-		public void get(final String path, final JsonObject params, final Handler<HttpClientResponse> handler){
-			request("GET", path, params, handler);
+		public Future<Response> get(final String path, final JsonObject params){
+			return get(path, params, new Cancellation(), HttpCall.Observer.NONE);
+		}
+		public Future<Response> get(final String path, final JsonObject params, final Cancellation cancellation, final HttpCall.Observer observer){
+			return request("GET", path, params, cancellation, observer, true);
 		}
-		public void post(final String path, final JsonObject params, final Handler<HttpClientResponse> handler){
-			request("POST", path, params, handler);
+		public Future<Response> post(final String path, final JsonObject params, final Cancellation cancellation, final HttpCall.Observer observer){
+			return request("POST", path, params, cancellation, observer, true);
 		}
-		public void put(final String path, final JsonObject params, final Handler<HttpClientResponse> handler){
-			request("PUT", path, params, handler);
+		public Future<Response> put(final String path, final JsonObject params, final Cancellation cancellation, final HttpCall.Observer observer){
+			return request("PUT", path, params, cancellation, observer, true);
 		}
-		public void delete(final String path, final JsonObject params, final Handler<HttpClientResponse> handler){
-			request("DELETE", path, params, handler);
+		public Future<Response> delete(final String path, final JsonObject params, final Cancellation cancellation, final HttpCall.Observer observer){
+			return request("DELETE", path, params, cancellation, observer, true);
 		}
 		
 	}
@@ -0,0 +1,95 @@
+package fr.wseduc.smsproxy.providers.ovh;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the {@code X-Ovh-Signature} header : {@code "$1$" + SHA1_HEX(AS+"+"+CK+"+"+METHOD+"+"+QUERY+"+"+BODY+"+"+TSTAMP)}.
+ * <p>
+ * The digest and the buffers are reused per thread, the parts of the pre-image are fed to the digest one after the
+ * other (the body straight from its buffer) instead of being concatenated.
+ * </p>
+ */
+public class OVHRequestSigner {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final byte SEPARATOR = '+';
+    private static final ThreadLocal<State> STATES = ThreadLocal.withInitial(State::new);
+
+    /** "AS+CK+" */
+    private final byte[] secretPrefix;
+
+    public OVHRequestSigner(final String applicationSecret, final String consumerKey) {
+        this.secretPrefix = (applicationSecret + "+" + consumerKey + "+").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param method HTTP method
+     * @param url Full url of the request, query string included
+     * @param body Body of the request, {@code null} if there is none
+     * @param timestamp OVH timestamp (in seconds) sent in the {@code X-Ovh-Timestamp} header
+     * @return The signature
+     */
+    public String sign(final String method, final String url, final Buffer body, final long timestamp) {
+        final State state = STATES.get();
+        final MessageDigest digest = state.digest;
+        digest.reset();
+        digest.update(secretPrefix);
+        state.update(method);
+        digest.update(SEPARATOR);
+        state.update(url);
+        digest.update(SEPARATOR);
+        if (body != null && body.length() > 0) {
+            digest.update(body.getByteBuf().nioBuffer());
+        }
+        digest.update(SEPARATOR);
+        state.update(Long.toString(timestamp));
+        return state.hex(digest.digest());
+    }
+
+    private static class State {
+        private final MessageDigest digest;
+        private final char[] signature = new char[43];
+        private byte[] scratch = new byte[256];
+
+        private State() {
+            try {
+                digest = MessageDigest.getInstance("SHA1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("ovh.signature.sha1.unavailable", e);
+            }
+            signature[0] = '$';
+            signature[1] = '1';
+            signature[2] = '$';
+        }
+
+        /**
+         * Feeds the digest with the UTF-8 bytes of {@code value}, without allocation for ASCII values.
+         */
+        private void update(final String value) {
+            final int length = value.length();
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                final char c = value.charAt(i);
+                if (c >= 0x80) {
+                    digest.update(value.getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                scratch[i] = (byte) c;
+            }
+            digest.update(scratch, 0, length);
+        }
+
+        private String hex(final byte[] hash) {
+            for (int i = 0; i < hash.length; i++) {
+                signature[3 + 2 * i] = HEX[(hash[i] >> 4) & 0xf];
+                signature[4 + 2 * i] = HEX[hash[i] & 0xf];
+            }
+            return new String(signature, 0, 3 + 2 * hash.length);
+        }
+    }
+}
@@ -16,32 +16,44 @@
 
 package fr.wseduc.smsproxy.providers.ovh;
 
-import fr.wseduc.smsproxy.providers.metrics.SmsMetricsRecorder;
-import fr.wseduc.smsproxy.providers.metrics.SmsMetricsRecorderFactory;
+import fr.wseduc.smsproxy.providers.cache.CachedValue;
 import io.vertx.core.Future;
-import io.vertx.core.Promise;
 import io.vertx.core.json.DecodeException;
-import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.buffer.Buffer;
-import io.vertx.core.eventbus.Message;
-import io.vertx.core.http.HttpClientResponse;
-import io.vertx.core.json.Json;
-import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 import fr.wseduc.smsproxy.providers.ovh.OVHHelper.OVHClient;
 import fr.wseduc.smsproxy.providers.ovh.OVHHelper.OVH_ENDPOINT;
+import fr.wseduc.smsproxy.providers.Cancellation;
+import fr.wseduc.smsproxy.providers.HttpClientConfig;
+import fr.wseduc.smsproxy.providers.SmsJson;
 import fr.wseduc.smsproxy.providers.SmsProvider;
+import fr.wseduc.smsproxy.providers.SmsRequest;
+import fr.wseduc.smsproxy.providers.SmsSendingException;
 import fr.wseduc.sms.SmsSendingReport;
-import static java.lang.System.currentTimeMillis;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.function.DoubleConsumer;
+
+import static java.lang.System.nanoTime;
 
 public class OVHSmsProvider extends SmsProvider{
 
 	private OVHClient ovhRestClient;
 	private String AK, AS, CK, endPoint;
+	/**
+	 * Name of the OVH sms service, looked up once and then refreshed in the background.
+	 */
+	private CachedValue<String> smsService;
+	/**
+	 * URL OVH calls with the delivery receipts, none by default.
+	 */
+	private String dlrCallbackUrl;
 
 	@Override
 	protected void doInitProvider(Vertx vertx, JsonObject config) {
@@ -49,120 +61,156 @@ public class OVHSmsProvider extends SmsProvider{
 		this.AS = config.getString("applicationSecret", "");
 		this.CK = config.getString("consumerKey", "");
 		this.endPoint = config.getString("ovhEndPoint", OVH_ENDPOINT.ovh_eu.getValue());
+		this.dlrCallbackUrl = config.getString("dlrCallbackUrl");
+
+		ovhRestClient = new OVHClient(vertx, endPoint, AK, AS, CK, config.getLong("timeSyncIntervalMs", 1800000L),
+				HttpClientConfig.apply(new HttpClientOptions(), config.getJsonObject("http"), getName())
+						.setSsl(config.getBoolean("ovhSsl", true))
+						.setDefaultPort(config.getInteger("ovhPort", 443)),
+				requestTimeout, idleTimeout, observe("auth.time", null));
 
-		ovhRestClient = new OVHClient(vertx, endPoint, AK, AS, CK);
+		final String serviceName = config.getString("smsServiceName");
+		if (serviceName != null && !serviceName.isEmpty()) {
+			smsService = new CachedValue<>(() -> Future.succeededFuture(serviceName), Long.MAX_VALUE, 0L);
+		} else {
+			smsService = new CachedValue<>(this::loadSmsService,
+					config.getLong("smsServiceCacheTtl", 3600000L),
+					config.getLong("smsServiceRefreshAhead", 300000L));
+		}
 	}
 
-	private void retrieveSmsService(final Message<JsonObject> message, final Handler<String> callBack){
-		ovhRestClient.get("/sms/", new JsonObject(), response -> {
-			logger.debug("[OVH][retrieveSmsService] /sms/ call returned : "+response);
-			if(response == null){
-				logger.error("[OVH][retrieveSmsService] /sms/ call response is null.");
-				sendError(message, ErrorCodes.CALL_ERROR, null);
-			} else {
-				response.bodyHandler(body -> {
-					if (response.statusCode() == 200) {
-						logger.debug("[OVH][retrieveSmsService] Ok with body : " + body);
-						JsonArray smsServices = new JsonArray(body.toString(StandardCharsets.UTF_8));
-						callBack.handle(smsServices.getString(0));
-					} else {
-						logger.error("[OVH][retrieveSmsService] /sms/ reponse code [" + response.statusCode() + "] : " + body.toString(StandardCharsets.UTF_8));
-						sendError(message, ErrorCodes.CALL_ERROR, null);
-					}
-				});
+	private Future<String> loadSmsService(){
+		return ovhRestClient.get("/sms/", new JsonObject(), new Cancellation(), observe("sms.services", null)).compose(response -> {
+			if (response.statusCode() != 200) {
+				logger.error("[OVH][retrieveSmsService] /sms/ reponse code [" + response.statusCode() + "] : " + response.body().toString(StandardCharsets.UTF_8));
+				return Future.failedFuture(ErrorCodes.CALL_ERROR.getCode());
+			}
+			final String[] smsServices;
+			try (JsonParser parser = SmsJson.parser(response.body())) {
+				parser.nextToken();
+				smsServices = SmsJson.readStrings(parser);
+			} catch (IOException | DecodeException e) {
+				logger.error("[OVH][retrieveSmsService] Could not decode /sms/ response : " + response.body().toString(StandardCharsets.UTF_8), e);
+				return Future.failedFuture(ErrorCodes.CALL_ERROR.getCode());
 			}
+			if (smsServices.length == 0) {
+				logger.error("[OVH][retrieveSmsService] No sms service available on this account.");
+				return Future.failedFuture(ErrorCodes.CALL_ERROR.getCode());
+			}
+			return Future.succeededFuture(smsServices[0]);
 		});
 	}
 
 	@Override
-	public Future<Void> doSendSms(final Message<JsonObject> message) {
-		final Promise<Void> promise = Promise.promise();
-		final JsonObject parameters = message.body().getJsonObject("parameters");
-		logger.debug("[OVH][sendSms] Called with parameters : "+parameters);
-		final Handler<HttpClientResponse> resultHandler = response -> {
-			if(response == null){
-				sendError(message, ErrorCodes.CALL_ERROR, null);
-			} else {
-				response.bodyHandler(body -> {
+	public Future<SmsSendingReport> doSendSms(final SmsRequest request) {
+		// The OVH only fields are added to a copy : the parameters are shared with the other parts of the request, its
+		// retries and the journal
+		final JsonObject body = request.getParameters().copy();
+		if (!body.containsKey("tag")) {
+			// Identifies the request (and its retries) in the OVH outgoing sms list
+			body.put("tag", request.getIdempotencyKey());
+		}
+		if (dlrCallbackUrl != null && !body.containsKey("callBack")) {
+			body.put("callBack", dlrCallbackUrl);
+		}
+		logger.debug("[OVH][sendSms] Called with parameters : "+body);
+		final long lookupStart = nanoTime();
+		return smsService.get()
+				.recover(e -> Future.failedFuture(SmsSendingException.notSent(e)))
+				.compose(service -> {
+					recordPhase("service.lookup", lookupStart);
+					final long postStart = nanoTime();
+					return ovhRestClient.post("/sms/"+service+"/jobs/", body, request.getCancellation(),
+							observe("sms.jobs", request.getTraceId()))
+							.onComplete(ar -> recordPhase("job.post", postStart));
+				})
+				.compose(response -> {
+					final int status = response.statusCode();
+					if(status == 403 || status == 404){
+						// The cached service is not valid anymore (deleted, moved to another account...)
+						smsService.invalidate();
+						logger.error("[OVH][sendSms] jobs reponse code [" + status + "] : " + response.body().toString(StandardCharsets.UTF_8));
+						return Future.failedFuture(new SmsSendingException(ErrorCodes.CALL_ERROR));
+					} else if(status < 200 || status >= 300){
+						// Error bodies ({"message":..}) must not be read as a report without valid receivers
+						logger.error("[OVH][sendSms] jobs reponse code [" + status + "] : " + response.body().toString(StandardCharsets.UTF_8));
+						return Future.failedFuture(SmsSendingException.forStatus(status));
+					}
 					try {
-						final OVHSmsSendingReport ovhSmsSendingReport = Json.decodeValue(body, OVHSmsSendingReport.class);
-						logger.debug("[OVH][sendSms] " + ovhSmsSendingReport.getTotalCreditsRemoved() + " credits have been removed");
-						if (ovhSmsSendingReport.getValidReceivers().length == 0) {
-							sendError(message, ErrorCodes.INVALID_RECEIVERS_ALL, null, toSmsReport(ovhSmsSendingReport));
-							promise.fail(ErrorCodes.INVALID_RECEIVERS_ALL.getCode());
-						} else if (ovhSmsSendingReport.getInvalidReceivers().length > 0) {
-							sendError(message, ErrorCodes.INVALID_RECEIVERS_PARTIAL, null, toSmsReport(ovhSmsSendingReport));
-							promise.fail(ErrorCodes.INVALID_RECEIVERS_PARTIAL.getCode());
-						} else {
-							replyOk(message, toSmsReport(ovhSmsSendingReport));
-							promise.complete();
-						}
-					} catch (DecodeException e) {
-						logger.error("[OVH][sendSms] Could not decode OVHSmsSendingReport : " + body.toString(), e);
-						sendError(message, ErrorCodes.CALL_ERROR, e);
-						promise.fail(ErrorCodes.CALL_ERROR.getCode());
+						return Future.succeededFuture(decodeJobs(response.body(), this::recordCreditsConsumed));
+					} catch (IOException | DecodeException e) {
+						logger.error("[OVH][sendSms] Could not decode jobs response : " + response.body().toString(StandardCharsets.UTF_8), e);
+						return Future.failedFuture(new SmsSendingException(ErrorCodes.CALL_ERROR, e));
 					}
 				});
-			}
-		};
-
-		Handler<String> serviceCallback = service -> {
-			if(service == null){
-				sendError(message, ErrorCodes.CALL_ERROR, null);
-				promise.fail(ErrorCodes.CALL_ERROR.getCode());
-			} else {
-				ovhRestClient.post("/sms/"+service+"/jobs/", parameters, resultHandler);
-			}
-		};
-		retrieveSmsService(message, serviceCallback);
-		return promise.future();
 	}
 
-	private SmsSendingReport toSmsReport(OVHSmsSendingReport ovhSmsSendingReport) {
-		final String[] ids;
-		final long[] ovhIds = ovhSmsSendingReport.getIds();
-		if(ovhIds == null) {
-			ids = null;
-		} else {
-			ids = new String[ovhIds.length];
-			for (int i = 0; i < ovhIds.length; i++) {
-				ids[i] = String.valueOf(ovhIds[i]);
+	/**
+	 * Reads the response of a jobs call.
+	 * @param body Response body : {"ids":[..],"invalidReceivers":[..],"totalCreditsRemoved":..,"validReceivers":[..]}
+	 * @param creditsRemoved Called with the number of credits spent by the call
+	 * @return The sending report
+	 * @throws DecodeException If the body is not a jobs response, e.g. an error ({"message":..})
+	 */
+	static SmsSendingReport decodeJobs(final Buffer body, final DoubleConsumer creditsRemoved) throws IOException {
+		String[] ids = null, invalidReceivers = null, validReceivers = null;
+		double credits = 0d;
+		try (JsonParser parser = SmsJson.parser(body)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new DecodeException("Expected an object");
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				final String field = parser.getCurrentName();
+				parser.nextToken();
+				switch (field) {
+					case "ids":
+						ids = SmsJson.readStrings(parser);
+						break;
+					case "invalidReceivers":
+						invalidReceivers = SmsJson.readStrings(parser);
+						break;
+					case "validReceivers":
+						validReceivers = SmsJson.readStrings(parser);
+						break;
+					case "totalCreditsRemoved":
+						credits = parser.getValueAsDouble();
+						break;
+					default:
+						parser.skipChildren();
+				}
 			}
 		}
+		if (ids == null && validReceivers == null && invalidReceivers == null) {
+			throw new DecodeException("Not a jobs response");
+		}
+		creditsRemoved.accept(credits);
 		return new SmsSendingReport(
-				ids,
-				ovhSmsSendingReport.getInvalidReceivers(),
-				ovhSmsSendingReport.getValidReceivers()
-		);
+				ids == null ? new String[0] : ids,
+				invalidReceivers == null ? new String[0] : invalidReceivers,
+				validReceivers == null ? new String[0] : validReceivers);
 	}
 
 	@Override
-	public void getInfo(final Message<JsonObject> message) {
-		final JsonObject parameters = message.body().getJsonObject("parameters");
+	protected Future<JsonObject> doGetInfo(final JsonObject parameters) {
 		logger.debug("[OVH][getInfo] Called with parameters : "+parameters);
 
-		retrieveSmsService(message, new Handler<String>() {
-			public void handle(String service) {
-				if(service == null){
-					sendError(message, ErrorCodes.CALL_ERROR, null);
-				} else {
-					ovhRestClient.get("/sms/"+service, parameters, new Handler<HttpClientResponse>() {
-						public void handle(HttpClientResponse response) {
-							if(response == null){
-								sendError(message, ErrorCodes.CALL_ERROR, null);
-								return;
-							}
-							response.bodyHandler(new Handler<Buffer>(){
-								public void handle(Buffer body) {
-									final JsonObject response = new JsonObject(body.toString());
-									message.reply(response);
-								}
-							});
-						}
-					});
-				}
-			}
-		});
+		return smsService.get()
+				.compose(service -> ovhRestClient.get("/sms/"+service, parameters, new Cancellation(), observe("sms.info", null)))
+				.compose(response -> {
+					if (response.statusCode() != 200) {
+						logger.error("[OVH][getInfo] reponse code [" + response.statusCode() + "] : " + response.body().toString(StandardCharsets.UTF_8));
+						return Future.failedFuture(SmsSendingException.forStatus(response.statusCode()));
+					}
+					return Future.succeededFuture(new JsonObject(response.body()));
+				});
+	}
+
+	/**
+	 * The sms service information holds the credits left as {@code creditsLeft}.
+	 */
+	@Override
+	protected String getCreditsField() {
+		return "creditsLeft";
 	}
 
 }
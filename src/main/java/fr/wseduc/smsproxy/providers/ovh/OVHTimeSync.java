@@ -0,0 +1,69 @@
+package fr.wseduc.smsproxy.providers.ovh;
+
+import fr.wseduc.smsproxy.providers.Cancellation;
+import fr.wseduc.smsproxy.providers.HttpCall;
+import fr.wseduc.smsproxy.providers.cache.CachedValue;
+import io.vertx.core.Future;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+/**
+ * Keeps the offset (in seconds) between the local clock and the OVH API clock, used to timestamp the signed requests.
+ * <p>
+ * The offset is fetched from {@code /auth/time} once for all the concurrent requests, refreshed in the background every
+ * {@code interval} milliseconds while requests are sent, and fetched again when OVH rejects a request timestamp.
+ * </p>
+ */
+public class OVHTimeSync {
+    private static final Logger logger = LoggerFactory.getLogger(OVHTimeSync.class);
+    private final OVHHelper.OVHClient client;
+    private final String apiVersion;
+    private final CachedValue<Long> offset;
+    private final HttpCall.Observer observer;
+
+    public OVHTimeSync(final OVHHelper.OVHClient client, final String apiVersion, final long interval,
+                       final HttpCall.Observer observer) {
+        this.client = client;
+        this.observer = observer;
+        this.apiVersion = apiVersion;
+        this.offset = new CachedValue<>(this::fetchOffset, interval, Math.min(60000L, interval / 10));
+    }
+
+    /**
+     * @return The current OVH time, in seconds. If OVH cannot be reached, the last known offset (or none) is used.
+     */
+    public Future<Long> now() {
+        return offset.get()
+                .otherwise(e -> {
+                    final Long last = offset.peek();
+                    return last == null ? 0L : last;
+                })
+                .map(diff -> System.currentTimeMillis() / 1000L + diff);
+    }
+
+    /**
+     * Forces a new synchronization at the next request.
+     */
+    public void invalidate() {
+        offset.invalidate();
+    }
+
+    private Future<Long> fetchOffset() {
+        return client.call(new RequestOptions().setMethod(HttpMethod.GET).setURI("/" + apiVersion + "/auth/time"), null, new Cancellation(), observer)
+                .compose(response -> {
+                    if (response.statusCode() != 200) {
+                        logger.error("[OVH][time] /auth/time reponse code [" + response.statusCode() + "]");
+                        return Future.failedFuture("ovh.time.unavailable");
+                    }
+                    try {
+                        final long ovhTime = Long.parseLong(response.body().toString("UTF-8").trim());
+                        return Future.succeededFuture(ovhTime - System.currentTimeMillis() / 1000L);
+                    } catch (NumberFormatException e) {
+                        return Future.failedFuture(e);
+                    }
+                })
+                .onFailure(e -> logger.error("[OVH][time] Could not retrieve OVH time.", e));
+    }
+}
@@ -1,21 +1,32 @@
 package fr.wseduc.smsproxy.providers.sinch;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.Cancellation;
+import fr.wseduc.smsproxy.providers.HttpCall;
+import fr.wseduc.smsproxy.providers.HttpClientConfig;
+import fr.wseduc.smsproxy.providers.SmsBulk;
+import fr.wseduc.smsproxy.providers.SmsJson;
 import fr.wseduc.smsproxy.providers.SmsProvider;
+import fr.wseduc.smsproxy.providers.SmsRequest;
+import fr.wseduc.smsproxy.providers.SmsSendingException;
 import io.vertx.core.Future;
-import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
-import io.vertx.core.eventbus.Message;
 import io.vertx.core.http.HttpClient;
-import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.RequestOptions;
 import io.vertx.core.http.impl.headers.HeadersMultiMap;
 import io.vertx.core.json.DecodeException;
-import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Implementation of Sms Provider using Sinch API
  */
@@ -41,6 +52,10 @@ public class SinchSmsProvider extends SmsProvider {
      * Client reference, not mandatory to call Sinch api, but can be useful to transmit parametrized information about the client
      */
     private String clientReference;
+    /**
+     * URL Sinch posts the delivery reports to, none by default
+     */
+    private String dlrCallbackUrl;
 
     @Override
     public void doInitProvider(Vertx vertx, JsonObject conf) {
@@ -48,13 +63,72 @@ public class SinchSmsProvider extends SmsProvider {
         this.apiEndpoint = conf.getString("baseUrl", "") + "/" + conf.getString("servicePlanId", "") + "/batches";
         this.senderId = conf.getString("senderId", "");
         this.clientReference = conf.getString("clientReference", "");
-        this.httpClient = vertx.createHttpClient();
+        this.dlrCallbackUrl = conf.getString("dlrCallbackUrl");
+        this.httpClient = vertx.createHttpClient(HttpClientConfig.apply(new HttpClientOptions(), conf.getJsonObject("http"), getName()));
+    }
+
+    /**
+     * Sinch rejects batches with more than 1000 recipients.
+     */
+    @Override
+    protected int getDefaultMaxBatchSize() {
+        return 1000;
     }
 
+    /**
+     * Entries sharing their text are sent together, as for the other providers. The texts of a single entry are packed
+     * into parameterized batches : their body is a {@code ${text}} placeholder, replaced with the text of each recipient,
+     * so that many personalized messages are sent in one call. A batch holds at most {@link #getMaxBatchSize()}
+     * recipients, as the calls split by the chunker, and a recipient at most once.
+     */
     @Override
-    public Future<Void> doSendSms(Message<JsonObject> message) {
-        final Promise<Void> promise = Promise.promise();
-        final JsonObject parameters = message.body().getJsonObject("parameters");
+    protected List<SmsBulk.Group> groupBulk(List<JsonObject> entries) {
+        final int maxBatchSize = getMaxBatchSize() > 0 ? getMaxBatchSize() : Integer.MAX_VALUE;
+        final List<SmsBulk.Group> groups = new ArrayList<>();
+        SmsBulk.Group batch = null;
+        JsonObject texts = null;
+        for (SmsBulk.Group group : SmsBulk.byText(entries)) {
+            final JsonObject parameters = group.getParameters();
+            final JsonArray receivers = parameters.getJsonArray("receivers");
+            if (group.getEntries().size() > 1 || receivers.isEmpty() || receivers.size() > maxBatchSize ||
+                    parameters.containsKey("templateParameters") || !(parameters.getValue("message") instanceof String)) {
+                groups.add(group);
+                continue;
+            }
+            if (batch == null || batchReceivers(batch).size() + receivers.size() > maxBatchSize ||
+                    containsAny(texts, receivers)) {
+                texts = new JsonObject();
+                batch = new SmsBulk.Group(new JsonObject()
+                        .put("receivers", new JsonArray())
+                        .put("message", "${text}")
+                        .put("templateParameters", new JsonObject().put("text", texts)));
+                groups.add(batch);
+            }
+            for (Object receiver : receivers) {
+                batchReceivers(batch).add(receiver);
+                texts.put((String) receiver, parameters.getString("message"));
+            }
+            batch.add(group.getEntries().get(0));
+        }
+        return groups;
+    }
+
+    private static JsonArray batchReceivers(SmsBulk.Group batch) {
+        return batch.getParameters().getJsonArray("receivers");
+    }
+
+    private static boolean containsAny(JsonObject texts, JsonArray receivers) {
+        for (Object receiver : receivers) {
+            if (texts.containsKey((String) receiver)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Future<SmsSendingReport> doSendSms(SmsRequest request) {
+        final JsonObject parameters = request.getParameters();
         logger.debug("[Sinch][sendSms] Called with parameters : " + parameters);
 
         HeadersMultiMap headers = new HeadersMultiMap();
@@ -65,71 +139,89 @@ public class SinchSmsProvider extends SmsProvider {
         JsonObject body = new JsonObject()
                 .put("to", parameters.getJsonArray("receivers"))
                 .put("body", parameters.getValue("message"))
-                .put("client_reference", clientReference);
+                .put("client_reference", clientReference.isEmpty() ? request.getIdempotencyKey() : clientReference + "-" + request.getIdempotencyKey());
         if (!senderId.isEmpty()) {
             body.put("from", senderId);
         }
-        Buffer bodyBuffer = Buffer.buffer();
-        bodyBuffer.appendString(body.toString(), "UTF-8");
+        final JsonObject templateParameters = parameters.getJsonObject("templateParameters");
+        if (templateParameters != null) {
+            body.put("parameters", templateParameters);
+        }
+        if (dlrCallbackUrl != null) {
+            body.put("delivery_report", "per_recipient").put("callback_url", dlrCallbackUrl);
+        }
+        Buffer bodyBuffer = body.toBuffer();
         headers.add("Content-Length", Integer.toString(bodyBuffer.length()));
 
-        httpClient.request(new RequestOptions()
-                        .setMethod(HttpMethod.POST)
-                        .setAbsoluteURI(apiEndpoint)
-                        .setHeaders(headers))
-                .flatMap(request -> request.send(bodyBuffer))
-                .onSuccess(response -> {
-                    if (response == null) {
-                        sendError(message, ErrorCodes.CALL_ERROR, null);
-	                    promise.fail(ErrorCodes.CALL_ERROR.getCode());
-                    } else if (response.statusCode() != 201) {
-                        sendError(message, ErrorCodes.CALL_ERROR, null);
-                        response.bodyHandler(responseBody -> logger.error("[Sinch][sendSms] Error with status code : " + response.statusCode() + " when calling sinch API : " + responseBody.toString()));
-	                    promise.fail(ErrorCodes.CALL_ERROR.getCode());
-                    } else {
-                        response.bodyHandler(responseBody -> {
-                            try {
-                                final SinchSmsSendingReport sinchSmsSendingReport = Json.decodeValue(responseBody, SinchSmsSendingReport.class);
-                                replyOk(message, toSmsReport(sinchSmsSendingReport));
-                                logger.debug("[Sinch][sendSms] body : " + responseBody);
-	                            promise.complete();
-                            } catch (DecodeException e) {
-                                logger.error("[Sinch][sendSms] Could not decode SinchSmsSendingReport : " + responseBody.toString(), e);
-                                sendError(message, ErrorCodes.CALL_ERROR, e);
-	                            promise.fail(ErrorCodes.CALL_ERROR.getCode());
-                            }
-                        });
+        return HttpCall.execute(vertx, httpClient, requestOptions(HttpMethod.POST, headers), bodyBuffer, requestTimeout, request.getCancellation(),
+                        observe("batches", request.getTraceId()))
+                .compose(response -> {
+                    if (response.statusCode() != 201) {
+                        logger.error("[Sinch][sendSms] Error with status code : " + response.statusCode() + " when calling sinch API : " + response.body().toString());
+                        return Future.failedFuture(SmsSendingException.forStatus(response.statusCode()));
+                    }
+                    try {
+                        return Future.succeededFuture(decodeBatch(response.body()));
+                    } catch (IOException | DecodeException e) {
+                        logger.error("[Sinch][sendSms] Could not decode batch response : " + response.body().toString(), e);
+                        return Future.failedFuture(new SmsSendingException(ErrorCodes.CALL_ERROR, e));
                     }
                 });
-		return promise.future();
+    }
+
+    private RequestOptions requestOptions(HttpMethod method, HeadersMultiMap headers) {
+        final RequestOptions options = new RequestOptions()
+                .setMethod(method)
+                .setAbsoluteURI(apiEndpoint)
+                .setHeaders(headers);
+        if (idleTimeout > 0) {
+            options.setTimeout(idleTimeout);
+        }
+        return options;
     }
 
     /**
-     * Method mapping specific Sinch sms sending report toward generic sms sending report
-     * @param sinchSmsSendingReport the report received after sending sms through Sinch API
-     * @return the generic sms sending report
+     * Reads the batch created by Sinch into a generic sms sending report
+     * @param body the response received after sending sms through Sinch API
+     * @return the generic sms sending report, the batch id being its only id
+     * @throws DecodeException if the body is not a batch, e.g. an error ({"code":..,"text":..})
      */
-    private SmsSendingReport toSmsReport(SinchSmsSendingReport sinchSmsSendingReport) {
-        return new SmsSendingReport(
-                new String[]{sinchSmsSendingReport.getId()},
-                new String[]{},
-                sinchSmsSendingReport.getTo());
+    static SmsSendingReport decodeBatch(Buffer body) throws IOException {
+        String id = null;
+        String[] to = null;
+        try (JsonParser parser = SmsJson.parser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new DecodeException("Expected an object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("id".equals(field)) {
+                    id = parser.getValueAsString();
+                } else if ("to".equals(field)) {
+                    to = SmsJson.readStrings(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        if (id == null) {
+            throw new DecodeException("Not a batch");
+        }
+        return new SmsSendingReport(new String[]{id}, new String[]{}, to == null ? new String[0] : to);
     }
 
     @Override
-    public void getInfo(Message<JsonObject> message) {
+    protected Future<JsonObject> doGetInfo(JsonObject parameters) {
         logger.debug("[Sinch][getInfo]");
-        httpClient.request(new RequestOptions()
-                        .setMethod(HttpMethod.POST)
-                        .setAbsoluteURI(apiEndpoint)
-                        .setHeaders(new HeadersMultiMap().add("Authorization", "Bearer " + apiToken)))
-                .flatMap(HttpClientRequest::send)
-                .onSuccess(response -> {
-                    if (response == null) {
-                        sendError(message, ErrorCodes.CALL_ERROR, null);
-                    } else {
-                        response.bodyHandler(body -> message.reply(new JsonObject(body.toString())));
+        return HttpCall.execute(vertx, httpClient, requestOptions(HttpMethod.POST, new HeadersMultiMap().add("Authorization", "Bearer " + apiToken)),
+                        null, requestTimeout, new Cancellation(), observe("info", null))
+                .compose(response -> {
+                    if (response.statusCode() >= 300) {
+                        logger.error("[Sinch][getInfo] Error with status code : " + response.statusCode() + " when calling sinch API : " + response.body().toString());
+                        return Future.failedFuture(SmsSendingException.forStatus(response.statusCode()));
                     }
+                    return Future.succeededFuture(new JsonObject(response.body()));
                 });
     }
 }
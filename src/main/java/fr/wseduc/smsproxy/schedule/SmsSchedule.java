@@ -0,0 +1,107 @@
+package fr.wseduc.smsproxy.schedule;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Requests held until their sending time.
+ * <p>
+ * Requests are held in a {@link TimerWheel} and, once due, released at most {@code releasePerSecond} per second, so
+ * that requests scheduled at the same time do not all reach the providers at once. A request can also give a window
+ * after its sending time, its release time being then picked at random within the window.
+ * </p>
+ * <p>
+ * Configuration (the {@code schedule} object of the module) :
+ * <ul>
+ *     <li>tickMs : precision (in ms) of the release times, defaults to 100</li>
+ *     <li>wheelSize : number of slots of the wheel, defaults to 1024</li>
+ *     <li>releasePerSecond : defaults to 50</li>
+ *     <li>maxScheduled : maximum number of held requests, defaults to 100000</li>
+ * </ul>
+ * The rate and the maximum are those of the whole module : each of the {@code instances} verticle instances holds and
+ * releases its share of them.
+ * </p>
+ */
+public class SmsSchedule {
+    private final Vertx vertx;
+    private final long tick;
+    private final double releasePerTick;
+    private final int maxScheduled;
+    private final Handler<JsonObject> release;
+    private final TimerWheel<JsonObject> wheel;
+    private final Deque<JsonObject> due = new ArrayDeque<>();
+    private final List<JsonObject> expired = new ArrayList<>();
+    private double budget;
+    private long timerId = -1L;
+
+    /**
+     * @param release Called with each request once it is released
+     */
+    public SmsSchedule(final Vertx vertx, final JsonObject conf, final int instances, final Handler<JsonObject> release) {
+        this.vertx = vertx;
+        this.tick = Math.max(1L, conf.getLong("tickMs", 100L));
+        final int share = Math.max(1, instances);
+        this.releasePerTick = conf.getDouble("releasePerSecond", 50d) / share * tick / 1000d;
+        this.maxScheduled = Math.max(1, conf.getInteger("maxScheduled", 100000) / share);
+        this.release = release;
+        this.wheel = new TimerWheel<>(tick, conf.getInteger("wheelSize", 1024), System.currentTimeMillis());
+    }
+
+    /**
+     * @param sendAt Time (epoch ms) from which a request can be sent
+     * @param window Duration (in ms) after {@code sendAt} within which it must be sent, 0 for none
+     * @return The time to release it at
+     */
+    public static long releaseTime(final long sendAt, final long window) {
+        return window > 0 ? sendAt + ThreadLocalRandom.current().nextLong(window) : sendAt;
+    }
+
+    /**
+     * @param request Request to hold
+     * @param releaseAt Time (epoch ms) to release it at, see {@link #releaseTime(long, long)}
+     */
+    public void schedule(final JsonObject request, final long releaseAt) {
+        wheel.add(request, releaseAt);
+        if (timerId < 0) {
+            timerId = vertx.setPeriodic(tick, id -> tick());
+        }
+    }
+
+    /**
+     * @return Whether {@code maxScheduled} requests are already held
+     */
+    public boolean isFull() {
+        return size() >= maxScheduled;
+    }
+
+    /**
+     * @return The number of requests held or waiting to be released
+     */
+    public int size() {
+        return wheel.size() + due.size();
+    }
+
+    private void tick() {
+        wheel.advance(System.currentTimeMillis(), expired);
+        due.addAll(expired);
+        expired.clear();
+        // Unused release budget is not saved up beyond a tick, to keep the rate smooth
+        budget = Math.min(budget + releasePerTick, Math.max(1d, releasePerTick));
+        while (budget >= 1d && !due.isEmpty()) {
+            budget--;
+            release.handle(due.pollFirst());
+        }
+        if (wheel.size() == 0 && due.isEmpty()) {
+            vertx.cancelTimer(timerId);
+            timerId = -1L;
+            budget = 0d;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package fr.wseduc.smsproxy.schedule;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Hashed timer wheel : values are put in the slot of their due tick (modulo the number of slots), so that adding a
+ * value and expiring those of a tick do not depend on the number of values held. Values due more than a turn of the
+ * wheel later stay in their slot until the turn they are due.
+ * <p>
+ * Not thread safe.
+ * </p>
+ * @param <T> Type of the values
+ */
+public class TimerWheel<T> {
+    private final long tick;
+    private final int mask;
+    private final List<List<Entry<T>>> slots;
+    /** Next tick to expire */
+    private long cursor;
+    private int size;
+
+    /**
+     * @param tick Duration (in ms) of a tick
+     * @param wheelSize Number of slots, rounded up to a power of 2
+     * @param now Current time (epoch ms)
+     */
+    public TimerWheel(final long tick, final int wheelSize, final long now) {
+        this.tick = Math.max(1L, tick);
+        final int slotCount = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.mask = slotCount - 1;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayList<>());
+        }
+        this.cursor = now / this.tick;
+    }
+
+    /**
+     * @param value Value to hold
+     * @param due Time (epoch ms) at which the value expires, values already due expiring at the next tick
+     */
+    public void add(final T value, final long due) {
+        final long dueTick = Math.max(due / tick, cursor);
+        slots.get((int) (dueTick & mask)).add(new Entry<>(value, dueTick));
+        size++;
+    }
+
+    /**
+     * Expires the values due up to {@code now}.
+     * @param now Current time (epoch ms)
+     * @param expired List the expired values are added to, in the order they were due
+     */
+    public void advance(final long now, final List<T> expired) {
+        final long nowTick = now / tick;
+        if (size == 0) {
+            cursor = Math.max(cursor, nowTick + 1);
+            return;
+        }
+        for (; cursor <= nowTick && size > 0; cursor++) {
+            final Iterator<Entry<T>> it = slots.get((int) (cursor & mask)).iterator();
+            while (it.hasNext()) {
+                final Entry<T> entry = it.next();
+                if (entry.dueTick <= cursor) {
+                    it.remove();
+                    size--;
+                    expired.add(entry.value);
+                }
+            }
+        }
+        cursor = Math.max(cursor, nowTick + 1);
+    }
+
+    /**
+     * @return The number of values held
+     */
+    public int size() {
+        return size;
+    }
+
+    private static class Entry<T> {
+        private final T value;
+        private final long dueTick;
+
+        private Entry(final T value, final long dueTick) {
+            this.value = value;
+            this.dueTick = dueTick;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package fr.wseduc.smsproxy.dlr;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeliveryIndexTest {
+    private final DeliveryIndex index = new DeliveryIndex();
+
+    @Test
+    public void keepsOneStatusPerReceiver() {
+        index.sent("Sinch", "batch", 100L);
+        index.apply(new DeliveryReceipt("Sinch", "batch", "+33600000001", DeliveryStatus.DELIVERED, 200L), 210L);
+        index.apply(new DeliveryReceipt("Sinch", "batch", "+33600000002", DeliveryStatus.FAILED, 300L), 310L);
+        final int head = index.find("batch");
+        assertEquals("+33600000001", index.receiver(head));
+        assertEquals(DeliveryStatus.DELIVERED, index.status(head));
+        final int next = index.next(head);
+        assertEquals("+33600000002", index.receiver(next));
+        assertEquals(DeliveryStatus.FAILED, index.status(next));
+        assertEquals(100L, index.sentAt(next));
+        assertEquals("Sinch", index.provider(next));
+        assertEquals(-1, index.next(next));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void ignoresOlderAndPostTerminalReceipts() {
+        index.apply(new DeliveryReceipt("OVH", "1", null, DeliveryStatus.ACCEPTED, 200L), 200L);
+        assertEquals(-1, index.apply(new DeliveryReceipt("OVH", "1", null, DeliveryStatus.PENDING, 100L), 210L));
+        index.apply(new DeliveryReceipt("OVH", "1", null, DeliveryStatus.DELIVERED, 300L), 310L);
+        assertEquals(-1, index.apply(new DeliveryReceipt("OVH", "1", null, DeliveryStatus.FAILED, 400L), 410L));
+        assertEquals(DeliveryStatus.DELIVERED, index.status(index.find("1")));
+    }
+
+    @Test
+    public void setsTheSendingTimeOfEarlyReceipts() {
+        index.apply(new DeliveryReceipt("OVH", "1", "+33600000001", DeliveryStatus.DELIVERED, 200L), 200L);
+        index.sent("OVH-secondary", "1", 150L);
+        final int slot = index.find("1");
+        assertEquals(150L, index.sentAt(slot));
+        assertEquals("OVH-secondary", index.provider(slot));
+        assertEquals(DeliveryStatus.DELIVERED, index.status(slot));
+    }
+
+    @Test
+    public void evictsTheOldestMessagesFirst() {
+        index.sent("OVH", "1", 100L);
+        index.sent("Sinch", "2", 200L);
+        index.apply(new DeliveryReceipt("Sinch", "2", "+33600000001", DeliveryStatus.DELIVERED, 250L), 250L);
+        index.apply(new DeliveryReceipt("Sinch", "2", "+33600000002", DeliveryStatus.FAILED, 260L), 260L);
+        index.sent("OVH", "3", 300L);
+        index.sent("OVH", "4", 400L);
+
+        final List<String> overflow = new ArrayList<>();
+        index.evict(100L, 1, overflow);
+        assertEquals(-1, index.find("1"));
+        assertEquals(-1, index.find("2"));
+        assertEquals(-1, index.find("3"));
+        assertTrue(index.find("4") >= 0);
+        assertEquals(new HashSet<>(Arrays.asList(
+                "2\tSinch\t+33600000001\tdelivered\t200\t250",
+                "2\tSinch\t+33600000002\tfailed\t200\t260",
+                "3\tOVH\t\tsent\t300\t300")), new HashSet<>(overflow));
+        assertEquals(3, overflow.size());
+    }
+
+    @Test
+    public void keepsTheStatusesWhenGrowing() {
+        for (int i = 0; i < 10000; i++) {
+            index.sent("Sinch", "batch-" + i, i);
+            index.apply(new DeliveryReceipt("Sinch", "batch-" + i, "+33600000001", DeliveryStatus.DELIVERED, i), i);
+            index.apply(new DeliveryReceipt("Sinch", "batch-" + i, "+33600000002", DeliveryStatus.FAILED, i), i);
+            index.evict(i - 5000L, 3000, null);
+        }
+        assertEquals(3000, index.size());
+        assertEquals(-1, index.find("batch-6999"));
+        for (int i = 7000; i < 10000; i++) {
+            final int head = index.find("batch-" + i);
+            assertEquals(DeliveryStatus.DELIVERED, index.status(head));
+            assertEquals(DeliveryStatus.FAILED, index.status(index.next(head)));
+            assertEquals(i, index.sentAt(index.next(head)));
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package fr.wseduc.smsproxy.journal;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OutboundJournalTest {
+    private static final String PROVIDER = "OVH";
+    // Accepted records are much larger than completed ones, so that the test can tell which segment each one goes to
+    private static final JsonObject PARAMETERS = new JsonObject().put("message", String.join("", Collections.nCopies(200, "x")));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private Vertx vertx;
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        directory = folder.newFolder();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        await(vertx.close());
+    }
+
+    @Test
+    public void recoversThePendingRequests() throws Exception {
+        final OutboundJournal journal = open(0L);
+        await(journal.accepted("a", PROVIDER, PARAMETERS));
+        await(journal.accepted("b", PROVIDER, PARAMETERS));
+        await(journal.completed("a", "ok"));
+        journal.close();
+
+        assertEquals(Arrays.asList("b"), ids(open(0L).getRecovered()));
+    }
+
+    @Test
+    public void recoveredRequestsAreJournaledAgain() throws Exception {
+        OutboundJournal journal = open(0L);
+        await(journal.accepted("a", PROVIDER, PARAMETERS));
+        await(journal.accepted("b", PROVIDER, PARAMETERS, 1234L, "bulk"));
+        journal.close();
+
+        journal = open(0L);
+        final List<JsonObject> recovered = journal.getRecovered();
+        assertEquals(Arrays.asList("a", "b"), ids(recovered));
+        assertEquals(1234L, (long) recovered.get(1).getLong("sendAt"));
+        assertEquals("bulk", recovered.get(1).getString("priority"));
+        assertNull(recovered.get(0).getString("priority"));
+        await(journal.completed("a", "ok"));
+        journal.close();
+
+        journal = open(0L);
+        assertEquals(Arrays.asList("b"), ids(journal.getRecovered()));
+        journal.close();
+        assertEquals(1, segments().length);
+    }
+
+    @Test
+    public void keepsTheCompletionsOfRequestsAcceptedInOlderSegments() throws Exception {
+        // Segment 0 : accepted a, accepted b
+        // Segment 1 : accepted c, completed b
+        // Segment 2 : accepted d, completed c (segment 1 has no pending request left)
+        final OutboundJournal journal = open(2L * acceptedSize("a"));
+        await(journal.accepted("a", PROVIDER, PARAMETERS));
+        await(journal.accepted("b", PROVIDER, PARAMETERS));
+        await(journal.accepted("c", PROVIDER, PARAMETERS));
+        await(journal.completed("b", "ok"));
+        await(journal.accepted("d", PROVIDER, PARAMETERS));
+        await(journal.completed("c", "ok"));
+        // Segment 1 holds the completion of b : it cannot go while segment 0 is kept for a
+        assertEquals(3, segments().length);
+        journal.close();
+
+        assertEquals(Arrays.asList("a", "d"), ids(open(0L).getRecovered()));
+    }
+
+    @Test
+    public void deletesTheSegmentsOnceTheirRequestsAndTheOlderOnesAreCompleted() throws Exception {
+        final OutboundJournal journal = open(2L * acceptedSize("a"));
+        await(journal.accepted("a", PROVIDER, PARAMETERS));
+        await(journal.accepted("b", PROVIDER, PARAMETERS));
+        await(journal.accepted("c", PROVIDER, PARAMETERS));
+        await(journal.completed("c", "ok"));
+        await(journal.completed("b", "ok"));
+        await(journal.accepted("d", PROVIDER, PARAMETERS));
+        assertEquals(3, segments().length);
+
+        await(journal.completed("a", "ok"));
+        // Segments 0 and 1 are done, segment 2 is the current one
+        assertEquals(1, segments().length);
+        journal.close();
+
+        assertEquals(Arrays.asList("d"), ids(open(0L).getRecovered()));
+    }
+
+    @Test
+    public void deletesASegmentWhoseRequestsCompletedBeforeItsRotation() throws Exception {
+        final OutboundJournal journal = open(2L * acceptedSize("a"));
+        await(journal.accepted("a", PROVIDER, PARAMETERS));
+        await(journal.completed("a", "ok"));
+        await(journal.accepted("b", PROVIDER, PARAMETERS));
+        await(journal.accepted("c", PROVIDER, PARAMETERS));
+        await(journal.completed("b", "ok"));
+        await(journal.completed("c", "ok"));
+        await(journal.accepted("d", PROVIDER, PARAMETERS));
+        assertEquals(1, segments().length);
+        journal.close();
+
+        assertEquals(Arrays.asList("d"), ids(open(0L).getRecovered()));
+    }
+
+    @Test
+    public void compactsTheSegmentOfAScheduledRequest() throws Exception {
+        final OutboundJournal journal = open(2L * acceptedSize("a"));
+        await(journal.accepted("scheduled", PROVIDER, PARAMETERS, 1234L, "bulk"));
+        for (int i = 0; i < 20; i++) {
+            await(journal.accepted("r" + i, PROVIDER, PARAMETERS));
+            await(journal.completed("r" + i, "ok"));
+            // Without compaction, the segment of the scheduled request would keep all the newer ones
+            assertTrue(segments().length <= 4);
+        }
+        journal.close();
+
+        final List<JsonObject> recovered = open(0L).getRecovered();
+        assertEquals(Arrays.asList("scheduled"), ids(recovered));
+        assertEquals(1234L, (long) recovered.get(0).getLong("sendAt"));
+        assertEquals("bulk", recovered.get(0).getString("priority"));
+    }
+
+    @Test
+    public void skipsACorruptedRecordInAnOlderSegment() throws Exception {
+        // Segment 0 : accepted a, accepted b ; segment 1 : accepted c
+        final OutboundJournal journal = open(2L * acceptedSize("a"));
+        await(journal.accepted("a", PROVIDER, PARAMETERS));
+        await(journal.accepted("b", PROVIDER, PARAMETERS));
+        await(journal.accepted("c", PROVIDER, PARAMETERS));
+        journal.close();
+        final File[] segments = segments();
+        Arrays.sort(segments);
+        assertEquals(2, segments.length);
+        // Damages the payload of a
+        corrupt(segments[0], 20);
+
+        assertEquals(Arrays.asList("b", "c"), ids(open(0L).getRecovered()));
+    }
+
+    @Test
+    public void ignoresATornRecordAtTheEndOfTheLastSegment() throws Exception {
+        final OutboundJournal journal = open(0L);
+        await(journal.accepted("a", PROVIDER, PARAMETERS));
+        await(journal.accepted("b", PROVIDER, PARAMETERS));
+        journal.close();
+        final File segment = segments()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 10);
+        }
+
+        assertEquals(Arrays.asList("a"), ids(open(0L).getRecovered()));
+    }
+
+    private static void corrupt(final File file, final long offset) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            final int value = raf.read();
+            raf.seek(offset);
+            raf.write(value ^ 0xFF);
+        }
+    }
+
+    private OutboundJournal open(final long segmentSize) throws Exception {
+        final JsonObject conf = new JsonObject().put("path", directory.getAbsolutePath());
+        if (segmentSize > 0) {
+            conf.put("segmentSize", segmentSize);
+        }
+        return await(OutboundJournal.open(vertx, conf));
+    }
+
+    private File[] segments() {
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(".log"));
+        return files == null ? new File[0] : files;
+    }
+
+    // Size of an accepted record of the tests, header included
+    private static long acceptedSize(final String id) {
+        return 9 + new JsonObject()
+                .put("id", id)
+                .put("provider", PROVIDER)
+                .put("parameters", PARAMETERS)
+                .encode().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static List<String> ids(final List<JsonObject> entries) {
+        final List<String> ids = new ArrayList<>();
+        for (JsonObject entry : entries) {
+            ids.add(entry.getString("id"));
+        }
+        return ids;
+    }
+
+    private static <T> T await(final Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,38 @@
+package fr.wseduc.smsproxy.providers;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class CreditBalanceTest {
+
+    @Test
+    public void isSharedByTheInstancesOfAProvider() {
+        final CreditBalance first = CreditBalance.acquire("credits-shared");
+        final CreditBalance second = CreditBalance.acquire("credits-shared");
+        assertSame(first, second);
+        first.reconcile(10d);
+        second.debit(2d);
+        assertEquals(8d, first.get(), 0d);
+        first.release();
+        second.release();
+    }
+
+    @Test
+    public void isDroppedOnceEveryInstanceReleasedIt() {
+        final CreditBalance first = CreditBalance.acquire("credits-released");
+        final CreditBalance second = CreditBalance.acquire("credits-released");
+        first.reconcile(10d);
+        first.release();
+        // Still used by the second instance
+        assertSame(second, CreditBalance.acquire("credits-released"));
+        second.release();
+        second.release();
+
+        final CreditBalance redeployed = CreditBalance.acquire("credits-released");
+        assertFalse(redeployed.isKnown());
+        redeployed.release();
+    }
+}
@@ -0,0 +1,74 @@
+package fr.wseduc.smsproxy.providers;
+
+import fr.wseduc.webutils.StringValidation;
+import io.vertx.core.json.JsonArray;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ReceiverNormalizerTest {
+    private static final String[] RECEIVERS = {
+            "+33612345678",
+            "+33 6 12 34 56 78",
+            "+33.6.12.34.56.78",
+            "+33-6-12-34-56-78",
+            "+33 (0)6 12 34 56 78",
+            "+1 (555) 123-4567",
+            "+44-20-7946-0958",
+            "0612345678",
+            "06 12 34 56 78",
+            "0033612345678",
+            "+3361234",
+            "+3361234567890123",
+            "33+612345678",
+            "++33612345678",
+            "",
+            "not a number"
+    };
+
+    @Test
+    public void formatsLikeFormatPhone() {
+        final ReceiverNormalizer uncached = new ReceiverNormalizer(0);
+        final ReceiverNormalizer cached = new ReceiverNormalizer(100);
+        for (String receiver : RECEIVERS) {
+            final String expected = StringValidation.formatPhone(receiver);
+            assertEquals(receiver, expected, uncached.normalize(receiver));
+            assertEquals(receiver, expected, cached.normalize(receiver));
+            // From the cache
+            assertEquals(receiver, expected, cached.normalize(receiver));
+        }
+    }
+
+    @Test
+    public void stripsTheSeparatorsOfInternationalNumbers() {
+        assertEquals("+33612345678", ReceiverNormalizer.formatInternational("+33612345678"));
+        assertEquals("+33612345678", ReceiverNormalizer.formatInternational("+33 6 12 34 56 78"));
+        assertEquals("+33612345678", ReceiverNormalizer.formatInternational("+33.6.12.34.56.78"));
+        assertEquals("+442079460958", ReceiverNormalizer.formatInternational("+44-20-7946-0958"));
+    }
+
+    @Test
+    public void leavesTheOtherNumbersToFormatPhone() {
+        assertNull(ReceiverNormalizer.formatInternational("+33 (0)6 12 34 56 78"));
+        assertNull(ReceiverNormalizer.formatInternational("0612345678"));
+        assertNull(ReceiverNormalizer.formatInternational("0033612345678"));
+        assertNull(ReceiverNormalizer.formatInternational("33+612345678"));
+        assertNull(ReceiverNormalizer.formatInternational("++33612345678"));
+        assertNull(ReceiverNormalizer.formatInternational("+3361234"));
+        assertNull(ReceiverNormalizer.formatInternational("+3361234567890123"));
+        assertNull(ReceiverNormalizer.formatInternational(""));
+    }
+
+    @Test
+    public void removesDuplicatesAndNonStringReceivers() {
+        final JsonArray normalized = new ReceiverNormalizer(100).normalize(new JsonArray()
+                .add("+33 6 12 34 56 78")
+                .add(42)
+                .add("+44-20-7946-0958")
+                .add("+33612345678"));
+        assertEquals(new JsonArray()
+                .add(StringValidation.formatPhone("+33 6 12 34 56 78"))
+                .add(StringValidation.formatPhone("+44-20-7946-0958")), normalized);
+    }
+}
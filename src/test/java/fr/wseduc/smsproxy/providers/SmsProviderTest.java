@@ -0,0 +1,102 @@
+package fr.wseduc.smsproxy.providers;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsProvider.ErrorCodes;
+import fr.wseduc.smsproxy.providers.metrics.SmsMetricsRecorderFactory;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SmsProviderTest {
+    private static final String RECEIVER = "+33612345678";
+    private Vertx vertx;
+    private TestSmsProvider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        SmsMetricsRecorderFactory.init(vertx, new JsonObject().put("metricsOptions", new JsonObject().put("enabled", false)))
+                .toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        provider = new TestSmsProvider();
+        provider.initProvider(vertx, "dedup-test", new JsonObject().put("dedup", new JsonObject()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        provider.stop();
+        vertx.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void duplicatesWaitForTheOriginalUntilTheirDeadline() throws Exception {
+        final Future<SmsSendingReport> original = provider.send(parameters(), 0L, null, null);
+        final long start = System.currentTimeMillis();
+        final Future<SmsSendingReport> duplicate = provider.send(parameters(), start + 200L, null, null);
+        try {
+            await(duplicate);
+            fail("The original is still being sent at the deadline of its duplicate");
+        } catch (ExecutionException e) {
+            assertEquals(ErrorCodes.DEADLINE_EXCEEDED, ((SmsSendingException) e.getCause()).getErrorCode());
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000L);
+        assertFalse(original.isComplete());
+        // Only the original was sent to the provider
+        assertEquals(1, provider.calls.size());
+
+        provider.calls.get(0).complete(new SmsSendingReport(new String[]{"1"}, new String[0], new String[]{RECEIVER}));
+        assertEquals(1, await(original).getIds().length);
+    }
+
+    @Test
+    public void duplicatesGetTheOutcomeOfTheOriginalBeforeTheirDeadline() throws Exception {
+        final Future<SmsSendingReport> original = provider.send(parameters(), 0L, null, null);
+        final Future<SmsSendingReport> duplicate = provider.send(parameters(), System.currentTimeMillis() + 10000L, null, null);
+        provider.calls.get(0).complete(new SmsSendingReport(new String[]{"1"}, new String[0], new String[]{RECEIVER}));
+        await(original);
+        // Nothing left to send for the duplicate, which is not an error once the original reached its receiver
+        assertEquals(0, await(duplicate).getIds().length);
+    }
+
+    private static JsonObject parameters() {
+        return new JsonObject().put("receivers", new JsonArray().add(RECEIVER)).put("message", "Hello");
+    }
+
+    private static <T> T await(final Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    private static class TestSmsProvider extends SmsProvider {
+        private final List<Promise<SmsSendingReport>> calls = new CopyOnWriteArrayList<>();
+
+        @Override
+        protected void doInitProvider(final Vertx vertx, final JsonObject conf) {
+        }
+
+        @Override
+        protected Future<SmsSendingReport> doSendSms(final SmsRequest request) {
+            final Promise<SmsSendingReport> call = Promise.promise();
+            calls.add(call);
+            return call.future();
+        }
+
+        @Override
+        protected Future<JsonObject> doGetInfo(final JsonObject parameters) {
+            return Future.succeededFuture(new JsonObject());
+        }
+    }
+}
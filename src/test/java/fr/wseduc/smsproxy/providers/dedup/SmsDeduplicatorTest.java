@@ -0,0 +1,95 @@
+package fr.wseduc.smsproxy.providers.dedup;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SmsDeduplicatorTest {
+    private static final String TEXT = "Hello";
+    private SmsDeduplicator deduplicator;
+
+    @Before
+    public void setUp() {
+        deduplicator = SmsDeduplicator.acquire("test", new JsonObject());
+    }
+
+    @After
+    public void tearDown() {
+        deduplicator.release();
+    }
+
+    @Test
+    public void isSharedUntilTheLastRelease() {
+        final SmsDeduplicator other = SmsDeduplicator.acquire("test", new JsonObject());
+        assertSame(deduplicator, other);
+        other.release();
+        assertSame(deduplicator, SmsDeduplicator.acquire("test", new JsonObject()));
+        deduplicator.release();
+        deduplicator.release();
+
+        final SmsDeduplicator next = SmsDeduplicator.acquire("test", new JsonObject());
+        assertNotSame(deduplicator, next);
+        deduplicator = next;
+    }
+
+    @Test
+    public void suppressesTheReceiversAlreadySent() {
+        final JsonArray kept = filter("+33600000001", "+33600000002");
+        deduplicator.completed(kept, Collections.emptyList(), TEXT);
+
+        final List<String> suppressed = new ArrayList<>();
+        final Map<String, Future<Boolean>> pending = new HashMap<>();
+        final JsonArray again = deduplicator.filter(receivers("+33600000002", "+33600000003"), TEXT, suppressed, pending);
+        assertEquals(receivers("+33600000003"), again);
+        assertEquals(Arrays.asList("+33600000002"), suppressed);
+        assertTrue(pending.isEmpty());
+        assertEquals(receivers("+33600000001"), deduplicator.filter(receivers("+33600000001"), "Other", new ArrayList<>(), pending));
+    }
+
+    @Test
+    public void duplicatesOfARequestInFlightGetItsOutcome() {
+        final JsonArray kept = filter("+33600000001", "+33600000002");
+
+        final List<String> suppressed = new ArrayList<>();
+        final Map<String, Future<Boolean>> pending = new HashMap<>();
+        assertTrue(deduplicator.filter(receivers("+33600000001", "+33600000002"), TEXT, suppressed, pending).isEmpty());
+        assertEquals(Arrays.asList("+33600000001", "+33600000002"), suppressed);
+        assertFalse(pending.get("+33600000001").isComplete());
+
+        deduplicator.completed(kept, Collections.singletonList("+33600000002"), TEXT);
+        assertTrue(pending.get("+33600000001").result());
+        assertFalse(pending.get("+33600000002").result());
+    }
+
+    @Test
+    public void forgetsTheReceiversNotSent() {
+        final JsonArray kept = filter("+33600000001", "+33600000002");
+        deduplicator.completed(kept, Collections.singletonList("+33600000002"), TEXT);
+
+        assertEquals(receivers("+33600000002"), filter("+33600000001", "+33600000002"));
+    }
+
+    private JsonArray filter(final String... receivers) {
+        return deduplicator.filter(receivers(receivers), TEXT, new ArrayList<>(), new HashMap<>());
+    }
+
+    private static JsonArray receivers(final String... receivers) {
+        return new JsonArray(new ArrayList<>(Arrays.asList(receivers)));
+    }
+}
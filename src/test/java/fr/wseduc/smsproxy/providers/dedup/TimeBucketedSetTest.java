@@ -0,0 +1,71 @@
+package fr.wseduc.smsproxy.providers.dedup;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimeBucketedSetTest {
+    private static final long START = 1_000_000L;
+
+    @Test
+    public void addsAHashOnce() {
+        final TimeBucketedSet set = new TimeBucketedSet(300L, 4, 1000, START);
+        assertTrue(set.add(42L, START));
+        assertFalse(set.add(42L, START + 1L));
+        assertTrue(set.add(43L, START + 1L));
+    }
+
+    @Test
+    public void remembersAHashForTheWindowAndAtMostABucketLonger() {
+        // 4 buckets over 300 ms : a table is recycled every 100 ms
+        final TimeBucketedSet set = new TimeBucketedSet(300L, 4, 1000, START);
+        set.add(42L, START);
+        assertFalse(set.add(42L, START + 300L));
+        assertFalse(set.add(42L, START + 399L));
+        assertTrue(set.add(42L, START + 400L));
+    }
+
+    @Test
+    public void forgetsARemovedHash() {
+        final TimeBucketedSet set = new TimeBucketedSet(300L, 4, 1000, START);
+        set.add(42L, START);
+        set.remove(42L);
+        assertTrue(set.add(42L, START));
+        assertFalse(set.add(42L, START));
+    }
+
+    @Test
+    public void keepsTheReservedValuesApart() {
+        final TimeBucketedSet set = new TimeBucketedSet(300L, 4, 1000, START);
+        assertTrue(set.add(0L, START));
+        assertTrue(set.add(1L, START));
+        assertFalse(set.add(0L, START));
+        assertFalse(set.add(1L, START));
+    }
+
+    @Test
+    public void forgetsEverythingAfterALongIdlePeriod() {
+        final TimeBucketedSet set = new TimeBucketedSet(300L, 4, 1000, START);
+        set.add(42L, START);
+        assertTrue(set.add(42L, START + 10_050L));
+        // The rotations go on from the current time
+        assertFalse(set.add(42L, START + 10_300L));
+        assertTrue(set.add(42L, START + 10_500L));
+    }
+
+    @Test
+    public void stopsRememberingOnceTheTableIsFull() {
+        // 12 entries per window over 3 buckets : 16 slots per table, 12 of them usable
+        final TimeBucketedSet set = new TimeBucketedSet(300L, 4, 12, START);
+        for (long hash = 100L; hash < 112L; hash++) {
+            assertTrue(set.add(hash, START));
+        }
+        assertTrue(set.add(112L, START));
+        assertTrue(set.add(112L, START));
+        assertFalse(set.add(100L, START));
+        // The next table takes the new hashes
+        assertTrue(set.add(112L, START + 100L));
+        assertFalse(set.add(112L, START + 100L));
+    }
+}
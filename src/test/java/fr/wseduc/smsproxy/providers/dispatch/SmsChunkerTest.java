@@ -0,0 +1,122 @@
+package fr.wseduc.smsproxy.providers.dispatch;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsProvider.ErrorCodes;
+import fr.wseduc.smsproxy.providers.SmsRequest;
+import fr.wseduc.smsproxy.providers.SmsSendingException;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SmsChunkerTest {
+    private final List<SmsRequest> calls = new CopyOnWriteArrayList<>();
+    private final List<Promise<SmsSendingReport>> results = new CopyOnWriteArrayList<>();
+    private final SmsSender next = request -> {
+        calls.add(request);
+        final Promise<SmsSendingReport> result = Promise.promise();
+        results.add(result);
+        return result.future();
+    };
+
+    @Test
+    public void sendsSmallRequestsAsTheyAre() {
+        final SmsRequest request = request(3);
+        new SmsChunker(next, 3, 2).send(request);
+        assertEquals(1, calls.size());
+        assertSame(request, calls.get(0));
+    }
+
+    @Test
+    public void splitsTheReceiversAndMergesTheReports() {
+        final SmsRequest request = request(5);
+        final Future<SmsSendingReport> result = new SmsChunker(next, 2, 4).send(request);
+        assertEquals(3, calls.size());
+        assertEquals(receivers(0, 2), calls.get(0).getReceivers());
+        assertEquals(receivers(2, 4), calls.get(1).getReceivers());
+        assertEquals(receivers(4, 5), calls.get(2).getReceivers());
+        for (SmsRequest call : calls) {
+            // The chunks are attempts of the same request
+            assertEquals(request.getIdempotencyKey(), call.getIdempotencyKey());
+            assertSame(request.getCancellation(), call.getCancellation());
+        }
+
+        for (int i = 0; i < calls.size(); i++) {
+            results.get(i).complete(accepted(calls.get(i)));
+        }
+        assertTrue(result.succeeded());
+        assertArrayEquals(toArray(receivers(0, 5)), result.result().getValidReceivers());
+        assertEquals(5, result.result().getIds().length);
+        assertEquals(0, result.result().getInvalidReceivers().length);
+    }
+
+    @Test
+    public void limitsTheCallsRunningAtTheSameTime() {
+        new SmsChunker(next, 1, 2).send(request(4));
+        assertEquals(2, calls.size());
+        results.get(0).complete(accepted(calls.get(0)));
+        assertEquals(3, calls.size());
+        results.get(1).complete(accepted(calls.get(1)));
+        results.get(2).complete(accepted(calls.get(2)));
+        assertEquals(4, calls.size());
+    }
+
+    @Test
+    public void reportsTheReceiversOfAFailedCallAsInvalid() {
+        final Future<SmsSendingReport> result = new SmsChunker(next, 2, 4).send(request(4));
+        results.get(0).complete(accepted(calls.get(0)));
+        results.get(1).fail(new SmsSendingException(ErrorCodes.CALL_ERROR));
+        assertTrue(result.succeeded());
+        assertArrayEquals(toArray(receivers(0, 2)), result.result().getValidReceivers());
+        assertArrayEquals(toArray(receivers(2, 4)), result.result().getInvalidReceivers());
+    }
+
+    @Test
+    public void failsOnlyIfEveryCallFailed() {
+        final Future<SmsSendingReport> result = new SmsChunker(next, 2, 4).send(request(4));
+        results.get(0).fail(new SmsSendingException(ErrorCodes.CALL_ERROR));
+        final SmsSendingException last = new SmsSendingException(ErrorCodes.TIMEOUT);
+        results.get(1).fail(last);
+        assertTrue(result.failed());
+        assertSame(last, result.cause());
+    }
+
+    private static SmsRequest request(final int receivers) {
+        return new SmsRequest(new JsonObject().put("receivers", receivers(0, receivers)).put("message", "Hello"));
+    }
+
+    private static JsonArray receivers(final int from, final int to) {
+        final JsonArray receivers = new JsonArray();
+        for (int i = from; i < to; i++) {
+            receivers.add("+3360000000" + i);
+        }
+        return receivers;
+    }
+
+    private static SmsSendingReport accepted(final SmsRequest call) {
+        final String[] receivers = toArray(call.getReceivers());
+        final String[] ids = new String[receivers.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "id-" + receivers[i];
+        }
+        return new SmsSendingReport(ids, new String[0], receivers);
+    }
+
+    private static String[] toArray(final JsonArray values) {
+        final List<String> list = new ArrayList<>();
+        for (Object value : values) {
+            list.add((String) value);
+        }
+        return list.toArray(new String[0]);
+    }
+}
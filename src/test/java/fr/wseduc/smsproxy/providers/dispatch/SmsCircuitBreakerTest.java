@@ -0,0 +1,114 @@
+package fr.wseduc.smsproxy.providers.dispatch;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsProvider.ErrorCodes;
+import fr.wseduc.smsproxy.providers.SmsRequest;
+import fr.wseduc.smsproxy.providers.SmsSendingException;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SmsCircuitBreakerTest {
+    private static final SmsSendingReport REPORT = new SmsSendingReport(
+            new String[]{"1"}, new String[0], new String[]{"+33600000001"});
+
+    private final AtomicReference<Future<SmsSendingReport>> outcome = new AtomicReference<>();
+    private final SmsCircuitBreaker breaker = new SmsCircuitBreaker(request -> outcome.get(), "OVH", new JsonObject()
+            .put("windowSize", 10)
+            .put("minimumCalls", 4)
+            .put("failureRateThreshold", 0.5d)
+            .put("slowCallMs", 60000L)
+            .put("openMs", 60000L)
+            .put("halfOpenCalls", 2));
+
+    @Test
+    public void opensAfterCallErrors() {
+        sendFailing(ErrorCodes.CALL_ERROR, 4);
+        assertFalse(breaker.isCallPermitted());
+        assertEquals(ErrorCodes.CIRCUIT_OPEN, errorOf(send()));
+    }
+
+    @Test
+    public void opensAfterTimeouts() {
+        sendFailing(ErrorCodes.TIMEOUT, 4);
+        assertFalse(breaker.isCallPermitted());
+    }
+
+    @Test
+    public void opensAfterUnexpectedFailures() {
+        outcome.set(Future.failedFuture(new IllegalStateException()));
+        for (int i = 0; i < 4; i++) {
+            send();
+        }
+        assertFalse(breaker.isCallPermitted());
+    }
+
+    @Test
+    public void ignoresFailuresThatDoNotComeFromTheProvider() {
+        sendFailing(ErrorCodes.DEADLINE_EXCEEDED, 10);
+        sendFailing(ErrorCodes.QUEUE_FULL, 10);
+        sendFailing(ErrorCodes.CIRCUIT_OPEN, 10);
+        sendFailing(ErrorCodes.INVALID_RECEIVERS_ALL, 10);
+        assertTrue(breaker.isCallPermitted());
+    }
+
+    @Test
+    public void staysClosedBelowTheFailureRate() {
+        outcome.set(Future.succeededFuture(REPORT));
+        for (int i = 0; i < 6; i++) {
+            send();
+        }
+        sendFailing(ErrorCodes.CALL_ERROR, 4);
+        assertTrue(breaker.isCallPermitted());
+        sendFailing(ErrorCodes.CALL_ERROR, 1);
+        assertFalse(breaker.isCallPermitted());
+    }
+
+    @Test
+    public void closesAfterSuccessfulProbes() {
+        final SmsCircuitBreaker quick = new SmsCircuitBreaker(request -> outcome.get(), "OVH", new JsonObject()
+                .put("minimumCalls", 2)
+                .put("openMs", 0L)
+                .put("halfOpenCalls", 2));
+        outcome.set(Future.failedFuture(new SmsSendingException(ErrorCodes.TIMEOUT)));
+        send(quick);
+        send(quick);
+
+        outcome.set(Future.succeededFuture(REPORT));
+        assertTrue(send(quick).succeeded());
+        assertTrue(send(quick).succeeded());
+        // Closed again, with an empty window : a single failure does not open it
+        outcome.set(Future.failedFuture(new SmsSendingException(ErrorCodes.CALL_ERROR)));
+        send(quick);
+        outcome.set(Future.succeededFuture(REPORT));
+        assertTrue(send(quick).succeeded());
+    }
+
+    private void sendFailing(final ErrorCodes code, final int calls) {
+        outcome.set(Future.failedFuture(new SmsSendingException(code)));
+        for (int i = 0; i < calls; i++) {
+            send();
+        }
+    }
+
+    private Future<SmsSendingReport> send() {
+        return send(breaker);
+    }
+
+    private static Future<SmsSendingReport> send(final SmsCircuitBreaker breaker) {
+        return breaker.send(new SmsRequest(new JsonObject()
+                .put("receivers", new JsonArray().add("+33600000001"))
+                .put("message", "Hello")));
+    }
+
+    private static ErrorCodes errorOf(final Future<SmsSendingReport> result) {
+        return ((SmsSendingException) result.cause()).getErrorCode();
+    }
+}
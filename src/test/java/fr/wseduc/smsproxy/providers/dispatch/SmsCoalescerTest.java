@@ -0,0 +1,149 @@
+package fr.wseduc.smsproxy.providers.dispatch;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsRequest;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SmsCoalescerTest {
+    private final List<SmsRequest> sent = new CopyOnWriteArrayList<>();
+    private Vertx vertx;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        vertx.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void splitsTheIdsGivenPerReceiver() throws Exception {
+        // As OVH : one id per valid receiver, in the same order
+        final SmsCoalescer coalescer = coalescer(request -> {
+            final String[] receivers = receivers(request);
+            final String[] ids = new String[receivers.length];
+            for (int i = 0; i < receivers.length; i++) {
+                ids[i] = "id" + receivers[i];
+            }
+            return Future.succeededFuture(new SmsSendingReport(ids, new String[0], receivers));
+        });
+        final Future<SmsSendingReport> first = coalescer.send(request("+33600000001", "+33600000002"));
+        final Future<SmsSendingReport> second = coalescer.send(request("+33600000003"));
+
+        final SmsSendingReport firstReport = await(first);
+        final SmsSendingReport secondReport = await(second);
+        assertEquals(1, sent.size());
+        assertArrayEquals(new String[] {"+33600000001", "+33600000002", "+33600000003"}, receivers(sent.get(0)));
+        assertArrayEquals(new String[] {"id+33600000001", "id+33600000002"}, firstReport.getIds());
+        assertArrayEquals(new String[] {"+33600000001", "+33600000002"}, firstReport.getValidReceivers());
+        assertArrayEquals(new String[] {"id+33600000003"}, secondReport.getIds());
+        assertArrayEquals(new String[] {"+33600000003"}, secondReport.getValidReceivers());
+    }
+
+    @Test
+    public void sharesASingleBatchId() throws Exception {
+        // As Sinch : one id for the whole batch
+        final SmsCoalescer coalescer = coalescer(request -> Future.succeededFuture(
+                new SmsSendingReport(new String[] {"batch"}, new String[] {"+33600000002"}, new String[] {"+33600000001", "+33600000003"})));
+        final Future<SmsSendingReport> first = coalescer.send(request("+33600000001", "+33600000002"));
+        final Future<SmsSendingReport> second = coalescer.send(request("+33600000003"));
+
+        final SmsSendingReport firstReport = await(first);
+        assertArrayEquals(new String[] {"batch"}, firstReport.getIds());
+        assertArrayEquals(new String[] {"+33600000001"}, firstReport.getValidReceivers());
+        assertArrayEquals(new String[] {"+33600000002"}, firstReport.getInvalidReceivers());
+        final SmsSendingReport secondReport = await(second);
+        assertArrayEquals(new String[] {"batch"}, secondReport.getIds());
+        assertArrayEquals(new String[] {"+33600000003"}, secondReport.getValidReceivers());
+        assertArrayEquals(new String[0], secondReport.getInvalidReceivers());
+    }
+
+    @Test
+    public void givesTheMergedRequestTheLatestDeadline() throws Exception {
+        final SmsCoalescer coalescer = coalescer(request -> Future.succeededFuture(
+                new SmsSendingReport(new String[0], new String[0], receivers(request))));
+        final long now = System.currentTimeMillis();
+        final Future<SmsSendingReport> first = coalescer.send(request(now + 5000L, "+33600000001"));
+        final Future<SmsSendingReport> second = coalescer.send(request(now + 9000L, "+33600000002"));
+        await(first);
+        await(second);
+        assertEquals(now + 9000L, sent.get(0).getDeadline());
+
+        final Future<SmsSendingReport> third = coalescer.send(request(now + 5000L, "+33600000001"));
+        final Future<SmsSendingReport> fourth = coalescer.send(request(0L, "+33600000002"));
+        await(third);
+        await(fourth);
+        assertEquals(0L, sent.get(1).getDeadline());
+    }
+
+    @Test
+    public void cancelsTheMergedRequestOnceAllTheCallersCancelled() throws Exception {
+        final Promise<SmsSendingReport> result = Promise.promise();
+        final SmsCoalescer coalescer = coalescer(request -> result.future());
+        final SmsRequest first = request("+33600000001");
+        final SmsRequest second = request("+33600000002");
+        coalescer.send(first);
+        coalescer.send(second);
+        final long start = System.currentTimeMillis();
+        while (sent.isEmpty() && System.currentTimeMillis() - start < 10000L) {
+            Thread.sleep(5L);
+        }
+        final SmsRequest merged = sent.get(0);
+
+        first.getCancellation().cancel(new Exception("first"));
+        assertFalse(merged.getCancellation().isCancelled());
+        second.getCancellation().cancel(new Exception("second"));
+        assertTrue(merged.getCancellation().isCancelled());
+    }
+
+    private SmsCoalescer coalescer(final Function<SmsRequest, Future<SmsSendingReport>> provider) {
+        return new SmsCoalescer(vertx, request -> {
+            sent.add(request);
+            return provider.apply(request);
+        }, new JsonObject().put("windowMs", 50L));
+    }
+
+    private static SmsRequest request(final String... receivers) {
+        return request(0L, receivers);
+    }
+
+    private static SmsRequest request(final long deadline, final String... receivers) {
+        final JsonArray array = new JsonArray();
+        for (String receiver : receivers) {
+            array.add(receiver);
+        }
+        return new SmsRequest(new JsonObject().put("message", "Hello").put("receivers", array), deadline, null);
+    }
+
+    private static String[] receivers(final SmsRequest request) {
+        final JsonArray receivers = request.getReceivers();
+        final String[] values = new String[receivers.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = receivers.getString(i);
+        }
+        return values;
+    }
+
+    private static <T> T await(final Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+}
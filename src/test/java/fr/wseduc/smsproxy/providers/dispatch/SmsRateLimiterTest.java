@@ -0,0 +1,108 @@
+package fr.wseduc.smsproxy.providers.dispatch;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsProvider.ErrorCodes;
+import fr.wseduc.smsproxy.providers.SmsRequest;
+import fr.wseduc.smsproxy.providers.SmsSendingException;
+import fr.wseduc.smsproxy.providers.metrics.SmsMetricsRecorder;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SmsRateLimiterTest {
+    private static final SmsSendingReport REPORT = new SmsSendingReport(new String[0], new String[0], new String[0]);
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private Vertx vertx;
+    private SmsRateLimiter limiter;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+        // One call every 500ms
+        limiter = new SmsRateLimiter(vertx, request -> {
+            sent.add(request.getMessage());
+            return Future.succeededFuture(REPORT);
+        }, "OVH", new SmsMetricsRecorder.NoopSmsMetricsRecorder(), new JsonObject()
+                .put("requestsPerSecond", 2d)
+                .put("burstSeconds", 0.5d), SmsScheduler.isInteractive(null), 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        vertx.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void interactiveRequestsGoBeforeTheWaitingBulkOnes() throws Exception {
+        await(limiter.send(request("a", "bulk")));
+        final Future<SmsSendingReport> bulk = limiter.send(request("b", "bulk"));
+        final Future<SmsSendingReport> interactive = limiter.send(request("c", "interactive"));
+        assertEquals(2, limiter.getQueueSize());
+
+        await(interactive);
+        assertEquals(Arrays.asList("a", "c"), sent);
+        await(bulk);
+        assertEquals(Arrays.asList("a", "c", "b"), sent);
+    }
+
+    @Test
+    public void cancelledRequestsLeaveTheQueueWithoutSpendingTokens() throws Exception {
+        await(limiter.send(request("a", "bulk")));
+        final SmsRequest cancelled = request("b", "bulk");
+        final Future<SmsSendingReport> cancelledResult = limiter.send(cancelled);
+        final Future<SmsSendingReport> next = limiter.send(request("c", "bulk"));
+
+        cancelled.getCancellation().cancel(new SmsSendingException(ErrorCodes.DEADLINE_EXCEEDED));
+        assertTrue(cancelledResult.failed());
+        assertEquals(1, limiter.getQueueSize());
+
+        final long start = System.nanoTime();
+        await(next);
+        // c takes the token b would have spent
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 900L);
+        assertEquals(Arrays.asList("a", "c"), sent);
+    }
+
+    @Test
+    public void rejectsRequestsOnceTheQueueOfTheirLaneIsFull() throws Exception {
+        final SmsRateLimiter small = new SmsRateLimiter(vertx, request -> Future.succeededFuture(REPORT), "OVH",
+                new SmsMetricsRecorder.NoopSmsMetricsRecorder(), new JsonObject()
+                .put("requestsPerSecond", 1d)
+                .put("maxQueueSize", 1), SmsScheduler.isInteractive(null), 1);
+        await(small.send(request("a", "bulk")));
+        small.send(request("b", "bulk"));
+        try {
+            await(small.send(request("c", "bulk")));
+            fail("The bulk queue is full");
+        } catch (ExecutionException e) {
+            assertEquals(ErrorCodes.QUEUE_FULL, ((SmsSendingException) e.getCause()).getErrorCode());
+        }
+        // The interactive queue is still empty
+        small.send(request("d", "interactive"));
+        assertEquals(2, small.getQueueSize());
+    }
+
+    private static SmsRequest request(final String message, final String priority) {
+        return new SmsRequest(new JsonObject()
+                .put("receivers", new JsonArray().add("+33600000001"))
+                .put("message", message), 0L, null, priority);
+    }
+
+    private static <T> T await(final Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,145 @@
+package fr.wseduc.smsproxy.providers.dispatch;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsProvider.ErrorCodes;
+import fr.wseduc.smsproxy.providers.SmsRequest;
+import fr.wseduc.smsproxy.providers.SmsSendingException;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class SmsRetrierTest {
+    private static final SmsSendingReport REPORT = new SmsSendingReport(new String[]{"1"}, new String[0], new String[]{"+33600000001"});
+    private final List<SmsRequest> calls = new CopyOnWriteArrayList<>();
+    private Vertx vertx;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        vertx.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void retriesRetryableFailures() throws Exception {
+        final AtomicInteger failures = new AtomicInteger(2);
+        final SmsRetrier retrier = retrier(request -> {
+            calls.add(request);
+            return failures.getAndDecrement() > 0 ? Future.failedFuture(SmsSendingException.forStatus(503)) :
+                    Future.succeededFuture(REPORT);
+        }, conf());
+        final SmsRequest request = request();
+        assertSame(REPORT, await(retrier.send(request)));
+        assertEquals(3, calls.size());
+        for (SmsRequest call : calls) {
+            assertSame(request, call);
+        }
+    }
+
+    @Test
+    public void doesNotRetryNonRetryableFailures() throws Exception {
+        final SmsRetrier retrier = retrier(failing(SmsSendingException.forStatus(500)), conf());
+        assertFailure(retrier.send(request()));
+        assertEquals(1, calls.size());
+    }
+
+    @Test
+    public void stopsAfterMaxAttempts() throws Exception {
+        final SmsRetrier retrier = retrier(failing(SmsSendingException.forStatus(429)), conf().put("maxAttempts", 3));
+        assertFailure(retrier.send(request()));
+        assertEquals(3, calls.size());
+    }
+
+    @Test
+    public void doesNotRetryCancelledRequests() throws Exception {
+        final SmsRequest request = request();
+        final SmsRetrier retrier = retrier(r -> {
+            calls.add(r);
+            r.getCancellation().cancel(new SmsSendingException(ErrorCodes.DEADLINE_EXCEEDED));
+            return Future.failedFuture(SmsSendingException.forStatus(503));
+        }, conf());
+        assertFailure(retrier.send(request));
+        assertEquals(1, calls.size());
+    }
+
+    @Test
+    public void stopsRetryingOnceTheBudgetIsSpent() throws Exception {
+        // 10 retries in the initial budget, none earned afterwards
+        final SmsRetrier retrier = retrier(failing(SmsSendingException.forStatus(503)), conf()
+                .put("maxAttempts", 100)
+                .put("budgetRatio", 0d)
+                .put("minRetriesPerSecond", 0d));
+        assertFailure(retrier.send(request()));
+        assertEquals(11, calls.size());
+
+        calls.clear();
+        assertFailure(retrier.send(request()));
+        assertEquals(1, calls.size());
+    }
+
+    @Test
+    public void earnsRetriesWithTheRequests() throws Exception {
+        final SmsRetrier retrier = retrier(failing(SmsSendingException.forStatus(503)), conf()
+                .put("maxAttempts", 100)
+                .put("budgetRatio", 0.5d)
+                .put("minRetriesPerSecond", 0d));
+        // Spends the initial budget (the deposit of this request is lost as the budget is full)
+        assertFailure(retrier.send(request()));
+        calls.clear();
+        // Two more requests earn one retry
+        retrier.send(request());
+        assertFailure(retrier.send(request()));
+        assertEquals(3, calls.size());
+    }
+
+    private SmsRetrier retrier(final SmsSender next, final JsonObject conf) {
+        return new SmsRetrier(vertx, next, conf);
+    }
+
+    private SmsSender failing(final SmsSendingException failure) {
+        return request -> {
+            calls.add(request);
+            return Future.failedFuture(failure);
+        };
+    }
+
+    private static JsonObject conf() {
+        return new JsonObject().put("initialBackoffMs", 1L).put("maxBackoffMs", 1L);
+    }
+
+    private static SmsRequest request() {
+        return new SmsRequest(new JsonObject()
+                .put("receivers", new JsonArray().add("+33600000001"))
+                .put("message", "Hello"));
+    }
+
+    private static void assertFailure(final Future<SmsSendingReport> result) throws Exception {
+        try {
+            await(result);
+            fail("The request should fail");
+        } catch (ExecutionException e) {
+            assertEquals(ErrorCodes.CALL_ERROR, ((SmsSendingException) e.getCause()).getErrorCode());
+        }
+    }
+
+    private static <T> T await(final Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,87 @@
+package fr.wseduc.smsproxy.providers.dispatch;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsProvider.ErrorCodes;
+import fr.wseduc.smsproxy.providers.SmsRequest;
+import fr.wseduc.smsproxy.providers.SmsSendingException;
+import fr.wseduc.smsproxy.providers.metrics.SmsMetricsRecorder;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SmsSchedulerTest {
+    private static final SmsSendingReport REPORT = new SmsSendingReport(new String[0], new String[0], new String[0]);
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final List<Promise<SmsSendingReport>> calls = new CopyOnWriteArrayList<>();
+    private SmsScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        // One call at a time, a single bulk request waiting
+        scheduler = new SmsScheduler(request -> {
+            sent.add(request.getMessage());
+            final Promise<SmsSendingReport> call = Promise.promise();
+            calls.add(call);
+            return call.future();
+        }, "OVH", new SmsMetricsRecorder.NoopSmsMetricsRecorder(), new JsonObject()
+                .put("maxConcurrency", 1)
+                .put("interactiveReserved", 0)
+                .put("bulkQueueSize", 1));
+    }
+
+    @Test
+    public void cancelledRequestsLeaveTheirLane() throws Exception {
+        scheduler.send(request("a", "bulk"));
+        final SmsRequest cancelled = request("b", "bulk");
+        final Future<SmsSendingReport> cancelledResult = scheduler.send(cancelled);
+        assertEquals(1, scheduler.getBulkQueueSize());
+
+        cancelled.getCancellation().cancel(new SmsSendingException(ErrorCodes.DEADLINE_EXCEEDED));
+        assertTrue(cancelledResult.failed());
+        assertEquals(ErrorCodes.DEADLINE_EXCEEDED, ((SmsSendingException) cancelledResult.cause()).getErrorCode());
+        assertEquals(0, scheduler.getBulkQueueSize());
+
+        // The place of the cancelled request is free again
+        final Future<SmsSendingReport> next = scheduler.send(request("c", "bulk"));
+        assertEquals(1, scheduler.getBulkQueueSize());
+        calls.get(0).complete(REPORT);
+        calls.get(1).complete(REPORT);
+        await(next);
+        assertEquals(Arrays.asList("a", "c"), sent);
+    }
+
+    @Test
+    public void rejectsRequestsOnceTheQueueOfTheirLaneIsFull() throws Exception {
+        scheduler.send(request("a", "bulk"));
+        scheduler.send(request("b", "bulk"));
+        try {
+            await(scheduler.send(request("c", "bulk")));
+            fail("The bulk queue is full");
+        } catch (ExecutionException e) {
+            assertEquals(ErrorCodes.QUEUE_FULL, ((SmsSendingException) e.getCause()).getErrorCode());
+        }
+    }
+
+    private static SmsRequest request(final String message, final String priority) {
+        return new SmsRequest(new JsonObject()
+                .put("receivers", new JsonArray().add("+33600000001"))
+                .put("message", message), 0L, null, priority);
+    }
+
+    private static <T> T await(final Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,73 @@
+package fr.wseduc.smsproxy.providers.dispatch;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1L);
+
+    @Test
+    public void startsFull() {
+        final TokenBucket bucket = new TokenBucket(10d, 10d, 0L);
+        assertTrue(bucket.has(10));
+        assertEquals(10d, bucket.getTokens(), 1e-9);
+        assertEquals(0L, bucket.millisUntil(10));
+    }
+
+    @Test
+    public void refillsAtTheRateUpToTheCapacity() {
+        final TokenBucket bucket = new TokenBucket(10d, 10d, 0L);
+        bucket.take(10);
+        assertFalse(bucket.has(1));
+        assertEquals(100L, bucket.millisUntil(1));
+
+        bucket.refill(SECOND / 2);
+        assertEquals(5d, bucket.getTokens(), 1e-9);
+        assertTrue(bucket.has(5));
+        assertFalse(bucket.has(6));
+
+        bucket.refill(10 * SECOND);
+        assertEquals(10d, bucket.getTokens(), 1e-9);
+    }
+
+    @Test
+    public void chargesTheFullCostOfALargeRequest() {
+        // 100 receivers per second, a 10000 receivers request
+        final TokenBucket bucket = new TokenBucket(100d, 100d, 0L);
+        assertTrue(bucket.has(10000));
+        bucket.take(10000);
+        assertEquals(-9900d, bucket.getTokens(), 1e-9);
+
+        // The next request waits until the debt is paid off : 99s for the debt, 1s more for its own receiver
+        assertFalse(bucket.has(1));
+        assertEquals(99010L, bucket.millisUntil(1));
+        bucket.refill(99 * SECOND);
+        assertFalse(bucket.has(1));
+        bucket.refill(100 * SECOND);
+        assertTrue(bucket.has(1));
+    }
+
+    @Test
+    public void largeRequestsOnlyWaitForAFullBucket() {
+        final TokenBucket bucket = new TokenBucket(100d, 100d, 0L);
+        bucket.take(50);
+        assertFalse(bucket.has(10000));
+        assertEquals(500L, bucket.millisUntil(10000));
+        bucket.refill(SECOND / 2);
+        assertTrue(bucket.has(10000));
+    }
+
+    @Test
+    public void unlimitedBucketAlwaysHasTokens() {
+        final TokenBucket bucket = TokenBucket.create(null, 1d);
+        bucket.take(1000000);
+        bucket.refill(System.nanoTime());
+        assertTrue(bucket.has(Integer.MAX_VALUE));
+        assertEquals(0L, bucket.millisUntil(Integer.MAX_VALUE));
+    }
+}
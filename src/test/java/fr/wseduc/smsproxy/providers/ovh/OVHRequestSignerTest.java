@@ -0,0 +1,52 @@
+package fr.wseduc.smsproxy.providers.ovh;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.Test;
+
+import java.security.NoSuchAlgorithmException;
+
+import static org.junit.Assert.assertEquals;
+
+public class OVHRequestSignerTest {
+    private static final String APPLICATION_SECRET = "EgWIz07P0HYwtQDs";
+    private static final String CONSUMER_KEY = "MtSwSrPpNjqfVSmJhLbPyr2i45lSwPU1";
+    private static final String JOBS_URL = "https://eu.api.ovh.com/1.0/sms/sms-test/jobs/";
+    private static final long TIMESTAMP = 1792310400L;
+
+    private final OVHRequestSigner signer = new OVHRequestSigner(APPLICATION_SECRET, CONSUMER_KEY);
+
+    @Test
+    public void signsAnAsciiBody() {
+        final String body = "{\"message\":\"Hello\",\"receivers\":[\"+33612345678\"]}";
+        assertEquals("$1$d74098e0aba6dc0ebdc41c672d7c18c54aa72df9",
+                signer.sign("POST", JOBS_URL, Buffer.buffer(body), TIMESTAMP));
+    }
+
+    @Test
+    public void signsTheUtf8BytesOfANonAsciiBody() {
+        final String body = "{\"message\":\"Réunion à 18h €\",\"receivers\":[\"+33612345678\"]}";
+        assertEquals("$1$8f2e55fd13c2c255bc97575123195c8865d01d3e",
+                signer.sign("POST", JOBS_URL, Buffer.buffer(body), TIMESTAMP));
+    }
+
+    @Test
+    public void signsARequestWithoutBody() {
+        final String expected = "$1$3c4cdb99f0c806923e3274162d8da06cd1451191";
+        assertEquals(expected, signer.sign("GET", "https://eu.api.ovh.com/1.0/sms/", null, TIMESTAMP));
+        assertEquals(expected, signer.sign("GET", "https://eu.api.ovh.com/1.0/sms/", Buffer.buffer(), TIMESTAMP));
+    }
+
+    @Test
+    public void reusesTheDigestOfTheThread() {
+        final Buffer body = Buffer.buffer("{\"message\":\"Hello\",\"receivers\":[\"+33612345678\"]}");
+        signer.sign("POST", JOBS_URL, Buffer.buffer("{\"message\":\"Réunion à 18h €\"}"), TIMESTAMP);
+        assertEquals("$1$d74098e0aba6dc0ebdc41c672d7c18c54aa72df9", signer.sign("POST", JOBS_URL, body, TIMESTAMP));
+    }
+
+    @Test
+    public void matchesTheOriginalSignatureCode() throws NoSuchAlgorithmException {
+        final String body = "{\"message\":\"Hello\",\"receivers\":[\"+33612345678\"]}";
+        assertEquals(OVHHelper.getRequestSignature(APPLICATION_SECRET, CONSUMER_KEY, "POST", JOBS_URL, body,
+                Long.toString(TIMESTAMP)), signer.sign("POST", JOBS_URL, Buffer.buffer(body), TIMESTAMP));
+    }
+}
@@ -0,0 +1,137 @@
+package fr.wseduc.smsproxy.providers.ovh;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsProvider.ErrorCodes;
+import fr.wseduc.smsproxy.providers.SmsRequest;
+import fr.wseduc.smsproxy.providers.SmsSendingException;
+import fr.wseduc.smsproxy.providers.metrics.SmsMetricsRecorderFactory;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OVHSmsProviderTest {
+    private static final String SERVICE = "sms-test";
+    private Vertx vertx;
+    private OVHSmsProvider provider;
+    private volatile int jobsStatus;
+    private volatile String jobsBody;
+
+    @Before
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        await(SmsMetricsRecorderFactory.init(vertx, new JsonObject().put("metricsOptions", new JsonObject().put("enabled", false))));
+        final HttpServer server = vertx.createHttpServer().requestHandler(request -> request.body().onSuccess(body -> {
+            if (request.method() == HttpMethod.GET && "/1.0/auth/time".equals(request.path())) {
+                request.response().end(Long.toString(System.currentTimeMillis() / 1000L));
+            } else if (request.method() == HttpMethod.POST && ("/1.0/sms/" + SERVICE + "/jobs/").equals(request.path())) {
+                request.response().setStatusCode(jobsStatus).putHeader("Content-Type", "application/json").end(jobsBody);
+            } else {
+                request.response().setStatusCode(404).end("{\"message\":\"Not found\"}");
+            }
+        }));
+        final int port = await(server.listen(0)).actualPort();
+        provider = new OVHSmsProvider();
+        provider.initProvider(vertx, "OVH", new JsonObject()
+                .put("ovhEndPoint", "localhost")
+                .put("ovhSsl", false)
+                .put("ovhPort", port)
+                .put("smsServiceName", SERVICE));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        await(vertx.close());
+    }
+
+    @Test
+    public void decodesTheJobs() throws Exception {
+        respond(200, "{\"totalCreditsRemoved\":1,\"ids\":[12],\"validReceivers\":[\"+33600000001\"],\"invalidReceivers\":[]}");
+        final SmsSendingReport report = await(provider.doSendSms(request()));
+        assertArrayEquals(new String[] {"12"}, report.getIds());
+        assertArrayEquals(new String[] {"+33600000001"}, report.getValidReceivers());
+    }
+
+    @Test
+    public void failsOnAServerError() throws Exception {
+        respond(500, "{\"message\":\"Internal server error\"}");
+        final SmsSendingException e = failure(provider.doSendSms(request()));
+        assertEquals(ErrorCodes.CALL_ERROR, e.getErrorCode());
+        // The request may have been processed
+        assertFalse(e.isRetryable());
+    }
+
+    @Test
+    public void failsOnABadRequest() throws Exception {
+        respond(400, "{\"errorCode\":\"INVALID_ARGUMENT\",\"message\":\"Invalid sender\"}");
+        final SmsSendingException e = failure(provider.doSendSms(request()));
+        assertEquals(ErrorCodes.CALL_ERROR, e.getErrorCode());
+        assertFalse(e.isRetryable());
+    }
+
+    @Test
+    public void failsAsRetryableWhenThrottled() throws Exception {
+        respond(429, "{\"message\":\"Too many requests\"}");
+        final SmsSendingException e = failure(provider.doSendSms(request()));
+        assertEquals(ErrorCodes.CALL_ERROR, e.getErrorCode());
+        assertTrue(e.isRetryable());
+    }
+
+    @Test
+    public void failsOnAnErrorBodyWithASuccessStatus() throws Exception {
+        respond(200, "{\"message\":\"Internal server error\"}");
+        assertEquals(ErrorCodes.CALL_ERROR, failure(provider.doSendSms(request())).getErrorCode());
+    }
+
+    @Test(expected = DecodeException.class)
+    public void decodeJobsRejectsAnErrorBody() throws Exception {
+        OVHSmsProvider.decodeJobs(Buffer.buffer("{\"errorCode\":\"INVALID_ARGUMENT\",\"message\":\"Invalid sender\"}"), credits -> {});
+    }
+
+    @Test(expected = DecodeException.class)
+    public void decodeJobsRejectsANonObjectBody() throws Exception {
+        OVHSmsProvider.decodeJobs(Buffer.buffer("[\"sms-test\"]"), credits -> {});
+    }
+
+    private void respond(final int status, final String body) {
+        jobsStatus = status;
+        jobsBody = body;
+    }
+
+    private static SmsRequest request() {
+        return new SmsRequest(new JsonObject()
+                .put("message", "Hello")
+                .put("receivers", new JsonArray().add("+33600000001")), 0L, null, null);
+    }
+
+    private static SmsSendingException failure(final Future<?> future) throws Exception {
+        try {
+            await(future);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SmsSendingException);
+            return (SmsSendingException) e.getCause();
+        }
+        fail("The sending should have failed");
+        return null;
+    }
+
+    private static <T> T await(final Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+}
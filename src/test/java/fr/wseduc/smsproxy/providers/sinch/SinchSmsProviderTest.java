@@ -0,0 +1,72 @@
+package fr.wseduc.smsproxy.providers.sinch;
+
+import fr.wseduc.sms.SmsSendingReport;
+import fr.wseduc.smsproxy.providers.SmsBulk;
+import fr.wseduc.smsproxy.providers.metrics.SmsMetricsRecorderFactory;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SinchSmsProviderTest {
+
+    @Test
+    public void decodesTheBatch() throws Exception {
+        final SmsSendingReport report = SinchSmsProvider.decodeBatch(Buffer.buffer(
+                "{\"id\":\"01FC66621XXXXX119Z8PMV1QPQ\",\"to\":[\"33600000001\",\"33600000002\"],\"body\":\"Hello\",\"canceled\":false}"));
+        assertArrayEquals(new String[] {"01FC66621XXXXX119Z8PMV1QPQ"}, report.getIds());
+        assertArrayEquals(new String[] {"33600000001", "33600000002"}, report.getValidReceivers());
+        assertArrayEquals(new String[0], report.getInvalidReceivers());
+    }
+
+    @Test(expected = DecodeException.class)
+    public void rejectsAnErrorBody() throws Exception {
+        SinchSmsProvider.decodeBatch(Buffer.buffer("{\"code\":\"syntax_invalid_parameter_format\",\"text\":\"Invalid to\"}"));
+    }
+
+    @Test(expected = DecodeException.class)
+    public void rejectsANonObjectBody() throws Exception {
+        SinchSmsProvider.decodeBatch(Buffer.buffer("[]"));
+    }
+
+    @Test
+    public void packsBatchesUpToTheConfiguredMaxBatchSize() throws Exception {
+        final Vertx vertx = Vertx.vertx();
+        try {
+            SmsMetricsRecorderFactory.init(vertx, new JsonObject().put("metricsOptions", new JsonObject().put("enabled", false)))
+                    .toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+            final SinchSmsProvider provider = new SinchSmsProvider();
+            provider.initProvider(vertx, "Sinch", new JsonObject().put("maxBatchSize", 2));
+            final List<SmsBulk.Group> groups = provider.groupBulk(Arrays.asList(
+                    entry("Hello 1", "+33600000001"),
+                    entry("Hello 2", "+33600000002"),
+                    entry("Hello 3", "+33600000003"),
+                    entry("Hello 4", "+33600000004", "+33600000005", "+33600000006")));
+            provider.stop();
+
+            assertEquals(3, groups.size());
+            assertEquals(new JsonArray().add("+33600000001").add("+33600000002"),
+                    groups.get(0).getParameters().getJsonArray("receivers"));
+            assertEquals(Arrays.asList(0, 1), groups.get(0).getEntries());
+            assertEquals(Arrays.asList(2), groups.get(1).getEntries());
+            // Beyond the batch size, an entry is sent on its own and split by the chunker
+            assertEquals(Arrays.asList(3), groups.get(2).getEntries());
+            assertEquals("Hello 4", groups.get(2).getParameters().getString("message"));
+        } finally {
+            vertx.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static JsonObject entry(final String message, final String... receivers) {
+        return new JsonObject().put("message", message).put("receivers", new JsonArray(Arrays.asList((Object[]) receivers)));
+    }
+}
@@ -0,0 +1,90 @@
+package fr.wseduc.smsproxy.schedule;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SmsScheduleTest {
+    private Vertx vertx;
+    private Context context;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+        context = vertx.getOrCreateContext();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        vertx.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void releasesTheRequestsInTheOrderTheyAreDue() throws Exception {
+        final List<String> released = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(3);
+        final JsonObject conf = new JsonObject().put("tickMs", 10L).put("releasePerSecond", 1000d);
+        final long now = System.currentTimeMillis();
+        onContext(() -> {
+            final SmsSchedule schedule = new SmsSchedule(vertx, conf, 1, request -> {
+                released.add(request.getString("id"));
+                done.countDown();
+            });
+            schedule.schedule(new JsonObject().put("id", "c"), now + 200L);
+            schedule.schedule(new JsonObject().put("id", "a"), now);
+            schedule.schedule(new JsonObject().put("id", "b"), now + 100L);
+            return null;
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a", "b", "c"), released);
+    }
+
+    @Test
+    public void holdsItsShareOfTheMaximum() throws Exception {
+        final JsonObject conf = new JsonObject().put("maxScheduled", 4);
+        final long later = System.currentTimeMillis() + 60_000L;
+        final boolean[] full = onContext(() -> {
+            final SmsSchedule schedule = new SmsSchedule(vertx, conf, 2, request -> {});
+            schedule.schedule(new JsonObject().put("id", "a"), later);
+            final boolean before = schedule.isFull();
+            schedule.schedule(new JsonObject().put("id", "b"), later);
+            return new boolean[] {before, schedule.isFull()};
+        });
+
+        assertFalse(full[0]);
+        assertTrue(full[1]);
+    }
+
+    @Test
+    public void releaseTimeIsWithinTheWindow() {
+        assertEquals(1000L, SmsSchedule.releaseTime(1000L, 0L));
+        for (int i = 0; i < 100; i++) {
+            final long releaseAt = SmsSchedule.releaseTime(1000L, 50L);
+            assertTrue(releaseAt >= 1000L && releaseAt < 1050L);
+        }
+    }
+
+    // The schedule is not thread safe : it is used on the event loop of its timer, as in the verticle
+    private <T> T onContext(final Supplier<T> action) throws Exception {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        context.runOnContext(v -> result.complete(action.get()));
+        return result.get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,77 @@
+package fr.wseduc.smsproxy.schedule;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimerWheelTest {
+    private static final long START = 1_000_000L;
+
+    @Test
+    public void expiresTheValuesInTheOrderTheyAreDue() {
+        final TimerWheel<String> wheel = new TimerWheel<>(10L, 8, START);
+        wheel.add("c", START + 50L);
+        wheel.add("a", START + 10L);
+        wheel.add("b", START + 30L);
+        assertEquals(3, wheel.size());
+
+        final List<String> expired = new ArrayList<>();
+        wheel.advance(START + 29L, expired);
+        assertEquals(Arrays.asList("a"), expired);
+        wheel.advance(START + 50L, expired);
+        assertEquals(Arrays.asList("a", "b", "c"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void keepsTheValuesDueAfterATurnOfTheWheel() {
+        // 8 slots of 10 ms : a turn lasts 80 ms, and START + 90 shares its slot with START + 10
+        final TimerWheel<String> wheel = new TimerWheel<>(10L, 8, START);
+        wheel.add("later", START + 90L);
+        wheel.add("sooner", START + 10L);
+
+        final List<String> expired = new ArrayList<>();
+        wheel.advance(START + 20L, expired);
+        assertEquals(Arrays.asList("sooner"), expired);
+        assertEquals(1, wheel.size());
+
+        wheel.advance(START + 89L, expired);
+        assertEquals(Arrays.asList("sooner"), expired);
+        wheel.advance(START + 90L, expired);
+        assertEquals(Arrays.asList("sooner", "later"), expired);
+    }
+
+    @Test
+    public void expiresTheValuesAlreadyDueAtTheNextAdvance() {
+        final TimerWheel<String> wheel = new TimerWheel<>(10L, 8, START);
+        final List<String> expired = new ArrayList<>();
+        wheel.advance(START + 100L, expired);
+
+        wheel.add("past", START);
+        wheel.advance(START + 100L, expired);
+        assertEquals(Collections.emptyList(), expired);
+        wheel.advance(START + 110L, expired);
+        assertEquals(Arrays.asList("past"), expired);
+    }
+
+    @Test
+    public void roundsTheNumberOfSlotsUpToAPowerOfTwo() {
+        // 5 slots become 8 : START + 50 and START + 130 are due in the same slot, but not in the same turn
+        final TimerWheel<String> wheel = new TimerWheel<>(10L, 5, START);
+        wheel.add("first", START + 50L);
+        wheel.add("second", START + 130L);
+
+        final List<String> expired = new ArrayList<>();
+        wheel.advance(START + 50L, expired);
+        assertEquals(Arrays.asList("first"), expired);
+        wheel.advance(START + 129L, expired);
+        assertEquals(Arrays.asList("first"), expired);
+        wheel.advance(START + 130L, expired);
+        assertEquals(Arrays.asList("first", "second"), expired);
+    }
+}